@@ -21,6 +21,7 @@
 
 #if LIQUIDFUN_EXTERNAL_LANGUAGE_API
 #include <Box2D/Collision/Shapes/b2CircleShape.h>
+#include <Box2D/Collision/Shapes/b2PolygonShape.h>
 #endif //LIQUIDFUN_EXTERNAL_LANGUAGE_API
 
 b2ParticleGroup::b2ParticleGroup()
@@ -129,6 +130,11 @@ void b2ParticleGroupDef::FreeShapesMemory() {
 		delete[] circleShapes;
 		circleShapes = NULL;
 	}
+	if (polygonShapes)
+	{
+		delete[] polygonShapes;
+		polygonShapes = NULL;
+	}
 	if (ownShapesArray && shapes)
 	{
 		delete[] shapes;
@@ -160,4 +166,34 @@ void b2ParticleGroupDef::SetCircleShapesFromVertexList(void* inBuf,
 	shapes = pShapes;
 	shapeCount = numShapes;
 }
+
+void b2ParticleGroupDef::SetPolygonShapesFromVertexList(void* inBuf,
+														int numShapes)
+{
+	const int32* vertexCounts = (const int32*) inBuf;
+	const float* points = (const float*) (vertexCounts + numShapes);
+	// Create polygon shapes from the vertex counts and vertex list, leaving
+	// out those b2PolygonShape can't hold rather than assert on them
+	b2PolygonShape* pPolygonShapes = new b2PolygonShape[numShapes];
+	b2Shape** pShapes = new b2Shape*[numShapes];
+	int validShapes = 0;
+	for (int i = 0; i < numShapes; ++i) {
+		const int32 vertexCount = vertexCounts[i];
+		if (vertexCount >= 3 && vertexCount <= b2_maxPolygonVertices) {
+			pPolygonShapes[validShapes].Set(points, vertexCount);
+			pShapes[validShapes] = &pPolygonShapes[validShapes];
+			++validShapes;
+		}
+		points += vertexCount * 2;
+	}
+
+	// Clean up existing buffers
+	FreeShapesMemory();
+
+	// Assign to newly created buffers
+	ownShapesArray = true;
+	polygonShapes = pPolygonShapes;
+	shapes = pShapes;
+	shapeCount = validShapes;
+}
 #endif // LIQUIDFUN_EXTERNAL_LANGUAGE_API
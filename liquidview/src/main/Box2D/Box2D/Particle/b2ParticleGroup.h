@@ -27,6 +27,7 @@ class b2ParticleGroup;
 class b2ParticleColor;
 #if LIQUIDFUN_EXTERNAL_LANGUAGE_API
 class b2CircleShape;
+class b2PolygonShape;
 #endif // LIQUIDFUN_EXTERNAL_LANGUAGE_API
 
 /// @file
@@ -76,6 +77,7 @@ struct b2ParticleGroupDef
 
 #if LIQUIDFUN_EXTERNAL_LANGUAGE_API
 		circleShapes = NULL;
+		polygonShapes = NULL;
 		ownShapesArray = false;
 #endif // LIQUIDFUN_EXTERNAL_LANGUAGE_API
 	}
@@ -147,10 +149,14 @@ struct b2ParticleGroupDef
 	/// Storage for constructed CircleShapes from an incoming vertex list
 	const b2CircleShape* circleShapes;
 
+	/// Storage for constructed PolygonShapes from an incoming vertex list
+	const b2PolygonShape* polygonShapes;
+
 	/// True if we create the shapes array internally.
 	bool ownShapesArray;
 
-	/// Clean up all memory associated with SetCircleShapesFromVertexList
+	/// Clean up all memory associated with SetCircleShapesFromVertexList and
+	/// SetPolygonShapesFromVertexList
 	void FreeShapesMemory();
 
 	/// From a vertex list created by an external language API, construct
@@ -160,6 +166,13 @@ struct b2ParticleGroupDef
 									   int numShapes,
 									   float radius);
 
+	/// From a vertex list created by an external language API, construct
+	/// a list of polygon shapes that can be used to create a b2ParticleGroup.
+	/// inBuf holds numShapes int32 vertex counts, followed by the x, y floats
+	/// of every vertex of every shape. Shapes with fewer than 3 or more than
+	/// b2_maxPolygonVertices vertices are left out.
+	void SetPolygonShapesFromVertexList(void* inBuf, int numShapes);
+
 	/// Set position with direct floats.
 	void SetPosition(float32 x, float32 y);
 
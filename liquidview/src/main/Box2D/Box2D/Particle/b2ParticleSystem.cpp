@@ -4647,4 +4647,86 @@ b2ParticleSystem::b2ExceptionType b2ParticleSystem::IsBufCopyValid(
 	return b2_noExceptions;
 }
 
+int b2ParticleSystem::CopyParticleGroupRanges(void* outBuf, int size) const
+{
+	const int copySize = m_groupCount * 3 * sizeof(int32);
+	if (copySize > size)
+	{
+		return b2_bufferTooSmall;
+	}
+
+	int32* out = (int32*) outBuf;
+	for (const b2ParticleGroup* group = m_groupList; group;
+		 group = group->GetNext())
+	{
+		*out++ = group->GetBufferIndex();
+		*out++ = group->GetParticleCount();
+		*out++ = (int32) group->GetGroupFlags();
+	}
+	return b2_noExceptions;
+}
+
+static bool b2ParticleGroupBufferOrder(const b2ParticleGroup* a,
+									   const b2ParticleGroup* b)
+{
+	return a->GetBufferIndex() < b->GetBufferIndex();
+}
+
+int32 b2ParticleSystem::PartitionParticleGroups(uint32 groupFlags)
+{
+	if (m_groupCount == 0)
+	{
+		return 0;
+	}
+
+	b2ParticleGroup** groups = (b2ParticleGroup**) m_world->
+		m_stackAllocator.Allocate(sizeof(b2ParticleGroup*) * m_groupCount);
+	int32 groupCount = 0;
+	for (b2ParticleGroup* group = m_groupList; group; group = group->GetNext())
+	{
+		groups[groupCount++] = group;
+	}
+	std::sort(groups, groups + groupCount, b2ParticleGroupBufferOrder);
+
+	// Move every matching group down to the end of the matching span.
+	// Rotations only shift particles below the group being moved, so the
+	// groups still to come keep their indices.
+	int32 partitionEnd = 0;
+	for (int32 i = 0; i < groupCount; i++)
+	{
+		b2ParticleGroup* group = groups[i];
+		if (group->GetGroupFlags() != groupFlags ||
+			group->m_firstIndex == group->m_lastIndex)
+		{
+			continue;
+		}
+		const int32 groupSize = group->m_lastIndex - group->m_firstIndex;
+		RotateBuffer(partitionEnd, group->m_firstIndex, group->m_lastIndex);
+		partitionEnd += groupSize;
+	}
+
+	m_world->m_stackAllocator.Free(groups);
+	return partitionEnd;
+}
+
+int32 b2ParticleSystem::DestroyParticlesInShapes(const b2ParticleGroupDef& def)
+{
+	b2Transform identity;
+	identity.SetIdentity();
+
+	int32 destroyed = 0;
+	for (int32 i = 0; i < def.shapeCount; i++)
+	{
+		destroyed += DestroyParticlesInShape(*def.shapes[i], identity);
+	}
+	return destroyed;
+}
+
+b2ParticleGroup* b2ParticleSystem::ReplaceParticlesInShapes(
+	const b2ParticleGroupDef& def)
+{
+	DestroyParticlesInShapes(def);
+	return CreateParticleGroup(def);
+}
+
 #endif // LIQUIDFUN_EXTERNAL_LANGUAGE_API
@@ -29,6 +29,15 @@
 
 #if LIQUIDFUN_EXTERNAL_LANGUAGE_API
 #include <cstring>
+
+/// A particle buffer's memory, for a language binding to wrap without
+/// copying it. Only valid until the particle system reallocates its
+/// buffers, i.e. until its internal allocated capacity changes.
+struct b2BufferView
+{
+	void* data;
+	int32 size;
+};
 #endif // LIQUIDFUN_EXTERNAL_LANGUAGE_API
 
 class b2World;
@@ -706,6 +715,20 @@ public:
 		b2_noExceptions,
 	};
 
+	/// Attributes of a particle in an interleaved vertex buffer. A layout
+	/// is a combination of these flags; attributes are laid out in the
+	/// order listed here, without padding.
+	enum b2VertexAttribute
+	{
+		b2_vertexPosition = 1 << 0,
+		b2_vertexVelocity = 1 << 1,
+		b2_vertexColor = 1 << 2,
+		b2_vertexWeight = 1 << 3,
+		/// Not an attribute: positions and velocities are stored as
+		/// normalized 16-bit values, see CopyQuantizedVertexBuffer().
+		b2_vertexQuantized = 1 << 4,
+	};
+
 	/// Set the velocity of particle at index with direct floats.
 	void SetParticleVelocity(int32 index, float32 vx, float32 vy);
 
@@ -731,6 +754,72 @@ public:
 	int CopyWeightBuffer(int startIndex, int numParticles, void* outBuf,
 						 int size) const;
 
+	/// Copy flags buffer into a specified buffer, starting from startIndex.
+	int CopyFlagsBuffer(int startIndex, int numParticles, void* outBuf,
+						int size) const;
+
+	/// Size in bytes of one vertex in an interleaved vertex buffer.
+	/// @param layout Combination of b2VertexAttribute flags.
+	static int GetInterleavedVertexStride(int layout);
+
+	/// Copy the attributes in layout of every particle into one interleaved
+	/// vertex buffer in a single pass, starting from startIndex.
+	/// @param layout Combination of b2VertexAttribute flags.
+	int CopyInterleavedVertexBuffer(int startIndex, int numParticles,
+									int layout, void* outBuf,
+									int size) const;
+
+	/// Copy like CopyInterleavedVertexBuffer(), with positions as normalized
+	/// unsigned 16-bit values over [minX, maxX] x [minY, maxY], and
+	/// velocities as normalized signed 16-bit values over
+	/// [-maxSpeed, maxSpeed]. Values out of range are clamped.
+	/// @param layout Combination of b2VertexAttribute flags. Implies
+	/// b2_vertexQuantized.
+	int CopyQuantizedVertexBuffer(int startIndex, int numParticles,
+								  int layout, float32 minX, float32 minY,
+								  float32 maxX, float32 maxY,
+								  float32 maxSpeed, void* outBuf,
+								  int size) const;
+
+	/// Number of particles the buffers currently have room for. The buffers
+	/// are reallocated, and any views of them invalidated, when it changes.
+	int32 GetInternalAllocatedCapacity() const;
+
+	/// View of the position buffer, over the whole allocated capacity.
+	b2BufferView GetPositionBufferView();
+
+	/// View of the velocity buffer, over the whole allocated capacity.
+	b2BufferView GetVelocityBufferView();
+
+	/// View of the color buffer, over the whole allocated capacity.
+	/// Allocates the color buffer if it does not exist yet.
+	b2BufferView GetColorBufferView();
+
+	/// View of the weight buffer, over the whole allocated capacity.
+	b2BufferView GetWeightBufferView();
+
+	/// Copy the buffer index, particle count and group flags of every
+	/// particle group, in list order, as three int32 each. Reads all group
+	/// ranges in a single call.
+	int CopyParticleGroupRanges(void* outBuf, int size) const;
+
+	/// Reorder the particles so the groups whose flags are exactly
+	/// groupFlags come first, ahead of all other particles. Keeps the order
+	/// within both spans, and does nothing if they are already apart.
+	/// Destroying particles keeps the order, so this is only needed after
+	/// creating particles.
+	/// @return Number of particles in the groups that now come first.
+	int32 PartitionParticleGroups(uint32 groupFlags);
+
+	/// Destroy particles inside every shape of def.shapes, given in world
+	/// coordinates. Lets many shapes be erased with a single call.
+	/// @return Number of particles destroyed.
+	int32 DestroyParticlesInShapes(const b2ParticleGroupDef& def);
+
+	/// Destroy particles inside def.shapes, then create a group filling them.
+	/// Lets many shapes be painted over with a single call.
+	b2ParticleGroup* ReplaceParticlesInShapes(const b2ParticleGroupDef& def);
+
 
 
 private:
@@ -1540,6 +1629,196 @@ inline int b2ParticleSystem::CopyWeightBuffer(int startIndex,
 					  copySize);
 }
 
+inline int b2ParticleSystem::CopyFlagsBuffer(int startIndex,
+											 int numParticles,
+											 void* outBuf,
+											 int size) const
+{
+	int copySize = numParticles * sizeof(uint32);
+	void* inBufWithOffset = (void*) (GetFlagsBuffer() + startIndex);
+	return CopyBuffer(startIndex, numParticles, inBufWithOffset, outBuf, size,
+					  copySize);
+}
+
+inline int b2ParticleSystem::GetInterleavedVertexStride(int layout)
+{
+	const int vectorSize = (layout & b2_vertexQuantized) ?
+		2 * sizeof(uint16) : sizeof(b2Vec2);
+	int stride = 0;
+	if (layout & b2_vertexPosition)
+	{
+		stride += vectorSize;
+	}
+	if (layout & b2_vertexVelocity)
+	{
+		stride += vectorSize;
+	}
+	if (layout & b2_vertexColor)
+	{
+		stride += sizeof(b2ParticleColor);
+	}
+	if (layout & b2_vertexWeight)
+	{
+		stride += sizeof(float32);
+	}
+	return stride;
+}
+
+inline int b2ParticleSystem::CopyInterleavedVertexBuffer(int startIndex,
+														 int numParticles,
+														 int layout,
+														 void* outBuf,
+														 int size) const
+{
+	// Quantized copies need their ranges
+	layout &= ~b2_vertexQuantized;
+	int copySize = numParticles * GetInterleavedVertexStride(layout);
+	b2ExceptionType exception = IsBufCopyValid(startIndex, numParticles,
+											   copySize, size);
+	if (exception != b2_noExceptions || copySize == 0)
+	{
+		return exception;
+	}
+
+	const b2Vec2* positions = GetPositionBuffer() + startIndex;
+	const b2Vec2* velocities = GetVelocityBuffer() + startIndex;
+	const b2ParticleColor* colors = (layout & b2_vertexColor) ?
+		GetColorBuffer() + startIndex : NULL;
+	const float32* weights = GetWeightBuffer() + startIndex;
+
+	uint8* out = (uint8*) outBuf;
+	for (int i = 0; i < numParticles; i++)
+	{
+		if (layout & b2_vertexPosition)
+		{
+			memcpy(out, &positions[i], sizeof(b2Vec2));
+			out += sizeof(b2Vec2);
+		}
+		if (layout & b2_vertexVelocity)
+		{
+			memcpy(out, &velocities[i], sizeof(b2Vec2));
+			out += sizeof(b2Vec2);
+		}
+		if (layout & b2_vertexColor)
+		{
+			memcpy(out, &colors[i], sizeof(b2ParticleColor));
+			out += sizeof(b2ParticleColor);
+		}
+		if (layout & b2_vertexWeight)
+		{
+			memcpy(out, &weights[i], sizeof(float32));
+			out += sizeof(float32);
+		}
+	}
+	return b2_noExceptions;
+}
+
+inline int b2ParticleSystem::CopyQuantizedVertexBuffer(int startIndex,
+													   int numParticles,
+													   int layout,
+													   float32 minX,
+													   float32 minY,
+													   float32 maxX,
+													   float32 maxY,
+													   float32 maxSpeed,
+													   void* outBuf,
+													   int size) const
+{
+	layout |= b2_vertexQuantized;
+	int copySize = numParticles * GetInterleavedVertexStride(layout);
+	b2ExceptionType exception = IsBufCopyValid(startIndex, numParticles,
+											   copySize, size);
+	if (exception != b2_noExceptions || copySize == 0)
+	{
+		return exception;
+	}
+
+	const b2Vec2* positions = GetPositionBuffer() + startIndex;
+	const b2Vec2* velocities = GetVelocityBuffer() + startIndex;
+	const b2ParticleColor* colors = (layout & b2_vertexColor) ?
+		GetColorBuffer() + startIndex : NULL;
+	const float32* weights = GetWeightBuffer() + startIndex;
+
+	const float32 scaleX = maxX > minX ? 1 / (maxX - minX) : 0;
+	const float32 scaleY = maxY > minY ? 1 / (maxY - minY) : 0;
+	const float32 velocityScale = maxSpeed > 0 ? 1 / maxSpeed : 0;
+
+	uint8* out = (uint8*) outBuf;
+	for (int i = 0; i < numParticles; i++)
+	{
+		if (layout & b2_vertexPosition)
+		{
+			uint16 position[2];
+			position[0] = (uint16) (b2Clamp(
+				(positions[i].x - minX) * scaleX, 0.0f, 1.0f) * 65535 + 0.5f);
+			position[1] = (uint16) (b2Clamp(
+				(positions[i].y - minY) * scaleY, 0.0f, 1.0f) * 65535 + 0.5f);
+			memcpy(out, position, sizeof(position));
+			out += sizeof(position);
+		}
+		if (layout & b2_vertexVelocity)
+		{
+			const float32 vx = b2Clamp(
+				velocities[i].x * velocityScale, -1.0f, 1.0f) * 32767;
+			const float32 vy = b2Clamp(
+				velocities[i].y * velocityScale, -1.0f, 1.0f) * 32767;
+			int16 velocity[2];
+			velocity[0] = (int16) (vx < 0 ? vx - 0.5f : vx + 0.5f);
+			velocity[1] = (int16) (vy < 0 ? vy - 0.5f : vy + 0.5f);
+			memcpy(out, velocity, sizeof(velocity));
+			out += sizeof(velocity);
+		}
+		if (layout & b2_vertexColor)
+		{
+			memcpy(out, &colors[i], sizeof(b2ParticleColor));
+			out += sizeof(b2ParticleColor);
+		}
+		if (layout & b2_vertexWeight)
+		{
+			memcpy(out, &weights[i], sizeof(float32));
+			out += sizeof(float32);
+		}
+	}
+	return b2_noExceptions;
+}
+
+inline int32 b2ParticleSystem::GetInternalAllocatedCapacity() const
+{
+	return m_internalAllocatedCapacity;
+}
+
+inline b2BufferView b2ParticleSystem::GetPositionBufferView()
+{
+	b2BufferView view;
+	view.data = GetPositionBuffer();
+	view.size = m_internalAllocatedCapacity * sizeof(b2Vec2);
+	return view;
+}
+
+inline b2BufferView b2ParticleSystem::GetVelocityBufferView()
+{
+	b2BufferView view;
+	view.data = GetVelocityBuffer();
+	view.size = m_internalAllocatedCapacity * sizeof(b2Vec2);
+	return view;
+}
+
+inline b2BufferView b2ParticleSystem::GetColorBufferView()
+{
+	b2BufferView view;
+	view.data = GetColorBuffer();
+	view.size = m_internalAllocatedCapacity * sizeof(b2ParticleColor);
+	return view;
+}
+
+inline b2BufferView b2ParticleSystem::GetWeightBufferView()
+{
+	b2BufferView view;
+	view.data = GetWeightBuffer();
+	view.size = m_internalAllocatedCapacity * sizeof(float32);
+	return view;
+}
+
 inline int b2ParticleSystem::CopyBuffer(int startIndex, int numParticles,
 										void* inBufWithOffset, void* outBuf,
 										int outBufSize, int copySize) const
@@ -187,6 +187,10 @@ public class ParticleGroupDef {
     liquidfunJNI.ParticleGroupDef_setCircleShapesFromVertexList(swigCPtr, this, inBuf, numShapes, radius);
   }
 
+  public void setPolygonShapesFromVertexList(java.nio.ByteBuffer inBuf, int numShapes) {
+    liquidfunJNI.ParticleGroupDef_setPolygonShapesFromVertexList(swigCPtr, this, inBuf, numShapes);
+  }
+
   public void setPosition(float x, float y) {
     liquidfunJNI.ParticleGroupDef_setPosition(swigCPtr, this, x, y);
   }
@@ -129,4 +129,77 @@ public class ParticleSystem {
     return liquidfunJNI.ParticleSystem_copyWeightBuffer(swigCPtr, this, startIndex, numParticles, outBuf);
   }
 
+  public int copyFlagsBuffer(int startIndex, int numParticles, java.nio.ByteBuffer outBuf) {
+    return liquidfunJNI.ParticleSystem_copyFlagsBuffer(swigCPtr, this, startIndex, numParticles, outBuf);
+  }
+
+  public int copyInterleavedVertexBuffer(int startIndex, int numParticles, int layout, java.nio.ByteBuffer outBuf) {
+    return liquidfunJNI.ParticleSystem_copyInterleavedVertexBuffer(swigCPtr, this, startIndex, numParticles, layout, outBuf);
+  }
+
+  public int copyQuantizedVertexBuffer(int startIndex, int numParticles, int layout, float minX, float minY, float maxX, float maxY, float maxSpeed, java.nio.ByteBuffer outBuf) {
+    return liquidfunJNI.ParticleSystem_copyQuantizedVertexBuffer(swigCPtr, this, startIndex, numParticles, layout, minX, minY, maxX, maxY, maxSpeed, outBuf);
+  }
+
+  public int copyParticleGroupRanges(java.nio.ByteBuffer outBuf) {
+    return liquidfunJNI.ParticleSystem_copyParticleGroupRanges(swigCPtr, this, outBuf);
+  }
+
+  public void setStaticPressureIterations(int iterations) {
+    liquidfunJNI.ParticleSystem_setStaticPressureIterations(swigCPtr, this, iterations);
+  }
+
+  public int getStaticPressureIterations() {
+    return liquidfunJNI.ParticleSystem_getStaticPressureIterations(swigCPtr, this);
+  }
+
+  public int destroyParticlesInShapes(ParticleGroupDef def) {
+    return liquidfunJNI.ParticleSystem_destroyParticlesInShapes(swigCPtr, this, ParticleGroupDef.getCPtr(def), def);
+  }
+
+  public ParticleGroup replaceParticlesInShapes(ParticleGroupDef def) {
+    long cPtr = liquidfunJNI.ParticleSystem_replaceParticlesInShapes(swigCPtr, this, ParticleGroupDef.getCPtr(def), def);
+    return (cPtr == 0) ? null : new ParticleGroup(cPtr, false);
+  }
+
+  public float computeCollisionEnergy() {
+    return liquidfunJNI.ParticleSystem_computeCollisionEnergy(swigCPtr, this);
+  }
+
+  public int getInternalAllocatedCapacity() {
+    return liquidfunJNI.ParticleSystem_getInternalAllocatedCapacity(swigCPtr, this);
+  }
+
+  public java.nio.ByteBuffer getPositionBufferView() {
+    java.nio.ByteBuffer buffer = liquidfunJNI.ParticleSystem_getPositionBufferView(swigCPtr, this);
+    return buffer == null ? null : buffer.order(java.nio.ByteOrder.nativeOrder());
+  }
+
+  public java.nio.ByteBuffer getVelocityBufferView() {
+    java.nio.ByteBuffer buffer = liquidfunJNI.ParticleSystem_getVelocityBufferView(swigCPtr, this);
+    return buffer == null ? null : buffer.order(java.nio.ByteOrder.nativeOrder());
+  }
+
+  public java.nio.ByteBuffer getColorBufferView() {
+    java.nio.ByteBuffer buffer = liquidfunJNI.ParticleSystem_getColorBufferView(swigCPtr, this);
+    return buffer == null ? null : buffer.order(java.nio.ByteOrder.nativeOrder());
+  }
+
+  public java.nio.ByteBuffer getWeightBufferView() {
+    java.nio.ByteBuffer buffer = liquidfunJNI.ParticleSystem_getWeightBufferView(swigCPtr, this);
+    return buffer == null ? null : buffer.order(java.nio.ByteOrder.nativeOrder());
+  }
+
+  public int getAllParticleFlags() {
+    return liquidfunJNI.ParticleSystem_getAllParticleFlags(swigCPtr, this);
+  }
+
+  public int getMaxParticleCount() {
+    return liquidfunJNI.ParticleSystem_getMaxParticleCount(swigCPtr, this);
+  }
+
+  public int partitionParticleGroups(int groupFlags) {
+    return liquidfunJNI.ParticleSystem_partitionParticleGroups(swigCPtr, this, groupFlags);
+  }
+
 }
@@ -73,4 +73,8 @@ public class World {
     liquidfunJNI.World_setGravity(swigCPtr, this, gravityX, gravityY);
   }
 
+  public int calculateReasonableParticleIterations(float timeStep) {
+    return liquidfunJNI.World_calculateReasonableParticleIterations(swigCPtr, this, timeStep);
+  }
+
 }
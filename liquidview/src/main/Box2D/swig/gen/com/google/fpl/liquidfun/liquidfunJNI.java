@@ -225,6 +225,7 @@ public class liquidfunJNI {
   public final static native int World_getBodyCount(long jarg1, World jarg1_);
   public final static native long World_createParticleSystem(long jarg1, World jarg1_, long jarg2, ParticleSystemDef jarg2_);
   public final static native void World_setGravity(long jarg1, World jarg1_, float jarg2, float jarg3);
+  public final static native int World_calculateReasonableParticleIterations(long jarg1, World jarg1_, float jarg2);
   public final static native long new_QueryCallback();
   public final static native void delete_QueryCallback(long jarg1);
   public final static native boolean QueryCallback_reportFixture(long jarg1, QueryCallback jarg1_, long jarg2, Fixture jarg2_);
@@ -317,6 +318,7 @@ public class liquidfunJNI {
   public final static native boolean ParticleGroupDef_ownShapesArray_get(long jarg1, ParticleGroupDef jarg1_);
   public final static native void ParticleGroupDef_freeShapesMemory(long jarg1, ParticleGroupDef jarg1_);
   public final static native void ParticleGroupDef_setCircleShapesFromVertexList(long jarg1, ParticleGroupDef jarg1_, java.nio.ByteBuffer jarg2, int jarg3, float jarg4);
+  public final static native void ParticleGroupDef_setPolygonShapesFromVertexList(long jarg1, ParticleGroupDef jarg1_, java.nio.ByteBuffer jarg2, int jarg3);
   public final static native void ParticleGroupDef_setPosition(long jarg1, ParticleGroupDef jarg1_, float jarg2, float jarg3);
   public final static native void ParticleGroupDef_setColor(long jarg1, ParticleGroupDef jarg1_, int jarg2, int jarg3, int jarg4, int jarg5);
   public final static native int ParticleSystem_createParticle(long jarg1, ParticleSystem jarg1_, long jarg2, ParticleDef jarg2_);
@@ -343,6 +345,23 @@ public class liquidfunJNI {
   public final static native int ParticleSystem_copyVelocityBuffer(long jarg1, ParticleSystem jarg1_, int jarg2, int jarg3, java.nio.ByteBuffer jarg4);
   public final static native int ParticleSystem_copyColorBuffer(long jarg1, ParticleSystem jarg1_, int jarg2, int jarg3, java.nio.ByteBuffer jarg4);
   public final static native int ParticleSystem_copyWeightBuffer(long jarg1, ParticleSystem jarg1_, int jarg2, int jarg3, java.nio.ByteBuffer jarg4);
+  public final static native int ParticleSystem_copyFlagsBuffer(long jarg1, ParticleSystem jarg1_, int jarg2, int jarg3, java.nio.ByteBuffer jarg4);
+  public final static native int ParticleSystem_copyInterleavedVertexBuffer(long jarg1, ParticleSystem jarg1_, int jarg2, int jarg3, int jarg4, java.nio.ByteBuffer jarg5);
+  public final static native int ParticleSystem_copyQuantizedVertexBuffer(long jarg1, ParticleSystem jarg1_, int jarg2, int jarg3, int jarg4, float jarg5, float jarg6, float jarg7, float jarg8, float jarg9, java.nio.ByteBuffer jarg10);
+  public final static native int ParticleSystem_copyParticleGroupRanges(long jarg1, ParticleSystem jarg1_, java.nio.ByteBuffer jarg2);
+  public final static native void ParticleSystem_setStaticPressureIterations(long jarg1, ParticleSystem jarg1_, int jarg2);
+  public final static native int ParticleSystem_getStaticPressureIterations(long jarg1, ParticleSystem jarg1_);
+  public final static native int ParticleSystem_destroyParticlesInShapes(long jarg1, ParticleSystem jarg1_, long jarg2, ParticleGroupDef jarg2_);
+  public final static native long ParticleSystem_replaceParticlesInShapes(long jarg1, ParticleSystem jarg1_, long jarg2, ParticleGroupDef jarg2_);
+  public final static native float ParticleSystem_computeCollisionEnergy(long jarg1, ParticleSystem jarg1_);
+  public final static native int ParticleSystem_getInternalAllocatedCapacity(long jarg1, ParticleSystem jarg1_);
+  public final static native java.nio.ByteBuffer ParticleSystem_getPositionBufferView(long jarg1, ParticleSystem jarg1_);
+  public final static native java.nio.ByteBuffer ParticleSystem_getVelocityBufferView(long jarg1, ParticleSystem jarg1_);
+  public final static native java.nio.ByteBuffer ParticleSystem_getColorBufferView(long jarg1, ParticleSystem jarg1_);
+  public final static native java.nio.ByteBuffer ParticleSystem_getWeightBufferView(long jarg1, ParticleSystem jarg1_);
+  public final static native int ParticleSystem_getAllParticleFlags(long jarg1, ParticleSystem jarg1_);
+  public final static native int ParticleSystem_getMaxParticleCount(long jarg1, ParticleSystem jarg1_);
+  public final static native int ParticleSystem_partitionParticleGroups(long jarg1, ParticleSystem jarg1_, int jarg2);
   public final static native void ParticlePair_indexA_set(long jarg1, ParticlePair jarg1_, int jarg2);
   public final static native int ParticlePair_indexA_get(long jarg1, ParticlePair jarg1_);
   public final static native void ParticlePair_indexB_set(long jarg1, ParticlePair jarg1_, int jarg2);
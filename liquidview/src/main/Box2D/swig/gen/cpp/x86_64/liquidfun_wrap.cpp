@@ -4906,6 +4906,23 @@ SWIGEXPORT void JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_World_1setGra
 }
 
 
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_World_1calculateReasonableParticleIterations(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jfloat jarg2) {
+  jint jresult = 0 ;
+  b2World *arg1 = (b2World *) 0 ;
+  float32 arg2 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2World **)&jarg1; 
+  arg2 = (float32)jarg2; 
+  result = (int32)((b2World const *)arg1)->CalculateReasonableParticleIterations(arg2);
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
 SWIGEXPORT jlong JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_new_1QueryCallback(JNIEnv *jenv, jclass jcls) {
   jlong jresult = 0 ;
   b2QueryCallback *result = 0 ;
@@ -6276,6 +6293,30 @@ SWIGEXPORT void JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleGroup
 }
 
 
+SWIGEXPORT void JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleGroupDef_1setPolygonShapesFromVertexList(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jobject jarg2, jint jarg3) {
+  b2ParticleGroupDef *arg1 = (b2ParticleGroupDef *) 0 ;
+  void *arg2 = (void *) 0 ;
+  int arg3 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleGroupDef **)&jarg1; 
+  {
+    arg2 = jenv->GetDirectBufferAddress(jarg2);
+    if (arg2 == NULL) {
+      SWIG_JavaThrowException(
+        jenv,
+        SWIG_JavaRuntimeException,
+        "Unable to get address of java.nio.ByteBuffer. "
+        "Is the ByteBuffer initialized?");
+    }
+  }
+  arg3 = (int)jarg3; 
+  (arg1)->SetPolygonShapesFromVertexList(arg2,arg3);
+}
+
+
 SWIGEXPORT void JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleGroupDef_1setPosition(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jfloat jarg2, jfloat jarg3) {
   b2ParticleGroupDef *arg1 = (b2ParticleGroupDef *) 0 ;
   float32 arg2 ;
@@ -6799,6 +6840,393 @@ SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSyste
 }
 
 
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1copyFlagsBuffer(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jint jarg2, jint jarg3, jobject jarg4) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int arg2 ;
+  int arg3 ;
+  void *arg4 = (void *) 0 ;
+  int arg5 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = (int)jarg2; 
+  arg3 = (int)jarg3; 
+  {
+    arg4 = jenv->GetDirectBufferAddress(jarg4);
+    arg5 = jenv->GetDirectBufferCapacity(jarg4);
+    if ((arg4 == NULL) && (arg5 != 0)) {
+      SWIG_JavaThrowException(
+        jenv,
+        SWIG_JavaRuntimeException,
+        "Unable to get address of java.nio.ByteBuffer. "
+        "Is the ByteBuffer initialized?");
+    }
+  }
+  result = (int)((b2ParticleSystem const *)arg1)->CopyFlagsBuffer(arg2,arg3,arg4,arg5);
+  jresult = (jint)result; 
+  {
+    if(jresult != NO_EXCEPTIONS) {
+      jclass clazz = jenv->FindClass(
+        g_liquidfunExceptions[jresult].jniType);
+      jenv->ThrowNew(clazz, g_liquidfunExceptions[jresult].errorMsg);
+    }
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1copyInterleavedVertexBuffer(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jint jarg2, jint jarg3, jint jarg4, jobject jarg5) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int arg2 ;
+  int arg3 ;
+  int arg4 ;
+  void *arg5 = (void *) 0 ;
+  int arg6 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = (int)jarg2; 
+  arg3 = (int)jarg3; 
+  arg4 = (int)jarg4; 
+  {
+    arg5 = jenv->GetDirectBufferAddress(jarg5);
+    arg6 = jenv->GetDirectBufferCapacity(jarg5);
+    if ((arg5 == NULL) && (arg6 != 0)) {
+      SWIG_JavaThrowException(
+        jenv,
+        SWIG_JavaRuntimeException,
+        "Unable to get address of java.nio.ByteBuffer. "
+        "Is the ByteBuffer initialized?");
+    }
+  }
+  result = (int)((b2ParticleSystem const *)arg1)->CopyInterleavedVertexBuffer(arg2,arg3,arg4,arg5,arg6);
+  jresult = (jint)result; 
+  {
+    if(jresult != NO_EXCEPTIONS) {
+      jclass clazz = jenv->FindClass(
+        g_liquidfunExceptions[jresult].jniType);
+      jenv->ThrowNew(clazz, g_liquidfunExceptions[jresult].errorMsg);
+    }
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1copyQuantizedVertexBuffer(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jint jarg2, jint jarg3, jint jarg4, jfloat jarg5, jfloat jarg6, jfloat jarg7, jfloat jarg8, jfloat jarg9, jobject jarg10) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int arg2 ;
+  int arg3 ;
+  int arg4 ;
+  float32 arg5 ;
+  float32 arg6 ;
+  float32 arg7 ;
+  float32 arg8 ;
+  float32 arg9 ;
+  void *arg10 = (void *) 0 ;
+  int arg11 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = (int)jarg2; 
+  arg3 = (int)jarg3; 
+  arg4 = (int)jarg4; 
+  arg5 = (float32)jarg5; 
+  arg6 = (float32)jarg6; 
+  arg7 = (float32)jarg7; 
+  arg8 = (float32)jarg8; 
+  arg9 = (float32)jarg9; 
+  {
+    arg10 = jenv->GetDirectBufferAddress(jarg10);
+    arg11 = jenv->GetDirectBufferCapacity(jarg10);
+    if ((arg10 == NULL) && (arg11 != 0)) {
+      SWIG_JavaThrowException(
+        jenv,
+        SWIG_JavaRuntimeException,
+        "Unable to get address of java.nio.ByteBuffer. "
+        "Is the ByteBuffer initialized?");
+    }
+  }
+  result = (int)((b2ParticleSystem const *)arg1)->CopyQuantizedVertexBuffer(arg2,arg3,arg4,arg5,arg6,arg7,arg8,arg9,arg10,arg11);
+  jresult = (jint)result; 
+  {
+    if(jresult != NO_EXCEPTIONS) {
+      jclass clazz = jenv->FindClass(
+        g_liquidfunExceptions[jresult].jniType);
+      jenv->ThrowNew(clazz, g_liquidfunExceptions[jresult].errorMsg);
+    }
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1copyParticleGroupRanges(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jobject jarg2) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  void *arg2 = (void *) 0 ;
+  int arg3 ;
+  int result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  {
+    arg2 = jenv->GetDirectBufferAddress(jarg2);
+    arg3 = jenv->GetDirectBufferCapacity(jarg2);
+    if ((arg2 == NULL) && (arg3 != 0)) {
+      SWIG_JavaThrowException(
+        jenv,
+        SWIG_JavaRuntimeException,
+        "Unable to get address of java.nio.ByteBuffer. "
+        "Is the ByteBuffer initialized?");
+    }
+  }
+  result = (int)((b2ParticleSystem const *)arg1)->CopyParticleGroupRanges(arg2,arg3);
+  jresult = (jint)result; 
+  {
+    if(jresult != NO_EXCEPTIONS) {
+      jclass clazz = jenv->FindClass(
+        g_liquidfunExceptions[jresult].jniType);
+      jenv->ThrowNew(clazz, g_liquidfunExceptions[jresult].errorMsg);
+    }
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT void JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1setStaticPressureIterations(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jint jarg2) {
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int32 arg2 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = (int32)jarg2; 
+  (arg1)->SetStaticPressureIterations(arg2);
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getStaticPressureIterations(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (int32)((b2ParticleSystem const *)arg1)->GetStaticPressureIterations();
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1destroyParticlesInShapes(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jlong jarg2, jobject jarg2_) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  b2ParticleGroupDef *arg2 = 0 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  (void)jarg2_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = *(b2ParticleGroupDef **)&jarg2;
+  if (!arg2) {
+    SWIG_JavaThrowException(jenv, SWIG_JavaNullPointerException, "b2ParticleGroupDef const & reference is null");
+    return 0;
+  } 
+  result = (int32)(arg1)->DestroyParticlesInShapes((b2ParticleGroupDef const &)*arg2);
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jlong JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1replaceParticlesInShapes(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jlong jarg2, jobject jarg2_) {
+  jlong jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  b2ParticleGroupDef *arg2 = 0 ;
+  b2ParticleGroup *result = 0 ;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  (void)jarg2_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = *(b2ParticleGroupDef **)&jarg2;
+  if (!arg2) {
+    SWIG_JavaThrowException(jenv, SWIG_JavaNullPointerException, "b2ParticleGroupDef const & reference is null");
+    return 0;
+  } 
+  result = (b2ParticleGroup *)(arg1)->ReplaceParticlesInShapes((b2ParticleGroupDef const &)*arg2);
+  *(b2ParticleGroup **)&jresult = result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jfloat JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1computeCollisionEnergy(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jfloat jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  float32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (float32)((b2ParticleSystem const *)arg1)->ComputeCollisionEnergy();
+  jresult = (jfloat)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getInternalAllocatedCapacity(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (int32)((b2ParticleSystem const *)arg1)->GetInternalAllocatedCapacity();
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jobject JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getPositionBufferView(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jobject jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  b2BufferView result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (arg1)->GetPositionBufferView();
+  {
+    jresult = ((&result)->data != NULL && (&result)->size > 0) ?
+            jenv->NewDirectByteBuffer((&result)->data, (&result)->size) : NULL;
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jobject JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getVelocityBufferView(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jobject jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  b2BufferView result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (arg1)->GetVelocityBufferView();
+  {
+    jresult = ((&result)->data != NULL && (&result)->size > 0) ?
+            jenv->NewDirectByteBuffer((&result)->data, (&result)->size) : NULL;
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jobject JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getColorBufferView(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jobject jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  b2BufferView result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (arg1)->GetColorBufferView();
+  {
+    jresult = ((&result)->data != NULL && (&result)->size > 0) ?
+            jenv->NewDirectByteBuffer((&result)->data, (&result)->size) : NULL;
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jobject JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getWeightBufferView(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jobject jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  b2BufferView result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (arg1)->GetWeightBufferView();
+  {
+    jresult = ((&result)->data != NULL && (&result)->size > 0) ?
+            jenv->NewDirectByteBuffer((&result)->data, (&result)->size) : NULL;
+  }
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getAllParticleFlags(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (int32)((b2ParticleSystem const *)arg1)->GetAllParticleFlags();
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1getMaxParticleCount(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  result = (int32)((b2ParticleSystem const *)arg1)->GetMaxParticleCount();
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
+SWIGEXPORT jint JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticleSystem_1partitionParticleGroups(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jint jarg2) {
+  jint jresult = 0 ;
+  b2ParticleSystem *arg1 = (b2ParticleSystem *) 0 ;
+  int32 arg2 ;
+  int32 result;
+  
+  (void)jenv;
+  (void)jcls;
+  (void)jarg1_;
+  arg1 = *(b2ParticleSystem **)&jarg1; 
+  arg2 = (int32)jarg2; 
+  result = (int32)(arg1)->PartitionParticleGroups(arg2);
+  jresult = (jint)result; 
+  return jresult;
+}
+
+
 SWIGEXPORT void JNICALL Java_com_google_fpl_liquidfun_liquidfunJNI_ParticlePair_1indexA_1set(JNIEnv *jenv, jclass jcls, jlong jarg1, jobject jarg1_, jint jarg2) {
   b2ParticlePair *arg1 = (b2ParticlePair *) 0 ;
   int32 arg2 ;
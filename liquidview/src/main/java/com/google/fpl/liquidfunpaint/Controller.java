@@ -17,8 +17,10 @@
 package com.google.fpl.liquidfunpaint;
 
 import com.google.fpl.liquidfun.World;
+import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
 import com.google.fpl.liquidfunpaint.tool.Tool;
 import com.google.fpl.liquidfunpaint.tool.Tool.ToolType;
+import com.google.fpl.liquidfunpaint.tool.ToolSet;
 
 import android.app.Activity;
 import android.hardware.Sensor;
@@ -38,11 +40,14 @@ public class Controller implements OnTouchListener, SensorEventListener {
     private Sensor mAccelerometer;
     private final float[] mGravityVec = new float[2];
     private Tool mTool = null;
+    private final ToolSet mToolSet;
 
     private static final String TAG = "Controller";
     private static final float GRAVITY = 10f;
 
-    public Controller(Activity activity) {
+    public Controller(Activity activity, PhysicsLoop physicsLoop) {
+        mToolSet = new ToolSet(physicsLoop);
+
         // Get rotation and set the vector
         switch (activity.getWindowManager().getDefaultDisplay().getRotation()) {
             case Surface.ROTATION_0:
@@ -108,7 +113,7 @@ public class Controller implements OnTouchListener, SensorEventListener {
 
     public void setTool(ToolType type) {
         Tool oldTool = mTool;
-        mTool = Tool.getTool(type);
+        mTool = mToolSet.getTool(type);
 
         if (oldTool != mTool) {
             if (oldTool != null) {
@@ -121,6 +126,6 @@ public class Controller implements OnTouchListener, SensorEventListener {
     }
 
     public void reset() {
-        Tool.resetAllTools();
+        mToolSet.resetAllTools();
     }
 }
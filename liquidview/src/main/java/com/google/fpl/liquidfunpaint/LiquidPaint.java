@@ -50,12 +50,25 @@ public class LiquidPaint {
     }
     
     public ParticleGroupDef createParticleGroupDef(Shape shape){
+        final ParticleGroupDef pgd = createParticleGroupDef();
+        pgd.setShape(shape);
+
+        return pgd;
+    }
+
+    /**
+     * Create a group def without a shape, for callers that set the shapes
+     * themselves, e.g. through setPolygonShapesFromVertexList.
+     */
+    public ParticleGroupDef createParticleGroupDef(){
 
+        // Unpacked by hand rather than through android.graphics.Color, so
+        // paints also work in a headless simulation
         ParticleColor pColor = new ParticleColor(
-                (short) Color.red(color),
-                (short)Color.green(color),
-                (short)Color.blue(color),
-                (short)Color.alpha(color));
+                (short) ((color >> 16) & 0xFF),
+                (short) ((color >> 8) & 0xFF),
+                (short) (color & 0xFF),
+                (short) ((color >>> 24) & 0xFF));
 
         final ParticleGroupDef pgd = new ParticleGroupDef();
         pgd.setFlags(particleType);
@@ -64,11 +77,35 @@ public class LiquidPaint {
         pgd.setColor(pColor);
         pgd.setStrength(strength);
 
-        pgd.setShape(shape);
-
         return pgd;
     }
 
+    /**
+     * Whether several shapes painted with this paint can be created as a
+     * single particle group. Rigid and solid groups behave as one body, so
+     * they are never shared.
+     */
+    public boolean canShareGroups(){
+        int unsharedFlags = ParticleGroupFlag.rigidParticleGroup | ParticleGroupFlag.solidParticleGroup;
+        return (particleGroup & unsharedFlags) == 0;
+    }
+
+    /**
+     * Whether shapes painted with this and the other paint can be created
+     * as a single particle group.
+     */
+    public boolean canShareGroupWith(LiquidPaint other){
+        if (other == null || !canShareGroups())
+            return false;
+
+        return color == other.color &&
+                particleType == other.particleType &&
+                particleGroup == other.particleGroup &&
+                strength == other.strength &&
+                velocity.getX() == other.velocity.getX() &&
+                velocity.getY() == other.velocity.getY();
+    }
+
     Vec2 velocity = new Vec2(0, 0);
     int color = Color.CYAN;
     float strength = 2.0f;
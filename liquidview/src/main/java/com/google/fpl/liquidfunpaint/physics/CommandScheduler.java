@@ -0,0 +1,265 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfunpaint.physics.actions.BatchExecutor;
+import com.google.fpl.liquidfunpaint.physics.actions.ParticleEraser;
+import com.google.fpl.liquidfunpaint.physics.actions.PhysicsCommand;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Queues physics commands and runs them within a time budget per frame, so a
+ * burst of commands is spread over several frames instead of stalling one.
+ * All steps of one WorldLock.advanceWorld() make up a frame and share the
+ * budget; a step run on its own is a frame by itself.
+ *
+ * Commands are sorted into priority classes: user input before scripted
+ * commands, and erases before creates within each. Commands of a class keep
+ * the order they were added in, but an erase may run before a create that
+ * was added earlier in a lower class.
+ *
+ * Commands are run in chunks through a BatchExecutor. At least one command
+ * runs per frame, so the queue always makes progress; whatever does not fit in
+ * the budget is carried over to the next step or frame.
+ */
+public class CommandScheduler {
+
+    public enum Priority {
+        USER_ERASE,
+        USER_CREATE,
+        SCRIPTED_ERASE,
+        SCRIPTED_CREATE
+    }
+
+    public static final long DEFAULT_BUDGET_MICROS = 2000;
+
+    private static final int MIN_CHUNK_SIZE = 1;
+    private static final int MAX_CHUNK_SIZE = 64;
+
+    // Weight of the newest sample in the smoothed cost per command
+    private static final float SMOOTHING = 0.2f;
+
+    private static class QueuedCommand {
+        final PhysicsCommand command;
+        final long queuedNanos;
+
+        QueuedCommand(PhysicsCommand command) {
+            this.command = command;
+            this.queuedNanos = System.nanoTime();
+        }
+    }
+
+    private final List<Queue<QueuedCommand>> mQueues = new ArrayList<>();
+    private final AtomicInteger[] mQueueDepths = new AtomicInteger[Priority.values().length];
+
+    private final List<PhysicsCommand> mChunk = new ArrayList<>();
+
+    private volatile long mBudgetMicros = DEFAULT_BUDGET_MICROS;
+
+    // Smoothed cost of running one command, used to size chunks
+    private float mNanosPerCommand = 0;
+
+    // Whether a frame is open, see beginFrame(), and what its steps spent
+    // so far. Only used by the thread advancing the world.
+    private boolean mInFrame = false;
+    private long mFrameNanos = 0;
+    private int mFrameRunCount = 0;
+
+    private volatile int mLastRunCount = 0;
+    private volatile long mLastRunNanos = 0;
+    private volatile long mLastMaxWaitNanos = 0;
+
+    public CommandScheduler() {
+        for (int i = 0; i < mQueueDepths.length; i++) {
+            mQueues.add(new ConcurrentLinkedQueue<QueuedCommand>());
+            mQueueDepths[i] = new AtomicInteger();
+        }
+    }
+
+    /**
+     * Time spent running commands per frame, in microseconds.
+     */
+    public void setBudgetMicros(long budgetMicros) {
+        mBudgetMicros = budgetMicros;
+    }
+
+    public long getBudgetMicros() {
+        return mBudgetMicros;
+    }
+
+    /**
+     * Queue a command. Can be called from any thread.
+     * @param userInput true if the command comes straight from user input,
+     *                  false if it is scripted, e.g. while loading a scene.
+     */
+    public void add(PhysicsCommand command, boolean userInput) {
+        add(command, getPriority(command, userInput));
+    }
+
+    public void add(PhysicsCommand command, Priority priority) {
+        mQueues.get(priority.ordinal()).add(new QueuedCommand(command));
+        mQueueDepths[priority.ordinal()].incrementAndGet();
+    }
+
+    private static Priority getPriority(PhysicsCommand command, boolean userInput) {
+        boolean erase = command instanceof ParticleEraser;
+        if (userInput)
+            return erase ? Priority.USER_ERASE : Priority.USER_CREATE;
+        return erase ? Priority.SCRIPTED_ERASE : Priority.SCRIPTED_CREATE;
+    }
+
+    public void clear() {
+        for (int i = 0; i < mQueueDepths.length; i++) {
+            while (mQueues.get(i).poll() != null) {
+                mQueueDepths[i].decrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Share one budget between the steps run until endFrame().
+     */
+    void beginFrame() {
+        mInFrame = true;
+        mFrameNanos = 0;
+        mFrameRunCount = 0;
+    }
+
+    void endFrame() {
+        mInFrame = false;
+    }
+
+    /**
+     * Run queued commands in priority order until the budget of the frame is
+     * used up.
+     * Must be called with the WorldLock held.
+     * @return the number of commands run
+     */
+    int runPending(BatchExecutor executor) {
+        if (!mInFrame) {
+            mFrameNanos = 0;
+            mFrameRunCount = 0;
+        }
+
+        long start = System.nanoTime();
+        long budgetNanos = mBudgetMicros * 1000 - mFrameNanos;
+        long maxWaitNanos = 0;
+        int runCount = 0;
+
+        while (true) {
+            long remaining = budgetNanos - (System.nanoTime() - start);
+            if (mFrameRunCount + runCount > 0 && remaining <= 0)
+                break;
+
+            long chunkStart = System.nanoTime();
+            try {
+                maxWaitNanos = Math.max(maxWaitNanos,
+                        pollChunk(getChunkSize(remaining), chunkStart));
+                if (mChunk.isEmpty())
+                    break;
+
+                executor.execute(mChunk);
+            } finally {
+                runCount += mChunk.size();
+                updateCommandCost(mChunk.size(), System.nanoTime() - chunkStart);
+                mChunk.clear();
+            }
+        }
+
+        mLastRunCount = runCount;
+        mLastRunNanos = System.nanoTime() - start;
+        mLastMaxWaitNanos = maxWaitNanos;
+        mFrameNanos += mLastRunNanos;
+        mFrameRunCount += runCount;
+        return runCount;
+    }
+
+    private int getChunkSize(long remainingNanos) {
+        if (mNanosPerCommand <= 0)
+            return MIN_CHUNK_SIZE;
+
+        int size = (int) (remainingNanos / mNanosPerCommand);
+        return Math.max(MIN_CHUNK_SIZE, Math.min(MAX_CHUNK_SIZE, size));
+    }
+
+    /**
+     * Move up to chunkSize commands, highest priority first, into mChunk.
+     * @return the longest time one of them has been waiting
+     */
+    private long pollChunk(int chunkSize, long now) {
+        long maxWaitNanos = 0;
+
+        for (int i = 0; i < mQueueDepths.length && mChunk.size() < chunkSize; i++) {
+            Queue<QueuedCommand> queue = mQueues.get(i);
+
+            while (mChunk.size() < chunkSize) {
+                QueuedCommand queued = queue.poll();
+                if (queued == null)
+                    break;
+
+                mQueueDepths[i].decrementAndGet();
+                mChunk.add(queued.command);
+                maxWaitNanos = Math.max(maxWaitNanos, now - queued.queuedNanos);
+            }
+        }
+        return maxWaitNanos;
+    }
+
+    private void updateCommandCost(int commandCount, long elapsedNanos) {
+        if (commandCount == 0)
+            return;
+
+        float sample = (float) elapsedNanos / commandCount;
+        mNanosPerCommand = mNanosPerCommand <= 0 ?
+                sample :
+                mNanosPerCommand + SMOOTHING * (sample - mNanosPerCommand);
+    }
+
+    /**
+     * Number of commands waiting to run, over all priority classes.
+     */
+    public int getQueueDepth() {
+        int depth = 0;
+        for (AtomicInteger queueDepth : mQueueDepths)
+            depth += queueDepth.get();
+        return depth;
+    }
+
+    public int getQueueDepth(Priority priority) {
+        return mQueueDepths[priority.ordinal()].get();
+    }
+
+    /**
+     * How long the oldest waiting command has been queued, in nanoseconds,
+     * or 0 if the queue is empty.
+     */
+    public long getOldestCommandAgeNanos() {
+        long now = System.nanoTime();
+        long age = 0;
+
+        for (Queue<QueuedCommand> queue : mQueues) {
+            QueuedCommand head = queue.peek();
+            if (head != null)
+                age = Math.max(age, now - head.queuedNanos);
+        }
+        return age;
+    }
+
+    /**
+     * Longest time a command run during the last step had been waiting.
+     */
+    public long getLastMaxWaitNanos() {
+        return mLastMaxWaitNanos;
+    }
+
+    public int getLastRunCount() {
+        return mLastRunCount;
+    }
+
+    public long getLastRunNanos() {
+        return mLastRunNanos;
+    }
+}
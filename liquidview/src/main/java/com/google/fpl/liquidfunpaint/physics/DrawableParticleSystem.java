@@ -1,24 +1,27 @@
 package com.google.fpl.liquidfunpaint.physics;
 
-import android.opengl.GLES20;
-
+import com.google.fpl.liquidfun.ParticleFlag;
 import com.google.fpl.liquidfun.ParticleGroup;
 import com.google.fpl.liquidfun.ParticleGroupDef;
-import com.google.fpl.liquidfun.ParticleGroupFlag;
 import com.google.fpl.liquidfun.ParticleSystem;
 import com.google.fpl.liquidfun.PolygonShape;
+import com.google.fpl.liquidfun.Shape;
 import com.google.fpl.liquidfun.Transform;
+import com.google.fpl.liquidfun.liquidfunConstants;
 import com.google.fpl.liquidfunpaint.LiquidPaint;
-import com.google.fpl.liquidfunpaint.shader.ParticleMaterial;
-import com.google.fpl.liquidfunpaint.shader.WaterParticleMaterial;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
 import com.google.fpl.liquidfunpaint.util.MathHelper;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Created on 15-09-20.
+ * A particle system and the snapshots it publishes after every step. Drawing
+ * the snapshots is left to the ParticleRenderer, so this needs no GL.
  */
 public class DrawableParticleSystem {
 
@@ -31,37 +34,202 @@ public class DrawableParticleSystem {
 
     public final ParticleSystem particleSystem;
 
-    public ByteBuffer mParticleColorBuffer;
-    public ByteBuffer mParticlePositionBuffer;
-    public ByteBuffer mParticleVelocityBuffer;
-    public ByteBuffer mParticleWeightBuffer;
+    // Double-buffered particle state. The stepping thread captures into the
+    // back snapshot and swaps; the renderer only ever reads the front one.
+    private final Object mSnapshotSwapLock = new Object();
+    private ParticleSnapshot mFrontSnapshot;
+    private ParticleSnapshot mBackSnapshot;
+
+    // Snapshot held by the renderer between beginRender() and endRender()
+    private ParticleSnapshot mRenderSnapshot;
+
+    // Whether the front snapshot reads the particle buffers in place; see
+    // setDirectBuffers(). Only changed with the WorldLock held.
+    private volatile boolean mDirectBuffers = false;
+    private final ParticleBufferViews mBufferViews = new ParticleBufferViews();
+
+    // Most particles the system may hold, or 0 for no limit. Guarded by the
+    // WorldLock.
+    private int mMaxParticleCount = 0;
+
+    // Draw ranges of the particle groups, shared by both snapshots.
+    // Guarded by the WorldLock.
+    private final ParticleGroupRanges mGroupRanges = new ParticleGroupRanges();
+
+    // Whether water particles are kept ahead of all others; see
+    // setPartitionedGroups(). Guarded by the WorldLock.
+    private boolean mPartitionedGroups = false;
+
+    // Attributes the renderer reads; see setVertexLayout()
+    private volatile int mVertexLayout = ParticleVertexLayout.ALL;
+    // Ranges to quantize copied vertices to, or null; see setVertexQuantization()
+    private volatile VertexQuantization mVertexQuantization = null;
+    // Color the renderer multiplies particle colors with, as an ARGB int
+    private volatile int mTint = 0xffffffff;
+
+    // Bumped whenever particle colors may have changed, so snapshots only
+    // copy colors when they did. Guarded by the WorldLock.
+    private long mColorGeneration = 0;
+    private boolean mColorsChanged = true;
+    private int mLastParticleCount = 0;
+
+    // Readers of the state published after every step; see
+    // ParticleSystems.openStateReader()
+    private List<ParticleStateReader> mStateReaders = Collections.emptyList();
+
+    // Vertex counts and vertices of many shapes, passed to native in one call
+    private ByteBuffer mShapeBuffer;
 
-    public DrawableParticleSystem(ParticleSystem pSystem){
+    // Copied velocities, for when the native library has no buffer views
+    private ByteBuffer mVelocityBuffer;
+
+    public DrawableParticleSystem(ParticleSystem pSystem, boolean directBuffers){
         particleSystem = pSystem;
 
-        mParticlePositionBuffer = ByteBuffer
-                .allocateDirect(2 * 4 * ParticleSystems.MAX_PARTICLE_COUNT)
-                .order(ByteOrder.nativeOrder());
-        mParticleVelocityBuffer = ByteBuffer
-                .allocateDirect(2 * 4 * ParticleSystems.MAX_PARTICLE_COUNT)
-                .order(ByteOrder.nativeOrder());
-        mParticleColorBuffer = ByteBuffer
-                .allocateDirect(4 * ParticleSystems.MAX_PARTICLE_COUNT)
-                .order(ByteOrder.nativeOrder());
-        mParticleWeightBuffer = ByteBuffer
-                .allocateDirect(4 * ParticleSystems.MAX_PARTICLE_COUNT)
-                .order(ByteOrder.nativeOrder());
+        mFrontSnapshot = new ParticleSnapshot();
+        mBackSnapshot = new ParticleSnapshot();
+        mDirectBuffers = directBuffers && ParticleBufferViews.isSupported(pSystem);
+    }
+
+    /**
+     * Let the renderer read the particle buffers in place rather than copies
+     * made after every step. Only allowed when the world is stepped on the
+     * thread that draws, which then has to hold the WorldLock from
+     * beginRender() to endRender(). Particles are still copied if the
+     * native library has no buffer views.
+     * Must be called with the WorldLock held.
+     */
+    public void setDirectBuffers(boolean directBuffers){
+        directBuffers = directBuffers && ParticleBufferViews.isSupported(particleSystem);
+        if (directBuffers == mDirectBuffers)
+            return;
+
+        mDirectBuffers = directBuffers;
+
+        // Start over from the current state, so no snapshot is left pointing
+        // at native memory once the renderer stops taking the WorldLock.
+        synchronized (mSnapshotSwapLock) {
+            mBackSnapshot.clear();
+            if (directBuffers) {
+                mFrontSnapshot.updateDirectCapture(
+                        particleSystem, mBufferViews, mGroupRanges, mVertexLayout);
+            } else {
+                mFrontSnapshot.capture(particleSystem, null, mGroupRanges, mVertexLayout,
+                        mVertexQuantization, nextColorGeneration());
+            }
+        }
+    }
+
+    /**
+     * Only capture the attributes the renderer's shaders read, as
+     * ParticleVertexLayout flags. Positions are always captured.
+     * Takes effect from the next capture.
+     * Must be called with the WorldLock held.
+     */
+    public void setVertexLayout(int layout){
+        mVertexLayout = layout | ParticleVertexLayout.POSITION;
+    }
+
+    public int getVertexLayout(){
+        return mVertexLayout;
+    }
+
+    /**
+     * Copy positions and velocities as 16-bit values within the given
+     * ranges, which about halves what the renderer uploads, or as they are
+     * if null. Direct buffers are read in place and never quantized.
+     * Takes effect from the next capture.
+     * Must be called with the WorldLock held.
+     */
+    public void setVertexQuantization(VertexQuantization quantization){
+        mVertexQuantization = quantization;
+    }
+
+    /**
+     * Multiply the colors of all particles of this system with a color when
+     * drawn, as an ARGB int. This sets systems apart when the renderer draws
+     * them in shared passes. Defaults to opaque white, i.e. no tint.
+     */
+    public void setTint(int color){
+        mTint = color;
+    }
+
+    public int getTint(){
+        return mTint;
+    }
+
+    public VertexQuantization getVertexQuantization(){
+        return mVertexQuantization;
+    }
+
+    /**
+     * Keep the particles of water groups ahead of all others in the particle
+     * buffers, by moving every new group into place as it is created. Each
+     * render pass then draws a single range.
+     * Must be called with the WorldLock held.
+     */
+    public void setPartitionedGroups(boolean partitioned){
+        mPartitionedGroups = partitioned;
+        partitionGroups();
+    }
+
+    public boolean isPartitionedGroups(){
+        return mPartitionedGroups;
+    }
+
+    /**
+     * Without the native call the groups stay in creation order, which the
+     * renderer draws as more ranges.
+     */
+    private void partitionGroups(){
+        if (!mPartitionedGroups || !NativeSupport.GROUP_PARTITIONS.isAvailable())
+            return;
+
+        try {
+            particleSystem.partitionParticleGroups(ParticleGroupRanges.WATER_GROUP_FLAGS);
+            mGroupRanges.invalidate();
+        } catch (UnsatisfiedLinkError e) {
+            NativeSupport.GROUP_PARTITIONS.markUnavailable(e);
+        }
+    }
+
+    public boolean isDirectBuffers(){
+        return mDirectBuffers;
     }
 
     public int getParticleCount(){
         return particleSystem.getParticleCount();
     }
 
+    /**
+     * Most particles the system may hold, or 0 for no limit. Snapshot
+     * buffers grow with the live particle count, but never beyond it.
+     * Must be called with the WorldLock held.
+     */
+    public void setMaxParticleCount(int maxParticleCount){
+        if (maxParticleCount != 0 && maxParticleCount < getParticleCount()) {
+            throw new IllegalArgumentException("Max particle count " + maxParticleCount +
+                    " is below the particle count " + getParticleCount());
+        }
+        particleSystem.setMaxParticleCount(maxParticleCount);
+        mMaxParticleCount = maxParticleCount;
+        synchronized (mSnapshotSwapLock) {
+            mFrontSnapshot.setMaxParticleCount(maxParticleCount);
+            mBackSnapshot.setMaxParticleCount(maxParticleCount);
+        }
+    }
+
+    public int getMaxParticleCount(){
+        return mMaxParticleCount;
+    }
+
     public void createParticleGroup(Vector2f[] normalizedVertices, LiquidPaint options){
 
-        if (normalizedVertices == null || normalizedVertices.length == 0 || normalizedVertices.length % 2 != 0)
+        if (!isValidFillShape(normalizedVertices))
             return;
 
+        particlesChanged();
+
         PolygonShape polygon = createPolygonShape(normalizedVertices);
 
         ParticleGroupDef pgd = options.createParticleGroupDef(polygon);
@@ -69,130 +237,375 @@ public class DrawableParticleSystem {
         particleSystem.destroyParticlesInShape(polygon, MAT_IDENTITY);
 
         particleSystem.createParticleGroup(pgd);
+        partitionGroups();
 
         pgd.delete();
     }
 
     public void clearParticles(Vector2f[] normalizedVertices){
+        particlesChanged();
         final PolygonShape polygon = createPolygonShape(normalizedVertices);
         particleSystem.destroyParticlesInShape(polygon, MAT_IDENTITY);
     }
 
-    private static PolygonShape createPolygonShape(Vector2f[] normalizedVertices) {
-        final PolygonShape polygon = new PolygonShape();
-        float[] points = MathHelper.convertVectToFloats(normalizedVertices);
-        polygon.set(points, normalizedVertices.length);
-        return polygon;
+    /**
+     * Fill all shapes with a single particle group. Particles already inside
+     * the shapes are destroyed first, as in createParticleGroup. Shapes the
+     * native batch can't build as polygons are filled one at a time, in
+     * order, like any single shape.
+     */
+    public void createParticleGroup(List<Vector2f[]> normalizedShapes, LiquidPaint options){
+        List<Vector2f[]> batch = new ArrayList<>(normalizedShapes.size());
+        for (Vector2f[] shape : normalizedShapes) {
+            if (!isValidFillShape(shape))
+                continue;
+
+            if (isValidPolygonShape(shape)) {
+                batch.add(shape);
+            } else {
+                fillShapes(batch, options);
+                batch.clear();
+                createParticleGroup(shape, options);
+            }
+        }
+        fillShapes(batch, options);
+    }
+
+    private void fillShapes(List<Vector2f[]> shapes, LiquidPaint options){
+        if (shapes.isEmpty())
+            return;
+
+        if (!NativeSupport.SHAPE_BATCHES.isAvailable()) {
+            for (Vector2f[] shape : shapes)
+                createParticleGroup(shape, options);
+            return;
+        }
+
+        particlesChanged();
+
+        ParticleGroupDef pgd = options.createParticleGroupDef();
+        try {
+            setPolygonShapes(pgd, shapes);
+            particleSystem.replaceParticlesInShapes(pgd);
+        } catch (UnsatisfiedLinkError e) {
+            NativeSupport.SHAPE_BATCHES.markUnavailable(e);
+            for (Vector2f[] shape : shapes)
+                createParticleGroup(shape, options);
+        } finally {
+            pgd.delete();
+        }
+        partitionGroups();
     }
 
-    public void onDrawFrame(){
+    /**
+     * Destroy the particles inside all shapes. Shapes the native batch can't
+     * build as polygons are erased one at a time, like any single shape.
+     */
+    public void clearParticles(List<Vector2f[]> normalizedShapes){
+        List<Vector2f[]> batch = new ArrayList<>(normalizedShapes.size());
+        for (Vector2f[] shape : normalizedShapes) {
+            if (isValidPolygonShape(shape))
+                batch.add(shape);
+            else
+                clearParticles(shape);
+        }
 
-        mParticlePositionBuffer.rewind();
-        mParticleColorBuffer.rewind();
-        mParticleWeightBuffer.rewind();
-        mParticleVelocityBuffer.rewind();
+        if (batch.isEmpty())
+            return;
 
-        int worldParticleCount = particleSystem.getParticleCount();
-        // grab the most current particle buffers
-        particleSystem.copyPositionBuffer(
-                0, worldParticleCount, mParticlePositionBuffer);
-        particleSystem.copyVelocityBuffer(
-                0, worldParticleCount, mParticleVelocityBuffer);
-        particleSystem.copyColorBuffer(
-                0, worldParticleCount, mParticleColorBuffer);
-        particleSystem.copyWeightBuffer(
-                0, worldParticleCount, mParticleWeightBuffer);
+        if (!NativeSupport.SHAPE_BATCHES.isAvailable()) {
+            for (Vector2f[] shape : batch)
+                clearParticles(shape);
+            return;
+        }
 
-        GLES20.glClearColor(0, 0, 0, 0);
+        particlesChanged();
+
+        ParticleGroupDef pgd = new ParticleGroupDef();
+        try {
+            setPolygonShapes(pgd, batch);
+            particleSystem.destroyParticlesInShapes(pgd);
+        } catch (UnsatisfiedLinkError e) {
+            NativeSupport.SHAPE_BATCHES.markUnavailable(e);
+            for (Vector2f[] shape : batch)
+                clearParticles(shape);
+        } finally {
+            pgd.delete();
+        }
     }
 
-    public void renderWaterParticles(WaterParticleMaterial mWaterParticleMaterial,
-                                     float[] mPerspectiveTransform){
+    /**
+     * Create a particle group for a tool stroke, and join it to the group
+     * the stroke created so far, if any. Returns the group holding the new
+     * particles. The groups are partitioned again, as for any new group.
+     * Must be called with the WorldLock held.
+     */
+    public ParticleGroup createParticleGroup(ParticleGroupDef pgd, ParticleGroup joinTo){
+        particlesChanged();
 
-        mWaterParticleMaterial.beginRender();
+        ParticleGroup group = particleSystem.createParticleGroup(pgd);
+        if (joinTo != null) {
+            particleSystem.joinParticleGroups(joinTo, group);
+            group = joinTo;
+        }
+        partitionGroups();
+        return group;
+    }
 
-        // Set attribute arrays
-        mWaterParticleMaterial.setVertexAttributeBuffer(
-                "aPosition", mParticlePositionBuffer, 0);
-        mWaterParticleMaterial.setVertexAttributeBuffer(
-                "aVelocity", mParticleVelocityBuffer, 0);
-        mWaterParticleMaterial.setVertexAttributeBuffer(
-                "aColor", mParticleColorBuffer, 0);
-        mWaterParticleMaterial.setVertexAttributeBuffer(
-                "aWeight", mParticleWeightBuffer, 0);
+    /**
+     * Destroy the particles inside a shape, e.g. along an eraser stroke.
+     * Must be called with the WorldLock held.
+     */
+    public void destroyParticlesInShape(Shape shape, Transform xf){
+        particlesChanged();
+        particleSystem.destroyParticlesInShape(shape, xf);
+    }
 
-        // Set uniforms
-        GLES20.glUniformMatrix4fv(
-                mWaterParticleMaterial.getUniformLocation("uTransform"),
-                1, false, mPerspectiveTransform, 0);
+    private void setPolygonShapes(ParticleGroupDef pgd, List<Vector2f[]> normalizedShapes){
+        int vertexCount = 0;
+        for (Vector2f[] shape : normalizedShapes)
+            vertexCount += shape.length;
 
-        // Go through each particle group
-        ParticleGroup currGroup = particleSystem.getParticleGroupList();
+        int size = 4 * normalizedShapes.size() + 2 * 4 * vertexCount;
+        if (mShapeBuffer == null || mShapeBuffer.capacity() < size) {
+            DirectBufferPool pool = DirectBufferPool.getInstance();
+            pool.release(mShapeBuffer);
+            mShapeBuffer = pool.acquire(size);
+        }
+        mShapeBuffer.clear();
 
-        while (currGroup != null) {
-            // Only draw water particles in this pass; queue other groups
-            if (currGroup.getGroupFlags() == ParticleGroupFlag.particleGroupCanBeEmpty) {
-                drawParticleGroup(currGroup);
-            }
+        // All vertex counts first, then all vertices
+        for (Vector2f[] shape : normalizedShapes)
+            mShapeBuffer.putInt(shape.length);
 
-            currGroup = currGroup.getNext();
+        for (Vector2f[] shape : normalizedShapes) {
+            for (Vector2f vertex : shape)
+                mShapeBuffer.putFloat(vertex.x).putFloat(vertex.y);
         }
 
-        mWaterParticleMaterial.endRender();
+        pgd.setPolygonShapesFromVertexList(mShapeBuffer, normalizedShapes.size());
     }
 
+    /**
+     * Shapes createParticleGroup() fills; others are skipped, and destroy no
+     * particles either.
+     */
+    public static boolean isValidFillShape(Vector2f[] normalizedVertices) {
+        return normalizedVertices != null && normalizedVertices.length != 0 &&
+                normalizedVertices.length % 2 == 0;
+    }
 
-    public void renderNonWaterParticles(ParticleMaterial mParticleMaterial,
-                                        float[] mPerspectiveTransform){
+    /**
+     * Batched shapes are built natively as polygons, which take 3 up to
+     * b2_maxPolygonVertices vertices.
+     */
+    private static boolean isValidPolygonShape(Vector2f[] normalizedVertices) {
+        return normalizedVertices != null && normalizedVertices.length >= 3 &&
+                normalizedVertices.length <= liquidfunConstants._maxPolygonVertices;
+    }
 
-        mParticleMaterial.beginRender();
+    private static PolygonShape createPolygonShape(Vector2f[] normalizedVertices) {
+        final PolygonShape polygon = new PolygonShape();
+        float[] points = MathHelper.convertVectToFloats(normalizedVertices);
+        polygon.set(points, normalizedVertices.length);
+        return polygon;
+    }
 
-        // Set attribute arrays
-        mParticleMaterial.setVertexAttributeBuffer(
-                "aPosition", mParticlePositionBuffer, 0);
-        mParticleMaterial.setVertexAttributeBuffer(
-                "aColor", mParticleColorBuffer, 0);
+    /**
+     * Keep the particle positions before a step, for interpolation. Only
+     * needed with direct buffers, where the step overwrites them in place.
+     * Must be called with the WorldLock held, right before a world step.
+     */
+    public void prepareSnapshot(){
+        if (mDirectBuffers)
+            mFrontSnapshot.beginDirectCapture(
+                    particleSystem, mBufferViews, mGroupRanges, mVertexLayout);
+    }
 
-        // Set uniforms
-        GLES20.glUniformMatrix4fv(
-                mParticleMaterial.getUniformLocation("uTransform"),
-                1, false, mPerspectiveTransform, 0);
+    /**
+     * Capture the current particle state and publish it to the renderer.
+     * Must be called with the WorldLock held, right after a world step.
+     */
+    public void publishSnapshot(){
+        if (mDirectBuffers) {
+            mFrontSnapshot.updateDirectCapture(
+                    particleSystem, mBufferViews, mGroupRanges, mVertexLayout);
+            return;
+        }
+
+        ParticleSnapshot back;
+        ParticleSnapshot front;
+        synchronized (mSnapshotSwapLock) {
+            back = mBackSnapshot;
+            front = mFrontSnapshot;
+        }
 
-        // Go through all the particleGroups in the render list
-        ParticleGroup currGroup = particleSystem.getParticleGroupList();
+        back.capture(particleSystem, front, mGroupRanges, mVertexLayout,
+                mVertexQuantization, nextColorGeneration());
 
-        while (currGroup != null) {
-            if (currGroup.getGroupFlags() != ParticleGroupFlag.particleGroupCanBeEmpty) {
-                drawParticleGroup(currGroup);
+        synchronized (mSnapshotSwapLock) {
+            mBackSnapshot = mFrontSnapshot;
+            mFrontSnapshot = back;
+        }
+    }
+
+    void setStateReaders(List<ParticleStateReader> readers){
+        mStateReaders = readers;
+    }
+
+    /**
+     * Publish the particle state to every open ParticleStateReader. It is
+     * captured once and copied for any further readers.
+     * Must be called with the WorldLock held, right after a world step.
+     */
+    void publishState(long sequence){
+        ParticleState captured = null;
+        for (ParticleStateReader reader : mStateReaders) {
+            if (reader.isClosed()) {
+                reader.release();
+                continue;
+            }
+
+            ParticleState state = reader.getBackState();
+            if (captured == null) {
+                state.capture(particleSystem, sequence);
+                captured = state;
+            } else {
+                // Only read, even once its reader holds it
+                state.copyFrom(captured);
+            }
+            reader.publish();
+        }
+    }
+
+    /**
+     * Particles were created or destroyed, so colors and groups may have
+     * changed.
+     */
+    private void particlesChanged(){
+        mColorsChanged = true;
+        mGroupRanges.invalidate();
+    }
+
+    /**
+     * Colors only change when particles are created or destroyed, or when
+     * color mixing particles blend them during the step.
+     */
+    private long nextColorGeneration(){
+        int particleCount = particleSystem.getParticleCount();
+        if (mColorsChanged || particleCount != mLastParticleCount ||
+                (getAllParticleFlags() & ParticleFlag.colorMixingParticle) != 0) {
+            ++mColorGeneration;
+        }
+        mColorsChanged = false;
+        mLastParticleCount = particleCount;
+        return mColorGeneration;
+    }
+
+    /**
+     * Flags of all particles OR-ed together. Without the native call any
+     * flag may be set, so colors are copied after every step.
+     */
+    private int getAllParticleFlags(){
+        if (NativeSupport.PARTICLE_FLAGS.isAvailable()) {
+            try {
+                return particleSystem.getAllParticleFlags();
+            } catch (UnsatisfiedLinkError e) {
+                NativeSupport.PARTICLE_FLAGS.markUnavailable(e);
             }
+        }
+        return ~0;
+    }
 
-            currGroup = currGroup.getNext();
+    /**
+     * Square of the highest particle speed, read from the particle system so
+     * it does not depend on what the renderer captures. Walks every particle,
+     * through a copy if the native library has no buffer views.
+     * Must be called with the WorldLock held.
+     */
+    public float getMaxSpeedSquared(){
+        int particleCount = particleSystem.getParticleCount();
+
+        ByteBuffer velocities;
+        if (ParticleBufferViews.isSupported(particleSystem)) {
+            mBufferViews.refresh(particleSystem);
+            if (!mBufferViews.isValid())
+                return 0;
+            velocities = mBufferViews.getVelocityView();
+        } else {
+            velocities = copyVelocities(particleCount);
         }
 
-        mParticleMaterial.endRender();
+        float maxSpeedSquared = 0;
+        for (int i = 0; i < particleCount; i++) {
+            float vx = velocities.getFloat(i * 8);
+            float vy = velocities.getFloat(i * 8 + 4);
+            maxSpeedSquared = Math.max(maxSpeedSquared, vx * vx + vy * vy);
+        }
+        return maxSpeedSquared;
+    }
+
+    private ByteBuffer copyVelocities(int particleCount){
+        int size = 8 * particleCount;
+        if (mVelocityBuffer == null || mVelocityBuffer.capacity() < size) {
+            DirectBufferPool pool = DirectBufferPool.getInstance();
+            pool.release(mVelocityBuffer);
+            mVelocityBuffer = pool.acquire(size);
+        }
+        mVelocityBuffer.rewind();
+        particleSystem.copyVelocityBuffer(0, particleCount, mVelocityBuffer);
+        return mVelocityBuffer;
     }
 
     /**
-     * Issue the correct draw call for the ParticleGroup that is passed in.
+     * Take hold of the latest published snapshot for drawing, until
+     * endRender(). Without direct buffers this does not touch the native
+     * particle system, so no WorldLock is needed; with them, the WorldLock
+     * must be held until endRender().
      */
-    private void drawParticleGroup(ParticleGroup pg) {
-        // Get the buffer offsets
-        int particleCount = pg.getParticleCount();
-        int instanceOffset = pg.getBufferIndex();
+    public ParticleSnapshot beginRender(){
+        ParticleSnapshot front;
+        synchronized (mSnapshotSwapLock) {
+            front = mFrontSnapshot;
+        }
+        if (mDirectBuffers) {
+            // Tools may have changed the particles since the last step
+            front.updateDirectCapture(
+                    particleSystem, mBufferViews, mGroupRanges, mVertexLayout);
+        }
+        front.lock();
+        mRenderSnapshot = front;
+        return front;
+    }
 
-        // Draw!
-        GLES20.glDrawArrays(
-                GLES20.GL_POINTS, instanceOffset, particleCount);
+    public void endRender(){
+        mRenderSnapshot.unlock();
+        mRenderSnapshot = null;
     }
 
     public void reset(){
-        mParticlePositionBuffer.clear();
-        mParticleColorBuffer.clear();
-        mParticleWeightBuffer.clear();
-        mParticleVelocityBuffer.clear();
+        synchronized (mSnapshotSwapLock) {
+            mFrontSnapshot.clear();
+            mBackSnapshot.clear();
+        }
     }
 
+    /**
+     * Delete the particle system and give its buffers back to the
+     * DirectBufferPool. Must be called with the WorldLock held.
+     */
     public void delete(){
+        synchronized (mSnapshotSwapLock) {
+            mFrontSnapshot.release();
+            mBackSnapshot.release();
+        }
+        mGroupRanges.release();
+        DirectBufferPool.getInstance().release(mShapeBuffer);
+        mShapeBuffer = null;
+        DirectBufferPool.getInstance().release(mVelocityBuffer);
+        mVelocityBuffer = null;
+        // Views of memory the particle system is about to free
+        mBufferViews.release();
         particleSystem.delete();
     }
 }
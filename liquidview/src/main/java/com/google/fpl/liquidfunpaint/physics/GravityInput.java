@@ -0,0 +1,129 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfun.World;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Hands the latest gravity from the sensor thread to the stepping thread
+ * without taking the WorldLock. Only the latest value is kept; the stepping
+ * thread applies it at the start of the next step.
+ *
+ * Input can be low-pass filtered, and is only passed on once it moved more
+ * than the change threshold away from the value passed on before, so
+ * accelerometer jitter neither stirs the particles nor keeps the world awake.
+ */
+public class GravityInput {
+
+    // No filtering by default; changes below the threshold are sensor noise
+    public static final float DEFAULT_FILTER_FACTOR = 1f;
+    public static final float DEFAULT_CHANGE_THRESHOLD = 0.05f;
+
+    private volatile float mFilterFactor = DEFAULT_FILTER_FACTOR;
+    private volatile float mChangeThreshold = DEFAULT_CHANGE_THRESHOLD;
+
+    // Latest published gravity, as the float bits of x and y packed in one
+    // long so both are always read together
+    private final AtomicLong mPublished = new AtomicLong(pack(0, 0));
+    private final AtomicBoolean mChanged = new AtomicBoolean(false);
+
+    // Filter state of the writing side, guarded by this
+    private boolean mHasInput = false;
+    private float mFilteredX = 0;
+    private float mFilteredY = 0;
+
+    /**
+     * Weight of a new value in the low-pass filter, in (0, 1]. Lower values
+     * smooth more but lag behind; 1 turns filtering off.
+     */
+    public void setFilterFactor(float filterFactor) {
+        if (filterFactor <= 0 || filterFactor > 1) {
+            throw new IllegalArgumentException("Invalid filter factor " + filterFactor);
+        }
+        mFilterFactor = filterFactor;
+    }
+
+    public float getFilterFactor() {
+        return mFilterFactor;
+    }
+
+    /**
+     * How far gravity has to move, in m/s^2, before the world sees it.
+     */
+    public void setChangeThreshold(float threshold) {
+        mChangeThreshold = threshold;
+    }
+
+    public float getChangeThreshold() {
+        return mChangeThreshold;
+    }
+
+    /**
+     * Feed a new gravity value. Can be called from any thread, and never
+     * waits for the world.
+     * @return true if the value was passed on to the world
+     */
+    public synchronized boolean set(float gravityX, float gravityY) {
+        if (mHasInput) {
+            float factor = mFilterFactor;
+            mFilteredX += factor * (gravityX - mFilteredX);
+            mFilteredY += factor * (gravityY - mFilteredY);
+        } else {
+            mFilteredX = gravityX;
+            mFilteredY = gravityY;
+            mHasInput = true;
+        }
+
+        long published = mPublished.get();
+        float dx = mFilteredX - unpackX(published);
+        float dy = mFilteredY - unpackY(published);
+        float threshold = mChangeThreshold;
+        if (dx * dx + dy * dy > threshold * threshold) {
+            mPublished.set(pack(mFilteredX, mFilteredY));
+            mChanged.set(true);
+            return true;
+        }
+        return false;
+    }
+
+    public float getGravityX() {
+        return unpackX(mPublished.get());
+    }
+
+    public float getGravityY() {
+        return unpackY(mPublished.get());
+    }
+
+    /**
+     * Set the latest gravity on the world if it changed since the last call.
+     * Must be called with the WorldLock held.
+     */
+    void applyTo(World world) {
+        if (mChanged.getAndSet(false)) {
+            apply(world);
+        }
+    }
+
+    /**
+     * Set the latest gravity on the world, e.g. on a newly created world.
+     * Must be called with the WorldLock held.
+     */
+    void apply(World world) {
+        long published = mPublished.get();
+        world.setGravity(unpackX(published), unpackY(published));
+    }
+
+    private static long pack(float x, float y) {
+        return ((long) Float.floatToIntBits(x) << 32) |
+                (Float.floatToIntBits(y) & 0xFFFFFFFFL);
+    }
+
+    private static float unpackX(long packed) {
+        return Float.intBitsToFloat((int) (packed >>> 32));
+    }
+
+    private static float unpackY(long packed) {
+        return Float.intBitsToFloat((int) packed);
+    }
+}
@@ -0,0 +1,155 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfunpaint.physics.actions.PhysicsCommand;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a world without any view, Context or GL, e.g. to pre-compute scenes,
+ * run benchmarks or validate scenes on a plain JVM against a host-built
+ * liquidfun. The caller loads the native library first.
+ *
+ * Commands use the coordinates of a virtual view of the size given to the
+ * constructor, as they would in a LiquidTextureView of that size. The world
+ * is stepped either directly on the calling thread with step(), or on a
+ * plain thread started with start(), as fast as possible or in real time.
+ */
+public class HeadlessSimulation {
+
+    public enum Pace {
+        // Step back to back, as fast as the world can be solved
+        FASTEST,
+        // Step in real time at WorldLock.TIME_STEP, pausing while at rest
+        REAL_TIME
+    }
+
+    private static final String TAG = "HeadlessSimulation";
+    private static final long NANOS_PER_MILLI = 1000000;
+    // Longest time to block while the world is at rest
+    private static final long REST_POLL_MILLIS = 1000;
+
+    private final WorldLock mWorldLock = new WorldLock();
+    private final AtomicLong mStepCount = new AtomicLong();
+
+    private Thread mThread = null;
+    private volatile boolean mRunning = false;
+
+    /**
+     * Create a world with walls around it.
+     * @param viewWidth  Width of the virtual view commands are given in
+     * @param viewHeight Height of the virtual view commands are given in
+     */
+    public HeadlessSimulation(int viewWidth, int viewHeight) {
+        mWorldLock.lock();
+        try {
+            mWorldLock.resetWorld();
+            mWorldLock.setWorldDimensions(viewWidth, viewHeight);
+            mWorldLock.getSolidWorld().createWorldBoundaries();
+        } finally {
+            mWorldLock.unlock();
+        }
+    }
+
+    public WorldLock getWorldLock() {
+        return mWorldLock;
+    }
+
+    public void addPhysicsCommand(PhysicsCommand command) {
+        mWorldLock.addPhysicsCommand(command);
+    }
+
+    /**
+     * Step the world back to back on the calling thread.
+     * Must not be called while the simulation thread is running.
+     */
+    public void step(int stepCount) {
+        for (int i = 0; i < stepCount; i++) {
+            mWorldLock.stepWorld();
+            mStepCount.incrementAndGet();
+        }
+    }
+
+    /**
+     * Number of steps taken so far, by step() or the simulation thread.
+     */
+    public long getStepCount() {
+        return mStepCount.get();
+    }
+
+    /**
+     * Start stepping on a thread of our own. Does nothing if already running.
+     */
+    public synchronized void start(final Pace pace) {
+        if (mThread != null)
+            return;
+
+        mRunning = true;
+        mThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                if (pace == Pace.FASTEST) {
+                    runFastest();
+                } else {
+                    runRealTime();
+                }
+            }
+        }, TAG);
+        mThread.start();
+    }
+
+    /**
+     * Stop the simulation thread and wait for the current step to finish.
+     */
+    public synchronized void stop() {
+        if (mThread == null)
+            return;
+
+        mRunning = false;
+        mThread.interrupt();
+
+        try {
+            mThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        mThread = null;
+    }
+
+    public synchronized boolean isRunning() {
+        return mThread != null;
+    }
+
+    private void runFastest() {
+        while (mRunning) {
+            mWorldLock.stepWorld();
+            mStepCount.incrementAndGet();
+        }
+    }
+
+    private void runRealTime() {
+        mWorldLock.resetClock();
+
+        while (mRunning) {
+            RestDetector restDetector = mWorldLock.getRestDetector();
+            if (restDetector.isAtRest()) {
+                try {
+                    restDetector.awaitWake(REST_POLL_MILLIS);
+                } catch (InterruptedException e) {
+                    // Woken up to stop
+                }
+                continue;
+            }
+
+            mStepCount.addAndGet(mWorldLock.advanceWorld());
+
+            long remaining = mWorldLock.getNanosUntilNextStep();
+            if (remaining > 0) {
+                try {
+                    Thread.sleep(remaining / NANOS_PER_MILLI, (int) (remaining % NANOS_PER_MILLI));
+                } catch (InterruptedException e) {
+                    // Woken up to stop
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,244 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfun.World;
+
+/**
+ * Picks the solver iteration counts for every world step so that stepping
+ * stays within a target time budget.
+ *
+ * The duration of each step is smoothed, and every ADJUST_INTERVAL_STEPS the
+ * governor drops one iteration when over budget, or gives one back when well
+ * under it. Iterations are taken away in the order that is least visible:
+ * static pressure, particle, velocity, then position iterations; and given
+ * back in the reverse order. Particle iterations never go below what
+ * World.calculateReasonableParticleIterations() considers stable.
+ *
+ * All values are only changed on the stepping thread, but can be read from
+ * any thread as metrics.
+ */
+public class IterationGovernor {
+
+    // Defaults match the iterations the world used to be stepped with
+    public static final int DEFAULT_VELOCITY_ITERATIONS = 6;
+    public static final int DEFAULT_POSITION_ITERATIONS = 2;
+    public static final int DEFAULT_PARTICLE_ITERATIONS = 5;
+    public static final int DEFAULT_STATIC_PRESSURE_ITERATIONS = 8;
+
+    // Step time we try to stay under, leaving the rest of a 60 fps frame
+    // to rendering
+    public static final long DEFAULT_TARGET_STEP_NANOS = 6000000;
+
+    // Number of steps between two adjustments
+    private static final int ADJUST_INTERVAL_STEPS = 30;
+
+    // Only give iterations back when this far under budget, so we don't
+    // oscillate around the target
+    private static final float RAISE_THRESHOLD = 0.6f;
+
+    // Weight of the newest sample in the smoothed step time
+    private static final float SMOOTHING = 0.1f;
+
+    private volatile boolean mEnabled = true;
+    private volatile long mTargetStepNanos = DEFAULT_TARGET_STEP_NANOS;
+
+    private int mMinVelocityIterations = 2;
+    private int mMaxVelocityIterations = DEFAULT_VELOCITY_ITERATIONS;
+    private int mMinPositionIterations = 1;
+    private int mMaxPositionIterations = DEFAULT_POSITION_ITERATIONS;
+    private int mMinParticleIterations = 1;
+    private int mMaxParticleIterations = DEFAULT_PARTICLE_ITERATIONS;
+    private int mMinStaticPressureIterations = 1;
+    private int mMaxStaticPressureIterations = DEFAULT_STATIC_PRESSURE_ITERATIONS;
+
+    private volatile int mVelocityIterations = DEFAULT_VELOCITY_ITERATIONS;
+    private volatile int mPositionIterations = DEFAULT_POSITION_ITERATIONS;
+    private volatile int mParticleIterations = DEFAULT_PARTICLE_ITERATIONS;
+    private volatile int mStaticPressureIterations = DEFAULT_STATIC_PRESSURE_ITERATIONS;
+    private volatile int mStableParticleIterations = 1;
+
+    private volatile float mAverageStepNanos = 0;
+    private int mStepsSinceAdjust = 0;
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            reset();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void setTargetStepNanos(long targetStepNanos) {
+        mTargetStepNanos = targetStepNanos;
+    }
+
+    public long getTargetStepNanos() {
+        return mTargetStepNanos;
+    }
+
+    public synchronized void setVelocityIterationBounds(int min, int max) {
+        checkBounds(min, max);
+        mMinVelocityIterations = min;
+        mMaxVelocityIterations = max;
+        mVelocityIterations = clamp(mVelocityIterations, min, max);
+    }
+
+    public synchronized void setPositionIterationBounds(int min, int max) {
+        checkBounds(min, max);
+        mMinPositionIterations = min;
+        mMaxPositionIterations = max;
+        mPositionIterations = clamp(mPositionIterations, min, max);
+    }
+
+    public synchronized void setParticleIterationBounds(int min, int max) {
+        checkBounds(min, max);
+        mMinParticleIterations = min;
+        mMaxParticleIterations = max;
+        mParticleIterations = clamp(mParticleIterations, min, max);
+    }
+
+    public synchronized void setStaticPressureIterationBounds(int min, int max) {
+        checkBounds(min, max);
+        mMinStaticPressureIterations = min;
+        mMaxStaticPressureIterations = max;
+        mStaticPressureIterations = clamp(mStaticPressureIterations, min, max);
+    }
+
+    /**
+     * Go back to the highest iteration counts, e.g. after the world is reset.
+     */
+    public synchronized void reset() {
+        mVelocityIterations = mMaxVelocityIterations;
+        mPositionIterations = mMaxPositionIterations;
+        mParticleIterations = mMaxParticleIterations;
+        mStaticPressureIterations = mMaxStaticPressureIterations;
+        mAverageStepNanos = 0;
+        mStepsSinceAdjust = 0;
+    }
+
+    /**
+     * Record how long the last step took and adjust the iterations if needed.
+     * Must be called with the WorldLock held, right after a world step.
+     * @return true if the static pressure iterations changed and have to be
+     *         applied to the particle systems.
+     */
+    synchronized boolean onStep(World world, long stepNanos) {
+        mAverageStepNanos = mAverageStepNanos == 0 ?
+                stepNanos :
+                mAverageStepNanos + SMOOTHING * (stepNanos - mAverageStepNanos);
+
+        if (!mEnabled || ++mStepsSinceAdjust < ADJUST_INTERVAL_STEPS) {
+            return false;
+        }
+        mStepsSinceAdjust = 0;
+
+        // Gravity or particle radius may have changed since the last check
+        mStableParticleIterations = clamp(
+                calculateStableParticleIterations(world),
+                mMinParticleIterations, mMaxParticleIterations);
+        if (mParticleIterations < mStableParticleIterations) {
+            mParticleIterations = mStableParticleIterations;
+        }
+
+        int staticPressureIterations = mStaticPressureIterations;
+        if (mAverageStepNanos > mTargetStepNanos) {
+            lowerIterations();
+        } else if (mAverageStepNanos < mTargetStepNanos * RAISE_THRESHOLD) {
+            raiseIterations();
+        }
+        return staticPressureIterations != mStaticPressureIterations;
+    }
+
+    /**
+     * Without the native estimate, leave the particle iterations their
+     * configured minimum.
+     */
+    private int calculateStableParticleIterations(World world) {
+        if (NativeSupport.ITERATION_CONTROL.isAvailable()) {
+            try {
+                return world.calculateReasonableParticleIterations(WorldLock.TIME_STEP);
+            } catch (UnsatisfiedLinkError e) {
+                NativeSupport.ITERATION_CONTROL.markUnavailable(e);
+            }
+        }
+        return mMinParticleIterations;
+    }
+
+    /**
+     * Static pressure iterations only cost time when the native side lets us
+     * set them; otherwise start with the other iterations.
+     */
+    private static boolean canSetStaticPressure() {
+        return NativeSupport.ITERATION_CONTROL.isAvailable();
+    }
+
+    private void lowerIterations() {
+        if (canSetStaticPressure() &&
+                mStaticPressureIterations > mMinStaticPressureIterations) {
+            mStaticPressureIterations--;
+        } else if (mParticleIterations > mStableParticleIterations) {
+            mParticleIterations--;
+        } else if (mVelocityIterations > mMinVelocityIterations) {
+            mVelocityIterations--;
+        } else if (mPositionIterations > mMinPositionIterations) {
+            mPositionIterations--;
+        }
+    }
+
+    private void raiseIterations() {
+        if (mPositionIterations < mMaxPositionIterations) {
+            mPositionIterations++;
+        } else if (mVelocityIterations < mMaxVelocityIterations) {
+            mVelocityIterations++;
+        } else if (mParticleIterations < mMaxParticleIterations) {
+            mParticleIterations++;
+        } else if (canSetStaticPressure() &&
+                mStaticPressureIterations < mMaxStaticPressureIterations) {
+            mStaticPressureIterations++;
+        }
+    }
+
+    private static void checkBounds(int min, int max) {
+        if (min < 1 || max < min) {
+            throw new IllegalArgumentException(
+                    "Invalid iteration bounds [" + min + ", " + max + "]");
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(max, value));
+    }
+
+    public int getVelocityIterations() {
+        return mVelocityIterations;
+    }
+
+    public int getPositionIterations() {
+        return mPositionIterations;
+    }
+
+    public int getParticleIterations() {
+        return mParticleIterations;
+    }
+
+    public int getStaticPressureIterations() {
+        return mStaticPressureIterations;
+    }
+
+    /**
+     * Particle iterations the world needs to stay stable for its current
+     * gravity and particle radius, as last computed by the native side.
+     */
+    public int getStableParticleIterations() {
+        return mStableParticleIterations;
+    }
+
+    /**
+     * Smoothed duration of a world step, in nanoseconds.
+     */
+    public float getAverageStepNanos() {
+        return mAverageStepNanos;
+    }
+}
@@ -0,0 +1,56 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Native entry points we added to the liquidfun JNI bindings. The libraries
+ * in Box2D/swig/libs are prebuilt, and only export them once rebuilt with
+ * ndk-build from the updated liquidfun_wrap.cpp; until then the first call
+ * into one throws UnsatisfiedLinkError.
+ *
+ * Callers check isAvailable() and, when a call fails, markUnavailable() and
+ * fall back to the code path used before the entry point existed.
+ */
+public enum NativeSupport {
+
+    // World.calculateReasonableParticleIterations(),
+    // ParticleSystem.setStaticPressureIterations()
+    ITERATION_CONTROL,
+    // ParticleGroupDef.setPolygonShapesFromVertexList(),
+    // ParticleSystem.destroyParticlesInShapes() and replaceParticlesInShapes()
+    SHAPE_BATCHES,
+    // ParticleSystem.computeCollisionEnergy()
+    COLLISION_ENERGY,
+    // ParticleSystem.getInternalAllocatedCapacity() and the buffer views
+    BUFFER_VIEWS,
+    // ParticleSystem.copyInterleavedVertexBuffer()
+    INTERLEAVED_COPY,
+    // ParticleSystem.copyQuantizedVertexBuffer()
+    QUANTIZED_COPY,
+    // ParticleSystem.getAllParticleFlags()
+    PARTICLE_FLAGS,
+    // ParticleSystem.copyFlagsBuffer()
+    PARTICLE_FLAGS_COPY,
+    // ParticleSystem.copyParticleGroupRanges()
+    GROUP_RANGES,
+    // ParticleSystem.partitionParticleGroups()
+    GROUP_PARTITIONS;
+
+    // java.util.logging rather than android.util.Log, so the fallbacks also
+    // work in a HeadlessSimulation on a plain JVM. Android routes it to logcat.
+    private static final Logger LOG = Logger.getLogger(NativeSupport.class.getName());
+
+    private volatile boolean mAvailable = true;
+
+    public boolean isAvailable(){
+        return mAvailable;
+    }
+
+    public void markUnavailable(UnsatisfiedLinkError e){
+        if (mAvailable) {
+            mAvailable = false;
+            LOG.log(Level.WARNING, "libliquidfun_jni lacks " + name() + ", falling back", e);
+        }
+    }
+}
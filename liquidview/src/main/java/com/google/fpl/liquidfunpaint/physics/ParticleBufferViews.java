@@ -0,0 +1,94 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfun.ParticleSystem;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Direct ByteBuffers over the particle buffers of one ParticleSystem, so they
+ * can be read without copying. They are plain views of native memory: only
+ * read them with the WorldLock held.
+ *
+ * The particle system reallocates its buffers whenever its internal capacity
+ * changes, so the views are re-acquired when it does.
+ */
+class ParticleBufferViews {
+
+    private int mCapacity = -1;
+
+    private ByteBuffer mPositionView;
+    private ByteBuffer mVelocityView;
+    private ByteBuffer mColorView;
+    private ByteBuffer mWeightView;
+
+    /**
+     * Whether the native library can hand out views at all; see
+     * NativeSupport. Without them, particles have to be copied.
+     */
+    static boolean isSupported(ParticleSystem particleSystem) {
+        if (!NativeSupport.BUFFER_VIEWS.isAvailable())
+            return false;
+
+        try {
+            particleSystem.getInternalAllocatedCapacity();
+            return true;
+        } catch (UnsatisfiedLinkError e) {
+            NativeSupport.BUFFER_VIEWS.markUnavailable(e);
+            return false;
+        }
+    }
+
+    /**
+     * Re-acquire the views if the buffers were reallocated.
+     * Must be called with the WorldLock held.
+     * @return true if the views changed
+     */
+    boolean refresh(ParticleSystem particleSystem) {
+        int capacity = particleSystem.getInternalAllocatedCapacity();
+        if (capacity == mCapacity)
+            return false;
+
+        mCapacity = capacity;
+        mPositionView = particleSystem.getPositionBufferView();
+        mVelocityView = particleSystem.getVelocityBufferView();
+        mColorView = particleSystem.getColorBufferView();
+        mWeightView = particleSystem.getWeightBufferView();
+        return true;
+    }
+
+    /**
+     * Whether there are views at all; a system that never held a particle
+     * has no buffers yet.
+     */
+    boolean isValid() {
+        return mCapacity > 0 && mPositionView != null && mVelocityView != null &&
+                mColorView != null && mWeightView != null;
+    }
+
+    /**
+     * Forget the views, once the particle system is deleted.
+     */
+    void release() {
+        mCapacity = -1;
+        mPositionView = null;
+        mVelocityView = null;
+        mColorView = null;
+        mWeightView = null;
+    }
+
+    ByteBuffer getPositionView() {
+        return mPositionView;
+    }
+
+    ByteBuffer getVelocityView() {
+        return mVelocityView;
+    }
+
+    ByteBuffer getColorView() {
+        return mColorView;
+    }
+
+    ByteBuffer getWeightView() {
+        return mWeightView;
+    }
+}
@@ -0,0 +1,199 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfun.ParticleGroup;
+import com.google.fpl.liquidfun.ParticleGroupFlag;
+import com.google.fpl.liquidfun.ParticleSystem;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Draw ranges of the particle groups of one ParticleSystem. All groups are
+ * read with a single native call, rather than walking the group list through
+ * a new proxy per group, and the draw ranges are only rebuilt when the
+ * groups changed.
+ *
+ * Groups of the same class (water or not) that follow each other in the
+ * particle buffers are merged into a single range, so many strokes cost a
+ * handful of draw calls. Ranges are in buffer order. With the particle
+ * system partitioned by class, see DrawableParticleSystem.setPartitionedGroups(),
+ * every class is a single range.
+ *
+ * Groups are only read again after invalidate(), which DrawableParticleSystem
+ * calls whenever it creates, destroys or moves particles, or once the
+ * particle count changed, e.g. as the step destroyed particles.
+ *
+ * Only used with the WorldLock held.
+ */
+class ParticleGroupRanges {
+
+    // Group flags of water groups, the groups drawn by the water pass
+    static final int WATER_GROUP_FLAGS = ParticleGroupFlag.particleGroupCanBeEmpty;
+
+    // Buffer index, particle count and group flags of every group
+    private static final int GROUP_SIZE = 3 * 4;
+    private static final int INITIAL_GROUP_CAPACITY = 16;
+
+    // Groups read by the last refresh(), and the ones before
+    private ByteBuffer mGroups = allocate(INITIAL_GROUP_CAPACITY);
+    private ByteBuffer mPreviousGroups = allocate(INITIAL_GROUP_CAPACITY);
+    // Changes whenever the ranges do
+    private long mGeneration = 0;
+    // Whether the groups may have changed since the last read, and the
+    // particle count then
+    private boolean mInvalid = true;
+    private int mParticleCount = -1;
+
+    // Buffer order of the groups, as buffer index << 32 | group
+    private long[] mOrder = new long[INITIAL_GROUP_CAPACITY];
+
+    private int mRangeCount = 0;
+    private int[] mRangeStart = new int[INITIAL_GROUP_CAPACITY];
+    private int[] mRangeParticleCount = new int[INITIAL_GROUP_CAPACITY];
+    private boolean[] mRangeIsWater = new boolean[INITIAL_GROUP_CAPACITY];
+
+    private static ByteBuffer allocate(int groupCapacity) {
+        // Pooled buffers hold whatever was left in them; start out with no groups
+        ByteBuffer groups = DirectBufferPool.getInstance().acquire(GROUP_SIZE * groupCapacity);
+        groups.clear();
+        groups.limit(0);
+        return groups;
+    }
+
+    /**
+     * The groups may have changed, e.g. particles were created or destroyed.
+     */
+    void invalidate() {
+        mInvalid = true;
+    }
+
+    /**
+     * Read the groups if they may have changed, and rebuild the draw ranges
+     * if they did.
+     * @return true if the ranges changed
+     */
+    boolean refresh(ParticleSystem particleSystem) {
+        int particleCount = particleSystem.getParticleCount();
+        if (!mInvalid && particleCount == mParticleCount)
+            return false;
+
+        mInvalid = false;
+        mParticleCount = particleCount;
+
+        int groupCount = particleSystem.getParticleGroupCount();
+        int size = GROUP_SIZE * groupCount;
+
+        // Read into the older buffer, then compare with the newer one
+        ByteBuffer groups = mPreviousGroups;
+        if (groups.capacity() < size) {
+            DirectBufferPool.getInstance().release(groups);
+            groups = allocate(Math.max(groupCount, 2 * groups.capacity() / GROUP_SIZE));
+        }
+        groups.clear();
+        copyGroups(particleSystem, groups);
+        groups.limit(size);
+
+        mGroups.rewind();
+        if (groups.equals(mGroups))
+            return false;
+
+        mPreviousGroups = mGroups;
+        mGroups = groups;
+        buildRanges(groupCount);
+        ++mGeneration;
+        return true;
+    }
+
+    private static void copyGroups(ParticleSystem particleSystem, ByteBuffer groups) {
+        if (NativeSupport.GROUP_RANGES.isAvailable()) {
+            try {
+                particleSystem.copyParticleGroupRanges(groups);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                NativeSupport.GROUP_RANGES.markUnavailable(e);
+            }
+        }
+
+        // Walk the group list, in the same order as the native copy
+        for (ParticleGroup group = particleSystem.getParticleGroupList();
+             group != null; group = group.getNext()) {
+            groups.putInt(group.getBufferIndex());
+            groups.putInt(group.getParticleCount());
+            groups.putInt(group.getGroupFlags());
+        }
+    }
+
+    private void buildRanges(int groupCount) {
+        if (mOrder.length < groupCount)
+            mOrder = new long[Math.max(groupCount, 2 * mOrder.length)];
+        for (int i = 0; i < groupCount; i++)
+            mOrder[i] = (long) mGroups.getInt(i * GROUP_SIZE) << 32 | i;
+        Arrays.sort(mOrder, 0, groupCount);
+
+        mRangeCount = 0;
+        for (int i = 0; i < groupCount; i++) {
+            int group = (int) mOrder[i];
+            int start = mGroups.getInt(group * GROUP_SIZE);
+            int particleCount = mGroups.getInt(group * GROUP_SIZE + 4);
+            boolean isWater = mGroups.getInt(group * GROUP_SIZE + 8) == WATER_GROUP_FLAGS;
+            if (particleCount == 0)
+                continue;
+
+            int last = mRangeCount - 1;
+            if (last >= 0 && mRangeIsWater[last] == isWater &&
+                    mRangeStart[last] + mRangeParticleCount[last] == start) {
+                mRangeParticleCount[last] += particleCount;
+                continue;
+            }
+
+            ensureRangeCapacity(mRangeCount + 1);
+            mRangeStart[mRangeCount] = start;
+            mRangeParticleCount[mRangeCount] = particleCount;
+            mRangeIsWater[mRangeCount] = isWater;
+            ++mRangeCount;
+        }
+    }
+
+    private void ensureRangeCapacity(int capacity) {
+        if (capacity <= mRangeStart.length)
+            return;
+
+        int newCapacity = Math.max(capacity, mRangeStart.length * 2);
+        mRangeStart = Arrays.copyOf(mRangeStart, newCapacity);
+        mRangeParticleCount = Arrays.copyOf(mRangeParticleCount, newCapacity);
+        mRangeIsWater = Arrays.copyOf(mRangeIsWater, newCapacity);
+    }
+
+    /**
+     * Give the buffers back to the DirectBufferPool. The ranges are not used
+     * afterwards.
+     */
+    void release() {
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        pool.release(mGroups);
+        pool.release(mPreviousGroups);
+        mGroups = null;
+        mPreviousGroups = null;
+    }
+
+    long getGeneration() {
+        return mGeneration;
+    }
+
+    int getRangeCount() {
+        return mRangeCount;
+    }
+
+    int[] getRangeStarts() {
+        return mRangeStart;
+    }
+
+    int[] getRangeParticleCounts() {
+        return mRangeParticleCount;
+    }
+
+    boolean[] getRangeIsWater() {
+        return mRangeIsWater;
+    }
+}
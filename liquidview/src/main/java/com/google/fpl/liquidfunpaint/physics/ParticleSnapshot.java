@@ -0,0 +1,606 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfun.ParticleSystem;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
+import com.google.fpl.liquidfunpaint.util.MathHelper;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * A copy of the particle state of one ParticleSystem, taken at the end of a
+ * world step. Once captured it can be read without holding the WorldLock,
+ * which lets the renderer draw while the next step is being solved.
+ *
+ * Readers and the capturing thread synchronize on the snapshot itself through
+ * lock() and unlock(), so a snapshot is never read while half written.
+ *
+ * Positions of the step before are kept as well, so the renderer can
+ * interpolate between the two when drawing faster than the world steps.
+ *
+ * When the world is stepped on the thread that draws, a snapshot can instead
+ * be captured directly: its buffers are then views of the particle system's
+ * own memory and only the previous positions are copied, once per step. A
+ * direct snapshot is only valid with the WorldLock held.
+ *
+ * Only the attributes of the vertex layout set by the renderer are captured.
+ * Colors are kept apart from the other, interleaved, attributes so they
+ * can be left alone while they do not change. Copied positions and velocities
+ * may be quantized to 16 bits, see VertexQuantization.
+ *
+ * Buffers are sized to the particles actually captured: they grow
+ * geometrically up to the system's max count, and shrink again once mostly
+ * unused, so a system with few particles holds little direct memory. They
+ * come from the DirectBufferPool.
+ */
+public class ParticleSnapshot {
+
+    private static final int INITIAL_RANGE_CAPACITY = 16;
+
+    // Smallest buffers allocated, in particles
+    private static final int MIN_CAPACITY = 64;
+
+    private static final int MAX_STRIDE =
+            ParticleVertexLayout.getStride(ParticleVertexLayout.ALL);
+    private static final int POSITION_SIZE =
+            ParticleVertexLayout.getSize(ParticleVertexLayout.POSITION);
+    private static final int COLOR_SIZE =
+            ParticleVertexLayout.getSize(ParticleVertexLayout.COLOR);
+
+    private final ReentrantLock mLock = new ReentrantLock();
+
+    // Interleaved vertices owned by this snapshot, and those of the step
+    // before. In a direct capture the latter holds packed positions only.
+    private ByteBuffer mVertexBuffer;
+    private ByteBuffer mPreviousBuffer;
+    // Colors owned by this snapshot, and the color generation they are from
+    private ByteBuffer mColorBuffer;
+    private long mColorGeneration = -1;
+    // Particles the buffers above have room for, and the most they ever
+    // need room for, or 0 for no limit
+    private int mCapacity = -1;
+    private int mMaxParticleCount = 0;
+    // One attribute at a time, when the native library can't interleave
+    private ByteBuffer mScratchBuffer;
+
+    // Attributes captured, and those of them interleaved in mVertexBuffer
+    private int mLayout = ParticleVertexLayout.ALL;
+    private int mInterleavedLayout = ParticleVertexLayout.ALL & ~ParticleVertexLayout.COLOR;
+
+    // Where readers find every attribute, indexed by
+    // ParticleVertexLayout.getIndex(): in the buffers above, or in views of
+    // the particle system's memory in a direct capture. Null for attributes
+    // not in the layout.
+    private final ByteBuffer[] mAttributeBuffers =
+            new ByteBuffer[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private final int[] mAttributeOffsets = new int[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private final int[] mAttributeStrides = new int[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private int mPreviousPositionOffset;
+    private int mPreviousPositionStride;
+    private boolean mDirect = false;
+    // Ranges of QUANTIZED layouts, null otherwise
+    private VertexQuantization mQuantization = null;
+
+    private int mParticleCount = 0;
+
+    // Merged draw ranges of the particle groups, see ParticleGroupRanges,
+    // and the generation of the ranges they were copied from
+    private int mRangeCount = 0;
+    private int[] mRangeStart = new int[INITIAL_RANGE_CAPACITY];
+    private int[] mRangeParticleCount = new int[INITIAL_RANGE_CAPACITY];
+    private boolean[] mRangeIsWater = new boolean[INITIAL_RANGE_CAPACITY];
+    private long mRangeGeneration = -1;
+
+    public ParticleSnapshot() {
+        allocate(0);
+    }
+
+    private void allocate(int capacity) {
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        pool.release(mVertexBuffer);
+        pool.release(mPreviousBuffer);
+        pool.release(mColorBuffer);
+        pool.release(mScratchBuffer);
+        mScratchBuffer = null;
+
+        mCapacity = capacity;
+        mVertexBuffer = pool.acquire(MAX_STRIDE * capacity);
+        mPreviousBuffer = pool.acquire(MAX_STRIDE * capacity);
+        mColorBuffer = pool.acquire(COLOR_SIZE * capacity);
+        mColorGeneration = -1;
+
+        if (!mDirect)
+            useOwnBuffers(mLayout, mQuantization);
+    }
+
+    /**
+     * Never grow the buffers beyond the particle system's max particle count,
+     * or 0 for no limit. Kept here, as not every native library can report it.
+     * The caller must hold the WorldLock.
+     */
+    void setMaxParticleCount(int maxParticleCount) {
+        mMaxParticleCount = maxParticleCount;
+    }
+
+    private void ensureCapacity(int particleCount) {
+        int maxParticleCount = mMaxParticleCount;
+        if (particleCount > mCapacity) {
+            int capacity = Math.max(Math.max(particleCount, MIN_CAPACITY), 2 * mCapacity);
+            if (maxParticleCount > 0)
+                capacity = Math.max(particleCount, Math.min(capacity, maxParticleCount));
+            allocate(capacity);
+        } else if (mCapacity > MIN_CAPACITY && 4 * particleCount < mCapacity) {
+            // Give the direct memory of mostly unused buffers back
+            allocate(Math.max(MIN_CAPACITY, 2 * particleCount));
+        }
+    }
+
+    /**
+     * Give all buffers back to the DirectBufferPool, e.g. once the particle
+     * system is deleted.
+     */
+    void release() {
+        lock();
+        try {
+            mDirect = false;
+            allocate(0);
+            mParticleCount = 0;
+            clearRanges();
+        } finally {
+            unlock();
+        }
+    }
+
+    private void useOwnBuffers(int layout, VertexQuantization quantization) {
+        if (quantization != null) {
+            layout |= ParticleVertexLayout.QUANTIZED;
+        } else {
+            layout &= ~ParticleVertexLayout.QUANTIZED;
+        }
+        mQuantization = quantization;
+        mLayout = layout;
+        mInterleavedLayout = layout & ~ParticleVertexLayout.COLOR;
+        int stride = ParticleVertexLayout.getStride(mInterleavedLayout);
+
+        for (int attribute = ParticleVertexLayout.POSITION;
+             attribute <= ParticleVertexLayout.WEIGHT; attribute <<= 1) {
+            int index = ParticleVertexLayout.getIndex(attribute);
+            if ((layout & attribute) == 0) {
+                mAttributeBuffers[index] = null;
+            } else if (attribute == ParticleVertexLayout.COLOR) {
+                mAttributeBuffers[index] = mColorBuffer;
+                mAttributeOffsets[index] = 0;
+                mAttributeStrides[index] = COLOR_SIZE;
+            } else {
+                mAttributeBuffers[index] = mVertexBuffer;
+                mAttributeOffsets[index] =
+                        ParticleVertexLayout.getOffset(mInterleavedLayout, attribute);
+                mAttributeStrides[index] = stride;
+            }
+        }
+        mPreviousPositionOffset = ParticleVertexLayout.getOffset(
+                mInterleavedLayout, ParticleVertexLayout.POSITION);
+        mPreviousPositionStride = stride;
+        mDirect = false;
+    }
+
+    private void useViews(ParticleBufferViews views, int layout) {
+        if (!views.isValid()) {
+            useOwnBuffers(layout, null);
+            return;
+        }
+
+        // Views are read in place, so never quantized
+        mLayout = layout & ~ParticleVertexLayout.QUANTIZED;
+        mQuantization = null;
+        setView(ParticleVertexLayout.POSITION, views.getPositionView());
+        setView(ParticleVertexLayout.VELOCITY, views.getVelocityView());
+        setView(ParticleVertexLayout.COLOR, views.getColorView());
+        setView(ParticleVertexLayout.WEIGHT, views.getWeightView());
+        mPreviousPositionOffset = 0;
+        mPreviousPositionStride = POSITION_SIZE;
+        mDirect = true;
+
+        // Whatever colors we had are out of date by now
+        mColorGeneration = -1;
+    }
+
+    private void setView(int attribute, ByteBuffer view) {
+        int index = ParticleVertexLayout.getIndex(attribute);
+        mAttributeBuffers[index] = (mLayout & attribute) != 0 ? view : null;
+        mAttributeOffsets[index] = 0;
+        mAttributeStrides[index] = ParticleVertexLayout.getSize(attribute);
+    }
+
+    public void lock() {
+        mLock.lock();
+    }
+
+    public void unlock() {
+        mLock.unlock();
+    }
+
+    /**
+     * Copy the current state of the particle system into this snapshot.
+     * The caller must hold the WorldLock.
+     * @param previous The snapshot of the step before, or null. Its positions
+     *                 become the previous positions of this snapshot.
+     * @param groups The particle system's group ranges
+     * @param layout Attributes to capture, as ParticleVertexLayout flags
+     * @param quantization Ranges to quantize positions and velocities to,
+     *                     or null to copy them as they are
+     * @param colorGeneration Changes whenever the colors may have changed;
+     *                        colors are only copied when it does.
+     */
+    void capture(ParticleSystem particleSystem, ParticleSnapshot previous,
+                 ParticleGroupRanges groups, int layout, VertexQuantization quantization, long colorGeneration) {
+        lock();
+        try {
+            mParticleCount = particleSystem.getParticleCount();
+            mDirect = false;
+            ensureCapacity(mParticleCount);
+            useOwnBuffers(layout, quantization);
+
+            // All interleaved attributes in a single pass
+            mVertexBuffer.rewind();
+            if (quantization != null) {
+                copyQuantized(particleSystem, quantization);
+            } else {
+                copyInterleaved(particleSystem);
+            }
+
+            if ((layout & ParticleVertexLayout.COLOR) != 0 &&
+                    colorGeneration != mColorGeneration) {
+                mColorBuffer.rewind();
+                particleSystem.copyColorBuffer(0, mParticleCount, mColorBuffer);
+                mColorGeneration = colorGeneration;
+            }
+
+            groups.refresh(particleSystem);
+            captureRanges(groups);
+
+            capturePreviousPositions(previous);
+        } finally {
+            unlock();
+        }
+    }
+
+    private void copyInterleaved(ParticleSystem particleSystem) {
+        if (NativeSupport.INTERLEAVED_COPY.isAvailable()) {
+            try {
+                particleSystem.copyInterleavedVertexBuffer(
+                        0, mParticleCount, mInterleavedLayout, mVertexBuffer);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                NativeSupport.INTERLEAVED_COPY.markUnavailable(e);
+            }
+        }
+        interleaveAttributes(particleSystem, null);
+    }
+
+    private void copyQuantized(ParticleSystem particleSystem, VertexQuantization quantization) {
+        if (NativeSupport.QUANTIZED_COPY.isAvailable()) {
+            try {
+                particleSystem.copyQuantizedVertexBuffer(
+                        0, mParticleCount, mInterleavedLayout,
+                        quantization.minX, quantization.minY,
+                        quantization.maxX, quantization.maxY,
+                        quantization.maxSpeed, mVertexBuffer);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                NativeSupport.QUANTIZED_COPY.markUnavailable(e);
+            }
+        }
+        interleaveAttributes(particleSystem, quantization);
+    }
+
+    /**
+     * Fill mVertexBuffer one attribute at a time, for native libraries that
+     * can't do it in a single pass. Quantizes positions and velocities the
+     * way ParticleSystem.copyQuantizedVertexBuffer() does, unless
+     * quantization is null.
+     */
+    private void interleaveAttributes(ParticleSystem particleSystem,
+                                      VertexQuantization quantization) {
+        int stride = ParticleVertexLayout.getStride(mInterleavedLayout);
+        for (int attribute = ParticleVertexLayout.POSITION;
+             attribute <= ParticleVertexLayout.WEIGHT; attribute <<= 1) {
+            if ((mInterleavedLayout & attribute) == 0)
+                continue;
+
+            ByteBuffer values = copyAttribute(particleSystem, attribute);
+            int size = ParticleVertexLayout.getSize(attribute);
+            int offset = ParticleVertexLayout.getOffset(mInterleavedLayout, attribute);
+            if (quantization != null && attribute == ParticleVertexLayout.POSITION) {
+                quantizePositions(values, quantization, stride, offset);
+            } else if (quantization != null && attribute == ParticleVertexLayout.VELOCITY) {
+                quantizeVelocities(values, quantization, stride, offset);
+            } else {
+                for (int i = 0; i < mParticleCount; i++) {
+                    for (int word = 0; word < size; word += 4) {
+                        mVertexBuffer.putInt(i * stride + offset + word,
+                                values.getInt(i * size + word));
+                    }
+                }
+            }
+        }
+    }
+
+    private void quantizePositions(ByteBuffer positions, VertexQuantization quantization,
+                                   int stride, int offset) {
+        float scaleX = quantization.maxX > quantization.minX ?
+                1 / (quantization.maxX - quantization.minX) : 0;
+        float scaleY = quantization.maxY > quantization.minY ?
+                1 / (quantization.maxY - quantization.minY) : 0;
+        for (int i = 0; i < mParticleCount; i++) {
+            float x = (positions.getFloat(i * 8) - quantization.minX) * scaleX;
+            float y = (positions.getFloat(i * 8 + 4) - quantization.minY) * scaleY;
+            mVertexBuffer.putShort(i * stride + offset, (short) (int) (
+                    MathHelper.clamp(x, 0f, 1f) * 65535 + 0.5f));
+            mVertexBuffer.putShort(i * stride + offset + 2, (short) (int) (
+                    MathHelper.clamp(y, 0f, 1f) * 65535 + 0.5f));
+        }
+    }
+
+    private void quantizeVelocities(ByteBuffer velocities, VertexQuantization quantization,
+                                    int stride, int offset) {
+        float scale = quantization.maxSpeed > 0 ? 1 / quantization.maxSpeed : 0;
+        for (int i = 0; i < mParticleCount; i++) {
+            float vx = MathHelper.clamp(velocities.getFloat(i * 8) * scale, -1f, 1f) * 32767;
+            float vy = MathHelper.clamp(velocities.getFloat(i * 8 + 4) * scale, -1f, 1f) * 32767;
+            mVertexBuffer.putShort(i * stride + offset,
+                    (short) (int) (vx < 0 ? vx - 0.5f : vx + 0.5f));
+            mVertexBuffer.putShort(i * stride + offset + 2,
+                    (short) (int) (vy < 0 ? vy - 0.5f : vy + 0.5f));
+        }
+    }
+
+    /**
+     * Copy a single attribute of every particle, packed, through the copy
+     * functions the native library always had.
+     */
+    private ByteBuffer copyAttribute(ParticleSystem particleSystem, int attribute) {
+        if (mScratchBuffer == null) {
+            mScratchBuffer = DirectBufferPool.getInstance().acquire(
+                    ParticleVertexLayout.getSize(ParticleVertexLayout.POSITION) * mCapacity);
+        }
+        mScratchBuffer.rewind();
+
+        switch (attribute) {
+            case ParticleVertexLayout.POSITION:
+                particleSystem.copyPositionBuffer(0, mParticleCount, mScratchBuffer);
+                break;
+            case ParticleVertexLayout.VELOCITY:
+                particleSystem.copyVelocityBuffer(0, mParticleCount, mScratchBuffer);
+                break;
+            case ParticleVertexLayout.COLOR:
+                particleSystem.copyColorBuffer(0, mParticleCount, mScratchBuffer);
+                break;
+            case ParticleVertexLayout.WEIGHT:
+                particleSystem.copyWeightBuffer(0, mParticleCount, mScratchBuffer);
+                break;
+            default:
+                throw new IllegalArgumentException("Invalid attribute " + attribute);
+        }
+        return mScratchBuffer;
+    }
+
+    /**
+     * Start a direct capture before a world step: point at the particle
+     * system's buffers, and keep the positions before the step for
+     * interpolation. The caller must hold the WorldLock.
+     */
+    void beginDirectCapture(ParticleSystem particleSystem, ParticleBufferViews views,
+                            ParticleGroupRanges groups, int layout) {
+        lock();
+        try {
+            views.refresh(particleSystem);
+            useViews(views, layout);
+
+            mParticleCount = particleSystem.getParticleCount();
+            ensureCapacity(mParticleCount);
+            groups.refresh(particleSystem);
+            captureRanges(groups);
+            copyPositions();
+        } finally {
+            unlock();
+        }
+    }
+
+    /**
+     * Bring a direct capture up to date, after a world step or before
+     * drawing. Nothing is copied unless particles were created or destroyed
+     * since, in which case interpolation is skipped. The caller must hold the
+     * WorldLock.
+     */
+    void updateDirectCapture(ParticleSystem particleSystem, ParticleBufferViews views,
+                             ParticleGroupRanges groups, int layout) {
+        lock();
+        try {
+            boolean reallocated = views.refresh(particleSystem);
+            if (reallocated || !mDirect || layout != mLayout)
+                useViews(views, layout);
+
+            groups.refresh(particleSystem);
+            if (reallocated || particleSystem.getParticleCount() != mParticleCount ||
+                    groups.getGeneration() != mRangeGeneration) {
+                mParticleCount = particleSystem.getParticleCount();
+                ensureCapacity(mParticleCount);
+                captureRanges(groups);
+                copyPositions();
+            }
+        } finally {
+            unlock();
+        }
+    }
+
+    private void capturePreviousPositions(ParticleSnapshot previous) {
+        if (previous != null) {
+            previous.lock();
+            try {
+                // Particles were created or destroyed in between, so indices
+                // no longer match. Don't interpolate this step.
+                if (!previous.mDirect && previous.mLayout == mLayout &&
+                        previous.mQuantization == mQuantization &&
+                        hasSameLayout(previous)) {
+                    copyPrevious(previous.mVertexBuffer,
+                            mPreviousPositionStride * mParticleCount);
+                    return;
+                }
+            } finally {
+                previous.unlock();
+            }
+        }
+
+        copyPositions();
+    }
+
+    /**
+     * Keep the current positions as the previous ones.
+     */
+    private void copyPositions() {
+        if (mDirect) {
+            copyPrevious(getAttributeBuffer(ParticleVertexLayout.POSITION),
+                    POSITION_SIZE * mParticleCount);
+        } else {
+            copyPrevious(mVertexBuffer, mPreviousPositionStride * mParticleCount);
+        }
+    }
+
+    private void copyPrevious(ByteBuffer source, int size) {
+        ByteBuffer src = source.duplicate();
+        src.position(0).limit(size);
+
+        mPreviousBuffer.clear();
+        mPreviousBuffer.put(src);
+        mPreviousBuffer.rewind();
+    }
+
+    private boolean hasSameLayout(ParticleSnapshot other) {
+        // Ranges of the same generation come from the same system's groups
+        return other.mParticleCount == mParticleCount &&
+                other.mRangeGeneration == mRangeGeneration;
+    }
+
+    /**
+     * Copy the draw ranges, unless they are the ones we have already.
+     */
+    private void captureRanges(ParticleGroupRanges groups) {
+        if (groups.getGeneration() == mRangeGeneration)
+            return;
+
+        mRangeCount = groups.getRangeCount();
+        if (mRangeCount > mRangeStart.length) {
+            int newCapacity = Math.max(mRangeCount, mRangeStart.length * 2);
+            mRangeStart = new int[newCapacity];
+            mRangeParticleCount = new int[newCapacity];
+            mRangeIsWater = new boolean[newCapacity];
+        }
+        System.arraycopy(groups.getRangeStarts(), 0, mRangeStart, 0, mRangeCount);
+        System.arraycopy(groups.getRangeParticleCounts(), 0,
+                mRangeParticleCount, 0, mRangeCount);
+        System.arraycopy(groups.getRangeIsWater(), 0, mRangeIsWater, 0, mRangeCount);
+        mRangeGeneration = groups.getGeneration();
+    }
+
+    private void clearRanges() {
+        mRangeCount = 0;
+        mRangeGeneration = -1;
+    }
+
+    public void clear() {
+        lock();
+        try {
+            useOwnBuffers(mLayout, mQuantization);
+
+            mVertexBuffer.clear();
+            mPreviousBuffer.clear();
+            mColorBuffer.clear();
+            mColorGeneration = -1;
+
+            mParticleCount = 0;
+            clearRanges();
+        } finally {
+            unlock();
+        }
+    }
+
+    public int getParticleCount() {
+        return mParticleCount;
+    }
+
+    /**
+     * Attributes in this snapshot, as ParticleVertexLayout flags, along with
+     * QUANTIZED if they are.
+     */
+    public int getLayout() {
+        return mLayout;
+    }
+
+    /**
+     * Ranges the positions and velocities are quantized to, if the layout is
+     * QUANTIZED; null otherwise.
+     */
+    public VertexQuantization getQuantization() {
+        return mQuantization;
+    }
+
+    /**
+     * Buffer holding a ParticleVertexLayout attribute, or null if it is not
+     * in the layout. Attributes may share
+     * a buffer, interleaved; read them at getAttributeOffset() and
+     * getAttributeStride().
+     */
+    public ByteBuffer getAttributeBuffer(int attribute) {
+        return mAttributeBuffers[ParticleVertexLayout.getIndex(attribute)];
+    }
+
+    /**
+     * Offset in bytes of the first particle's attribute in its buffer.
+     */
+    public int getAttributeOffset(int attribute) {
+        return mAttributeOffsets[ParticleVertexLayout.getIndex(attribute)];
+    }
+
+    /**
+     * Distance in bytes between the attributes of consecutive particles.
+     */
+    public int getAttributeStride(int attribute) {
+        return mAttributeStrides[ParticleVertexLayout.getIndex(attribute)];
+    }
+
+    public ByteBuffer getPreviousPositionBuffer() {
+        return mPreviousBuffer;
+    }
+
+    public int getPreviousPositionOffset() {
+        return mPreviousPositionOffset;
+    }
+
+    public int getPreviousPositionStride() {
+        return mPreviousPositionStride;
+    }
+
+    /**
+     * Number of draw ranges. Each covers one or more particle groups of the
+     * same class that follow each other in the buffers.
+     */
+    public int getDrawRangeCount() {
+        return mRangeCount;
+    }
+
+    /**
+     * Index of the first particle of a draw range.
+     */
+    public int getDrawRangeStart(int range) {
+        return mRangeStart[range];
+    }
+
+    public int getDrawRangeParticleCount(int range) {
+        return mRangeParticleCount[range];
+    }
+
+    public boolean isWaterDrawRange(int range) {
+        return mRangeIsWater[range];
+    }
+}
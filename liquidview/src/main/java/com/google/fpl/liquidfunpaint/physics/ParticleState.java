@@ -0,0 +1,170 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import com.google.fpl.liquidfun.ParticleSystem;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Positions, velocities, colors and flags of the particles of one
+ * ParticleSystem, as published after a world step. Obtained from a
+ * ParticleStateReader, and read without holding the WorldLock.
+ *
+ * Particle indices are those of the particle system at that step.
+ */
+public class ParticleState {
+
+    private static final int MIN_CAPACITY = 64;
+
+    private static final int POSITION_SIZE = 2 * 4;
+    private static final int VELOCITY_SIZE = 2 * 4;
+    private static final int COLOR_SIZE = 4;
+    private static final int FLAGS_SIZE = 4;
+
+    private ByteBuffer mPositions;
+    private ByteBuffer mVelocities;
+    private ByteBuffer mColors;
+    private ByteBuffer mFlags;
+    private int mCapacity = -1;
+
+    private long mSequence = -1;
+    private int mParticleCount = 0;
+
+    ParticleState() {
+        allocate(0);
+    }
+
+    private void allocate(int capacity) {
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        pool.release(mPositions);
+        pool.release(mVelocities);
+        pool.release(mColors);
+        pool.release(mFlags);
+
+        mCapacity = capacity;
+        mPositions = pool.acquire(POSITION_SIZE * capacity);
+        mVelocities = pool.acquire(VELOCITY_SIZE * capacity);
+        mColors = pool.acquire(COLOR_SIZE * capacity);
+        mFlags = pool.acquire(FLAGS_SIZE * capacity);
+    }
+
+    /**
+     * Give the buffers back to the DirectBufferPool, once the reader is
+     * closed.
+     */
+    void release() {
+        allocate(0);
+        mParticleCount = 0;
+    }
+
+    private void ensureCapacity(int particleCount) {
+        if (particleCount > mCapacity)
+            allocate(Math.max(Math.max(particleCount, MIN_CAPACITY), 2 * mCapacity));
+    }
+
+    /**
+     * Copy the state of a particle system. The caller must hold the WorldLock.
+     */
+    void capture(ParticleSystem particleSystem, long sequence) {
+        mParticleCount = particleSystem.getParticleCount();
+        ensureCapacity(mParticleCount);
+
+        mPositions.rewind();
+        particleSystem.copyPositionBuffer(0, mParticleCount, mPositions);
+        mVelocities.rewind();
+        particleSystem.copyVelocityBuffer(0, mParticleCount, mVelocities);
+        mColors.rewind();
+        particleSystem.copyColorBuffer(0, mParticleCount, mColors);
+        copyFlags(particleSystem);
+
+        mSequence = sequence;
+    }
+
+    private void copyFlags(ParticleSystem particleSystem) {
+        mFlags.rewind();
+        if (NativeSupport.PARTICLE_FLAGS_COPY.isAvailable()) {
+            try {
+                particleSystem.copyFlagsBuffer(0, mParticleCount, mFlags);
+                return;
+            } catch (UnsatisfiedLinkError e) {
+                NativeSupport.PARTICLE_FLAGS_COPY.markUnavailable(e);
+            }
+        }
+
+        // No other call reads the flags of single particles
+        for (int i = 0; i < mParticleCount; i++)
+            mFlags.putInt(i * FLAGS_SIZE, 0);
+    }
+
+    /**
+     * Copy a state captured from the same step, for another reader.
+     */
+    void copyFrom(ParticleState other) {
+        mParticleCount = other.mParticleCount;
+        ensureCapacity(mParticleCount);
+
+        copyBuffer(other.mPositions, mPositions, POSITION_SIZE * mParticleCount);
+        copyBuffer(other.mVelocities, mVelocities, VELOCITY_SIZE * mParticleCount);
+        copyBuffer(other.mColors, mColors, COLOR_SIZE * mParticleCount);
+        copyBuffer(other.mFlags, mFlags, FLAGS_SIZE * mParticleCount);
+
+        mSequence = other.mSequence;
+    }
+
+    private static void copyBuffer(ByteBuffer source, ByteBuffer destination, int size) {
+        ByteBuffer src = source.duplicate();
+        src.position(0).limit(size);
+
+        destination.clear();
+        destination.put(src);
+        destination.rewind();
+    }
+
+    /**
+     * Number of the world step this state was published after. Grows with
+     * every step, also across world resets.
+     */
+    public long getSequence() {
+        return mSequence;
+    }
+
+    public int getParticleCount() {
+        return mParticleCount;
+    }
+
+    public float getPositionX(int index) {
+        return mPositions.getFloat(index * POSITION_SIZE);
+    }
+
+    public float getPositionY(int index) {
+        return mPositions.getFloat(index * POSITION_SIZE + 4);
+    }
+
+    public float getVelocityX(int index) {
+        return mVelocities.getFloat(index * VELOCITY_SIZE);
+    }
+
+    public float getVelocityY(int index) {
+        return mVelocities.getFloat(index * VELOCITY_SIZE + 4);
+    }
+
+    /**
+     * Color of a particle, as an ARGB color int.
+     */
+    public int getColor(int index) {
+        int offset = index * COLOR_SIZE;
+        int r = mColors.get(offset) & 0xff;
+        int g = mColors.get(offset + 1) & 0xff;
+        int b = mColors.get(offset + 2) & 0xff;
+        int a = mColors.get(offset + 3) & 0xff;
+        return (a << 24) | (r << 16) | (g << 8) | b;
+    }
+
+    /**
+     * ParticleFlag flags of a particle. Always 0 (water) if the native
+     * library can't copy flags; see NativeSupport.
+     */
+    public int getFlags(int index) {
+        return mFlags.getInt(index * FLAGS_SIZE);
+    }
+}
@@ -0,0 +1,89 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Gives one thread, e.g. the UI thread or game logic, the latest particle
+ * state published by a particle system, without ever taking the WorldLock
+ * or waiting on the stepping thread. See ParticleSystems.openStateReader().
+ *
+ * States are triple buffered: the stepping thread fills one, the latest
+ * published one waits in the middle, and the reader holds the third. Both
+ * sides only ever swap their own state with the middle one, atomically, so
+ * neither waits on the other.
+ *
+ * A reader is meant for a single thread. Threads that read concurrently
+ * should each open their own.
+ */
+public class ParticleStateReader {
+
+    // Set on the middle state index when it was published since the
+    // reader last took it
+    private static final int FRESH = 1 << 2;
+    private static final int INDEX_MASK = FRESH - 1;
+
+    private final ParticleState[] mStates = {
+            new ParticleState(), new ParticleState(), new ParticleState()
+    };
+    private final AtomicInteger mMiddle = new AtomicInteger(1);
+    // Owned by the stepping thread
+    private int mBack = 0;
+    // Owned by the reader thread
+    private int mFront = 2;
+    private volatile boolean mClosed = false;
+
+    private final List<ParticleStateReader> mReaders;
+
+    ParticleStateReader(List<ParticleStateReader> readers) {
+        mReaders = readers;
+    }
+
+    /**
+     * The latest published state. It stays valid and unchanged until this
+     * reader acquires again. Before the first step after opening, the state
+     * is empty.
+     */
+    public ParticleState acquire() {
+        if ((mMiddle.get() & FRESH) != 0)
+            mFront = mMiddle.getAndSet(mFront) & INDEX_MASK;
+        return mStates[mFront];
+    }
+
+    /**
+     * Stop receiving states. States acquired before must no longer be read:
+     * their buffers go back to the DirectBufferPool after the next step.
+     */
+    public void close() {
+        mClosed = true;
+    }
+
+    boolean isClosed() {
+        return mClosed;
+    }
+
+    /**
+     * Stop publishing to a closed reader and give back its buffers. Only
+     * called by the stepping thread.
+     */
+    void release() {
+        mReaders.remove(this);
+        for (ParticleState state : mStates)
+            state.release();
+    }
+
+    /**
+     * State to fill before publish(). Only called by the stepping thread.
+     */
+    ParticleState getBackState() {
+        return mStates[mBack];
+    }
+
+    /**
+     * Hand the filled state to the reader. Only called by the stepping
+     * thread.
+     */
+    void publish() {
+        mBack = mMiddle.getAndSet(mBack | FRESH) & INDEX_MASK;
+    }
+}
@@ -6,23 +6,47 @@ import com.google.fpl.liquidfun.World;
 import com.google.fpl.liquidfunpaint.LiquidPaint;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
-import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Created on 8/13/2015.
+ * Systems are created on the stepping thread and iterated by the renderer, so
+ * the map has to tolerate concurrent access.
  */
-public class ParticleSystems extends HashMap<String, DrawableParticleSystem> {
+public class ParticleSystems extends ConcurrentHashMap<String, DrawableParticleSystem> {
 
     public static final String DEFAULT_PARTICLE_SYSTEM = "default_particle_system";
 
+    // Max particle count of systems created without one
     public static final int MAX_PARTICLE_COUNT = 5000;
     public static final float PARTICLE_RADIUS = 0.06f;
     public static final float PARTICLE_REPULSIVE_STRENGTH = 0.5f;
 
-    private static ParticleSystems sInstance = new ParticleSystems();
+    private final WorldLock mWorldLock;
 
-    public static ParticleSystems getInstance(){
-        return sInstance;
+    // Whether new systems read their buffers in place; see setDirectBuffers()
+    private boolean mDirectBuffers = false;
+    // Attributes new systems capture; see setVertexLayout()
+    private int mVertexLayout = ParticleVertexLayout.ALL;
+
+    // Readers of the published particle state, by system key. Kept across
+    // world resets, so readers follow the systems created in place of theirs.
+    private final ConcurrentHashMap<String, List<ParticleStateReader>> mStateReaders =
+            new ConcurrentHashMap<>();
+    // Number of the latest step published
+    private long mPublishSequence = 0;
+
+    // Whether systems keep water particles apart from the others
+    private boolean mPartitionedGroups = true;
+
+    // Whether snapshots quantize vertices, and the ranges they use
+    private boolean mQuantizedVertices = false;
+    private VertexQuantization mVertexQuantization = null;
+
+    public ParticleSystems(WorldLock worldLock){
+        mWorldLock = worldLock;
     }
 
     public void reset(World world){
@@ -33,18 +57,219 @@ public class ParticleSystems extends HashMap<String, DrawableParticleSystem> {
         createParticleSystem(world, DEFAULT_PARTICLE_SYSTEM);
     }
 
+    /**
+     * Delete all particle systems and close every state reader, giving all
+     * their buffers back to the DirectBufferPool. States acquired before must
+     * no longer be read.
+     * Must be called with the WorldLock held.
+     */
+    public void release(){
+        for(DrawableParticleSystem system : values())
+            system.delete();
+        clear();
+
+        for(List<ParticleStateReader> readers : mStateReaders.values()) {
+            for (ParticleStateReader reader : readers) {
+                reader.close();
+                reader.release();
+            }
+        }
+        mStateReaders.clear();
+    }
+
     public void createParticleSystem(World world, String key) {
+        createParticleSystem(world, key, MAX_PARTICLE_COUNT);
+    }
+
+    /**
+     * @param maxParticleCount Most particles the system may hold, or 0 for
+     *                         no limit
+     */
+    public void createParticleSystem(World world, String key, int maxParticleCount) {
         ParticleSystemDef psDef = new ParticleSystemDef();
         psDef.setRadius(PARTICLE_RADIUS);
         psDef.setRepulsiveStrength(PARTICLE_REPULSIVE_STRENGTH);
         psDef.setElasticStrength(2.0f);
         psDef.setDensity(0.5f);
         ParticleSystem particleSystem = world.createParticleSystem(psDef);
-        particleSystem.setMaxParticleCount(MAX_PARTICLE_COUNT);
+        setStaticPressureIterations(particleSystem,
+                mWorldLock.getIterationGovernor().getStaticPressureIterations());
 
         psDef.delete();
 
-        put(key, new DrawableParticleSystem(particleSystem));
+        DrawableParticleSystem system = new DrawableParticleSystem(particleSystem, mDirectBuffers);
+        system.setMaxParticleCount(maxParticleCount);
+        system.setVertexLayout(mVertexLayout);
+        system.setVertexQuantization(mVertexQuantization);
+        system.setPartitionedGroups(mPartitionedGroups);
+        system.setStateReaders(getStateReaders(key));
+        put(key, system);
+    }
+
+    /**
+     * Have the renderer read the particle buffers of every system in place,
+     * see DrawableParticleSystem.setDirectBuffers().
+     * Must be called with the WorldLock held.
+     */
+    public void setDirectBuffers(boolean directBuffers){
+        mDirectBuffers = directBuffers;
+        for(DrawableParticleSystem system : values())
+            system.setDirectBuffers(directBuffers);
+    }
+
+    /**
+     * Only capture the attributes the renderer reads, in every system; see
+     * DrawableParticleSystem.setVertexLayout().
+     * Must be called with the WorldLock held.
+     */
+    public void setVertexLayout(int layout){
+        mVertexLayout = layout;
+        for(DrawableParticleSystem system : values())
+            system.setVertexLayout(layout);
+    }
+
+    /**
+     * Keep the water particles of every system apart from the others, so
+     * each render pass draws a single range; see
+     * DrawableParticleSystem.setPartitionedGroups(). On by default.
+     * Must be called with the WorldLock held.
+     */
+    public void setPartitionedGroups(boolean partitioned){
+        mPartitionedGroups = partitioned;
+        for(DrawableParticleSystem system : values())
+            system.setPartitionedGroups(partitioned);
+    }
+
+    public boolean isPartitionedGroups(){
+        return mPartitionedGroups;
+    }
+
+    /**
+     * Have every system copy positions and velocities as 16-bit values
+     * within the world bounds; see
+     * DrawableParticleSystem.setVertexQuantization().
+     * Must be called with the WorldLock held.
+     */
+    public void setQuantizedVertices(boolean quantized){
+        mQuantizedVertices = quantized;
+        updateVertexQuantization();
+    }
+
+    public boolean isQuantizedVertices(){
+        return mQuantizedVertices;
+    }
+
+    /**
+     * Follow the world bounds after they changed.
+     * Must be called with the WorldLock held.
+     */
+    void updateVertexQuantization(){
+        mVertexQuantization = mQuantizedVertices ?
+                VertexQuantization.forWorld(
+                        mWorldLock.sPhysicsWorldWidth, mWorldLock.sPhysicsWorldHeight) :
+                null;
+
+        for(DrawableParticleSystem system : values())
+            system.setVertexQuantization(mVertexQuantization);
+    }
+
+    /**
+     * Must be called with the WorldLock held, right before a world step.
+     */
+    public void prepareSnapshots(){
+        for(DrawableParticleSystem system : values())
+            system.prepareSnapshot();
+    }
+
+    /**
+     * Publish a snapshot of every particle system for the renderer.
+     * Must be called with the WorldLock held, right after a world step.
+     */
+    public void publishSnapshots(){
+        ++mPublishSequence;
+        for(DrawableParticleSystem system : values()) {
+            system.publishSnapshot();
+            system.publishState(mPublishSequence);
+        }
+    }
+
+    /**
+     * Read the particle state of a system from another thread, without the
+     * WorldLock; see ParticleStateReader. The state is published after every
+     * step until the reader is closed, also by systems later created in
+     * place of this one.
+     */
+    public ParticleStateReader openStateReader(String key){
+        List<ParticleStateReader> readers = getStateReaders(key);
+        ParticleStateReader reader = new ParticleStateReader(readers);
+        readers.add(reader);
+        return reader;
+    }
+
+    public ParticleStateReader openStateReader(){
+        return openStateReader(DEFAULT_PARTICLE_SYSTEM);
+    }
+
+    private List<ParticleStateReader> getStateReaders(String key){
+        List<ParticleStateReader> readers = mStateReaders.get(key);
+        if (readers == null) {
+            readers = new CopyOnWriteArrayList<>();
+            List<ParticleStateReader> existing = mStateReaders.putIfAbsent(key, readers);
+            if (existing != null)
+                readers = existing;
+        }
+        return readers;
+    }
+
+    public void setStaticPressureIterations(int iterations){
+        for(DrawableParticleSystem system : values())
+            setStaticPressureIterations(system.particleSystem, iterations);
+    }
+
+    /**
+     * Systems keep their default static pressure iterations if the native
+     * library can't set them.
+     */
+    private static void setStaticPressureIterations(ParticleSystem particleSystem, int iterations){
+        if (!NativeSupport.ITERATION_CONTROL.isAvailable())
+            return;
+
+        try {
+            particleSystem.setStaticPressureIterations(iterations);
+        } catch (UnsatisfiedLinkError e) {
+            NativeSupport.ITERATION_CONTROL.markUnavailable(e);
+        }
+    }
+
+    /**
+     * Sum of the collision energy of all particle systems, or 0 if the
+     * native library can't compute it.
+     * Must be called with the WorldLock held.
+     */
+    public float computeCollisionEnergy(){
+        if (!NativeSupport.COLLISION_ENERGY.isAvailable())
+            return 0;
+
+        float energy = 0;
+        try {
+            for(DrawableParticleSystem system : values())
+                energy += system.particleSystem.computeCollisionEnergy();
+        } catch (UnsatisfiedLinkError e) {
+            NativeSupport.COLLISION_ENERGY.markUnavailable(e);
+            return 0;
+        }
+        return energy;
+    }
+
+    /**
+     * Square of the highest particle speed over all systems.
+     * Must be called with the WorldLock held.
+     */
+    public float getMaxSpeedSquared(){
+        float maxSpeedSquared = 0;
+        for(DrawableParticleSystem system : values())
+            maxSpeedSquared = Math.max(maxSpeedSquared, system.getMaxSpeedSquared());
+        return maxSpeedSquared;
     }
 
     public int getParticleCount(){
@@ -60,6 +285,14 @@ public class ParticleSystems extends HashMap<String, DrawableParticleSystem> {
         get(key).createParticleGroup(normalizedVertices, options);
     }
 
+    public void fillShapes(List<Vector2f[]> normalizedShapes, LiquidPaint options, String key){
+        get(key).createParticleGroup(normalizedShapes, options);
+    }
+
+    public void eraseParticles(List<Vector2f[]> normalizedShapes, String key){
+        get(key).clearParticles(normalizedShapes);
+    }
+
     public void eraseParticles(Vector2f[] normalizedVertices){
         eraseParticles(normalizedVertices, DEFAULT_PARTICLE_SYSTEM);
     }
@@ -70,14 +303,13 @@ public class ParticleSystems extends HashMap<String, DrawableParticleSystem> {
 
     @Override
     public DrawableParticleSystem get(Object key) {
-        if(containsKey(key))
-            return super.get(key);
-        else{
-            World world = WorldLock.getInstance().getWorld();
+        DrawableParticleSystem system = super.get(key);
+        if(system == null){
+            World world = mWorldLock.getWorld();
             createParticleSystem(world, key.toString());
-            return get(key);
+            system = super.get(key);
         }
-
+        return system;
     }
 
     public DrawableParticleSystem get(){
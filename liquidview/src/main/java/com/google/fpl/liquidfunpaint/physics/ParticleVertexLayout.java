@@ -0,0 +1,86 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+/**
+ * Layout of the interleaved particle vertices written by
+ * ParticleSystem.copyInterleavedVertexBuffer(). The flags mirror
+ * b2ParticleSystem::b2VertexAttribute; the attributes of a layout follow
+ * each other in flag order, without padding.
+ *
+ * A layout may also be QUANTIZED: positions and velocities are then
+ * normalized 16-bit values, written by
+ * ParticleSystem.copyQuantizedVertexBuffer(); see VertexQuantization.
+ */
+public final class ParticleVertexLayout {
+
+    public static final int POSITION = 1 << 0;
+    public static final int VELOCITY = 1 << 1;
+    public static final int COLOR = 1 << 2;
+    public static final int WEIGHT = 1 << 3;
+
+    public static final int ALL = POSITION | VELOCITY | COLOR | WEIGHT;
+
+    // Not an attribute: positions and velocities are 16-bit normalized
+    public static final int QUANTIZED = 1 << 4;
+
+    // Number of attribute flags, for arrays indexed by getIndex()
+    public static final int ATTRIBUTE_COUNT = 4;
+
+    private ParticleVertexLayout() {
+    }
+
+    /**
+     * Size in bytes of a single attribute.
+     */
+    public static int getSize(int attribute) {
+        switch (attribute) {
+            case POSITION:
+            case VELOCITY:
+                return 2 * 4;
+            case COLOR:
+            case WEIGHT:
+                return 4;
+            default:
+                throw new IllegalArgumentException("Invalid attribute " + attribute);
+        }
+    }
+
+    /**
+     * Size in bytes of a single attribute in a layout, which is smaller for
+     * positions and velocities when QUANTIZED.
+     */
+    public static int getSize(int layout, int attribute) {
+        if ((layout & QUANTIZED) != 0 && (attribute == POSITION || attribute == VELOCITY))
+            return 2 * 2;
+        return getSize(attribute);
+    }
+
+    /**
+     * Size in bytes of one vertex of the layout.
+     */
+    public static int getStride(int layout) {
+        int stride = 0;
+        for (int attribute = POSITION; attribute <= WEIGHT; attribute <<= 1) {
+            if ((layout & attribute) != 0)
+                stride += getSize(layout, attribute);
+        }
+        return stride;
+    }
+
+    /**
+     * Offset in bytes of an attribute within a vertex of the layout.
+     */
+    public static int getOffset(int layout, int attribute) {
+        if ((layout & attribute) == 0) {
+            throw new IllegalArgumentException(
+                    "Attribute " + attribute + " is not in layout " + layout);
+        }
+        return getStride(layout & (QUANTIZED | (attribute - 1)));
+    }
+
+    /**
+     * Index of an attribute flag, from 0 to ATTRIBUTE_COUNT - 1.
+     */
+    public static int getIndex(int attribute) {
+        return Integer.numberOfTrailingZeros(attribute);
+    }
+}
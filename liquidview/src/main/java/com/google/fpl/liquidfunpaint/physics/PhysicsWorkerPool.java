@@ -0,0 +1,158 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import android.os.Process;
+import android.util.Log;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Steps the worlds of all views running in threaded mode on a shared pool of
+ * worker threads, so several worlds are solved at the same time on separate
+ * cores.
+ *
+ * Every registered world is advanced in real time at the fixed time step. A
+ * world is never stepped by two workers at once, and is taken off the
+ * schedule while it is at rest. The number of workers is capped by
+ * setParallelism(); worlds beyond that share the workers.
+ */
+public class PhysicsWorkerPool {
+    private static final String TAG = "PhysicsWorkerPool";
+
+    // Leave a core to the UI and GL threads
+    public static final int DEFAULT_PARALLELISM =
+            Math.max(1, Math.min(4, Runtime.getRuntime().availableProcessors() - 1));
+
+    private static PhysicsWorkerPool sInstance = new PhysicsWorkerPool();
+
+    public static PhysicsWorkerPool getInstance() {
+        return sInstance;
+    }
+
+    private final ScheduledThreadPoolExecutor mExecutor;
+
+    // Guarded by this
+    private final Map<WorldLock, Worker> mWorkers = new HashMap<>();
+
+    private PhysicsWorkerPool() {
+        mExecutor = new ScheduledThreadPoolExecutor(DEFAULT_PARALLELISM, new ThreadFactory() {
+            private final AtomicInteger mCount = new AtomicInteger();
+
+            @Override
+            public Thread newThread(final Runnable r) {
+                Thread thread = new Thread(new Runnable() {
+                    @Override
+                    public void run() {
+                        Process.setThreadPriority(Process.THREAD_PRIORITY_DISPLAY);
+                        r.run();
+                    }
+                }, "PhysicsWorker-" + mCount.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+    }
+
+    /**
+     * Most worlds stepped at the same time, i.e. the number of worker threads.
+     */
+    public void setParallelism(int parallelism) {
+        if (parallelism < 1) {
+            throw new IllegalArgumentException("Invalid parallelism " + parallelism);
+        }
+        mExecutor.setCorePoolSize(parallelism);
+    }
+
+    public int getParallelism() {
+        return mExecutor.getCorePoolSize();
+    }
+
+    /**
+     * Start stepping a world. Does nothing if it is already registered.
+     */
+    public synchronized void register(WorldLock worldLock) {
+        if (mWorkers.containsKey(worldLock))
+            return;
+
+        Worker worker = new Worker(worldLock);
+        mWorkers.put(worldLock, worker);
+        worldLock.getRestDetector().addRestListener(worker);
+
+        if (!worldLock.getRestDetector().isAtRest())
+            schedule(worker);
+    }
+
+    /**
+     * Stop stepping a world. A step already running is allowed to finish; it
+     * holds the WorldLock, so the world is not changed under it.
+     */
+    public synchronized void unregister(WorldLock worldLock) {
+        Worker worker = mWorkers.remove(worldLock);
+        if (worker == null)
+            return;
+
+        worldLock.getRestDetector().removeRestListener(worker);
+        cancel(worker);
+        mExecutor.purge();
+    }
+
+    public synchronized int getWorldCount() {
+        return mWorkers.size();
+    }
+
+    private synchronized void schedule(Worker worker) {
+        if (worker.mFuture != null || mWorkers.get(worker.mWorldLock) != worker)
+            return;
+
+        worker.mFuture = mExecutor.scheduleAtFixedRate(
+                worker, 0, WorldLock.TIME_STEP_NANOS, TimeUnit.NANOSECONDS);
+    }
+
+    private synchronized void cancel(Worker worker) {
+        if (worker.mFuture == null)
+            return;
+
+        worker.mFuture.cancel(false);
+        worker.mFuture = null;
+    }
+
+    /**
+     * Advances one world, and follows its rest state to take it off and put
+     * it back on the schedule.
+     */
+    private class Worker implements Runnable, RestDetector.RestListener {
+        final WorldLock mWorldLock;
+
+        // Guarded by the pool
+        ScheduledFuture<?> mFuture = null;
+
+        Worker(WorldLock worldLock) {
+            mWorldLock = worldLock;
+        }
+
+        @Override
+        public void run() {
+            try {
+                mWorldLock.advanceWorld();
+            } catch (RuntimeException e) {
+                // An exception would silently stop the periodic task
+                Log.e(TAG, "Failed to step world", e);
+            }
+        }
+
+        @Override
+        public void onRest() {
+            cancel(this);
+        }
+
+        @Override
+        public void onWake() {
+            schedule(this);
+        }
+    }
+}
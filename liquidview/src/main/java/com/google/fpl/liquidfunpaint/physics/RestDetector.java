@@ -0,0 +1,246 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Detects when the world has come to rest, so that the engine can stop
+ * stepping and redrawing until something wakes it up again.
+ *
+ * The world is at rest after REST_STEPS consecutive steps in which the
+ * particle collision energy and the highest particle speed are below their
+ * thresholds, no body is awake and no command is waiting. Gravity changes,
+ * touches and new physics commands wake it up through WorldLock.wake().
+ */
+public class RestDetector {
+
+    /**
+     * Notified when the world comes to rest or wakes up again. Called on
+     * whichever thread caused the change, once it no longer holds the
+     * WorldLock, so listeners may take locks the renderer holds while it
+     * waits for the WorldLock. Calls are never concurrent, and always
+     * alternate between onRest() and onWake().
+     */
+    public interface RestListener {
+        void onRest();
+        void onWake();
+    }
+
+    // Consecutive quiet steps before the world is considered at rest
+    private static final int REST_STEPS = 60;
+    // Steps between scans of the particle speeds, which walk every particle.
+    // A scan stands for the steps up to the next one.
+    private static final int SPEED_SCAN_STEPS = 8;
+
+    public static final float DEFAULT_MAX_ENERGY_PER_PARTICLE = 1e-6f;
+    public static final float DEFAULT_MAX_SPEED = 0.05f;
+    public static final float DEFAULT_GRAVITY_WAKE_THRESHOLD = 0.5f;
+
+    private volatile boolean mEnabled = true;
+    private volatile float mMaxEnergyPerParticle = DEFAULT_MAX_ENERGY_PER_PARTICLE;
+    private volatile float mMaxSpeed = DEFAULT_MAX_SPEED;
+    private volatile float mGravityWakeThreshold = DEFAULT_GRAVITY_WAKE_THRESHOLD;
+
+    private final WorldLock mWorldLock;
+
+    private final List<RestListener> mListeners = new CopyOnWriteArrayList<>();
+
+    private boolean mAtRest = false;
+    private int mQuietSteps = 0;
+
+    // Result of the last speed scan, and the steps until the next one.
+    // Only used with the WorldLock held.
+    private boolean mSpeedQuiet = false;
+    private int mStepsToSpeedScan = 0;
+
+    // State the listeners were last told about, and whether a thread is
+    // telling them; see dispatchChanges()
+    private boolean mDispatchedAtRest = false;
+    private boolean mDispatching = false;
+    private long mRestStartNanos = 0;
+    private long mSkippedFrames = 0;
+
+    // Gravity the world came to rest with
+    private float mGravityX = 0;
+    private float mGravityY = 0;
+
+    RestDetector(WorldLock worldLock) {
+        mWorldLock = worldLock;
+    }
+
+    public void setEnabled(boolean enabled) {
+        mEnabled = enabled;
+        if (!enabled) {
+            wake();
+        }
+    }
+
+    public boolean isEnabled() {
+        return mEnabled;
+    }
+
+    public void setMaxEnergyPerParticle(float maxEnergyPerParticle) {
+        mMaxEnergyPerParticle = maxEnergyPerParticle;
+    }
+
+    public void setMaxSpeed(float maxSpeed) {
+        mMaxSpeed = maxSpeed;
+    }
+
+    /**
+     * How much gravity has to change, in m/s^2, to wake a resting world.
+     */
+    public void setGravityWakeThreshold(float threshold) {
+        mGravityWakeThreshold = threshold;
+    }
+
+    public void addRestListener(RestListener listener) {
+        mListeners.add(listener);
+    }
+
+    public void removeRestListener(RestListener listener) {
+        mListeners.remove(listener);
+    }
+
+    /**
+     * Check whether the world is quiet after a step.
+     * Must be called with the WorldLock held, after the snapshots of the step
+     * were published.
+     */
+    void onStep(boolean commandsPending) {
+        boolean quiet = mEnabled && !commandsPending && isQuiet();
+
+        synchronized (this) {
+            if (!quiet) {
+                mQuietSteps = 0;
+                return;
+            }
+            if (mAtRest || ++mQuietSteps < REST_STEPS)
+                return;
+
+            mAtRest = true;
+            mRestStartNanos = System.nanoTime();
+        }
+        // Listeners are told once the WorldLock is released
+    }
+
+    private boolean isQuiet() {
+        ParticleSystems systems = mWorldLock.getParticleSystems();
+
+        int particleCount = systems.getParticleCount();
+        if (particleCount > 0) {
+            // 0 if the native library can't compute it, leaving the speed
+            // to decide
+            float energy = systems.computeCollisionEnergy();
+            if (energy > mMaxEnergyPerParticle * particleCount)
+                return false;
+
+            if (!isSpeedQuiet(systems))
+                return false;
+        }
+
+        return !mWorldLock.getSolidWorld().hasAwakeBodies();
+    }
+
+    private boolean isSpeedQuiet(ParticleSystems systems) {
+        if (--mStepsToSpeedScan <= 0) {
+            mStepsToSpeedScan = SPEED_SCAN_STEPS;
+            mSpeedQuiet = systems.getMaxSpeedSquared() <= mMaxSpeed * mMaxSpeed;
+        }
+        return mSpeedQuiet;
+    }
+
+    /**
+     * Called whenever gravity is set. Wakes the world when gravity moved away
+     * from what it was at rest by more than the threshold.
+     */
+    void onGravityChanged(float gravityX, float gravityY) {
+        boolean wake;
+        synchronized (this) {
+            if (!mAtRest) {
+                mGravityX = gravityX;
+                mGravityY = gravityY;
+                return;
+            }
+            float dx = gravityX - mGravityX;
+            float dy = gravityY - mGravityY;
+            wake = dx * dx + dy * dy > mGravityWakeThreshold * mGravityWakeThreshold;
+        }
+
+        if (wake)
+            wake();
+    }
+
+    /**
+     * Leave the rest state, if at rest. Can be called from any thread.
+     */
+    public void wake() {
+        synchronized (this) {
+            mQuietSteps = 0;
+            if (!mAtRest)
+                return;
+
+            mAtRest = false;
+            mSkippedFrames += (System.nanoTime() - mRestStartNanos) / WorldLock.TIME_STEP_NANOS;
+            notifyAll();
+        }
+
+        mWorldLock.dispatchRestChanges();
+    }
+
+    /**
+     * Tell the listeners about the latest state, if it changed since they
+     * were last told. A thread finding another one dispatching leaves it to
+     * that one, which picks the change up before it returns.
+     * Must not be called with the WorldLock held.
+     */
+    void dispatchChanges() {
+        while (true) {
+            boolean atRest;
+            synchronized (this) {
+                if (mDispatching || mAtRest == mDispatchedAtRest)
+                    return;
+
+                mDispatching = true;
+                atRest = mAtRest;
+                mDispatchedAtRest = atRest;
+            }
+
+            try {
+                for (RestListener listener : mListeners) {
+                    if (atRest)
+                        listener.onRest();
+                    else
+                        listener.onWake();
+                }
+            } finally {
+                synchronized (this) {
+                    mDispatching = false;
+                }
+            }
+        }
+    }
+
+    public synchronized boolean isAtRest() {
+        return mAtRest;
+    }
+
+    /**
+     * Block until the world wakes up, or the timeout expires.
+     */
+    public synchronized void awaitWake(long timeoutMillis) throws InterruptedException {
+        if (mAtRest)
+            wait(timeoutMillis);
+    }
+
+    /**
+     * Number of frames that were not stepped nor drawn because the world was
+     * at rest, counted at the fixed time step.
+     */
+    public synchronized long getSkippedFrameCount() {
+        long skipped = mSkippedFrames;
+        if (mAtRest)
+            skipped += (System.nanoTime() - mRestStartNanos) / WorldLock.TIME_STEP_NANOS;
+        return skipped;
+    }
+}
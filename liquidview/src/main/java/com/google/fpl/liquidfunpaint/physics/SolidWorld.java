@@ -1,19 +1,11 @@
 package com.google.fpl.liquidfunpaint.physics;
 
-import android.content.Context;
-import android.opengl.Matrix;
-import android.text.TextUtils;
-
 import com.google.fpl.liquidfun.Body;
 import com.google.fpl.liquidfun.BodyDef;
 import com.google.fpl.liquidfun.BodyType;
 import com.google.fpl.liquidfun.PolygonShape;
 import com.google.fpl.liquidfun.Vec2;
 import com.google.fpl.liquidfun.World;
-import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
-import com.google.fpl.liquidfunpaint.renderer.TextureRenderer;
-import com.google.fpl.liquidfunpaint.shader.Texture;
-import com.google.fpl.liquidfunpaint.util.DrawableLayer;
 import com.google.fpl.liquidfunpaint.util.MathHelper;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
@@ -22,38 +14,57 @@ import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 
-import javax.microedition.khronos.egl.EGLConfig;
-import javax.microedition.khronos.opengles.GL10;
-
 /**
  * Created on 8/15/2015.
+ * The bodies of a world. Textured bodies are drawn by the SolidWorldRenderer
+ * from the snapshot published after every step, so this needs no GL.
  */
-public class SolidWorld implements DrawableLayer{
+public class SolidWorld {
 
     private final List<Body> bodies = new ArrayList<>();
     private final Map<Body, PolygonShape> polygons = new HashMap<>();
-    private final Map<Body, Texture> textures = new HashMap<>();
-
-    private final float[] mTransformFromWorld = new float[16];
+    private final Map<Body, String> textureNames = new HashMap<>();
+    private final Map<Body, Vector2f> polygonSizes = new HashMap<>();
+
+    // Body state published at the end of each step; only read by the renderer
+    private volatile List<BodySnapshot> mPublishedBodies = new ArrayList<>();
+
+    /**
+     * World position of a textured body, copied out of the native world so it
+     * can be drawn without holding the WorldLock.
+     */
+    public static class BodySnapshot {
+        public final String textureName;
+        public final float centerX;
+        public final float centerY;
+        public final float width;
+        public final float height;
+
+        BodySnapshot(String textureName, float centerX, float centerY, float width, float height) {
+            this.textureName = textureName;
+            this.centerX = centerX;
+            this.centerY = centerY;
+            this.width = width;
+            this.height = height;
+        }
+    }
 
     private static final float BOUNDARY_THICKNESS = 0.2f;
 
-    private static SolidWorld sInstance = new SolidWorld();
+    private final WorldLock mWorldLock;
 
-    public static SolidWorld getInstance(){
-        return sInstance;
+    public SolidWorld(WorldLock worldLock){
+        mWorldLock = worldLock;
     }
-    private Context mContext;
 
-    @Override
-    public void init(Context context){
-        mContext = context.getApplicationContext();
-    }
-
-    private void createWorldBoundaries(){
+    /**
+     * Wall in the world along its current dimensions.
+     * Must be called with the WorldLock held.
+     */
+    public void createWorldBoundaries(){
 
-        float worldWidth = WorldLock.getInstance().sPhysicsWorldWidth;
-        float worldHeight = WorldLock.getInstance().sPhysicsWorldHeight;
+        float worldWidth = mWorldLock.sPhysicsWorldWidth;
+        float worldHeight = mWorldLock.sPhysicsWorldHeight;
 
         float extraPadding = 0;
         float extraWidth = worldWidth + extraPadding;
@@ -79,7 +90,7 @@ public class SolidWorld implements DrawableLayer{
     }
 
     public void createSolidObject(Vector2f[] vertices, BodyType type, String textureName){
-        World world = WorldLock.getInstance().getWorld();
+        World world = mWorldLock.getWorld();
 
         // Create native objects
         BodyDef bodyDef = new BodyDef();
@@ -97,53 +108,57 @@ public class SolidWorld implements DrawableLayer{
 
         polygons.put(body, boundaryPolygon);
 
-        if(!TextUtils.isEmpty(textureName)){
-            Texture texture = new Texture(mContext, textureName);
-            textures.put(body, texture);
+        if(textureName != null && !textureName.isEmpty()){
+            textureNames.put(body, textureName);
+            polygonSizes.put(body, MathHelper.getPolygonSize(boundaryPolygon));
         }
     }
 
-    @Override
-    public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+    public int getBodyCount(){
+        return bodies.size();
     }
 
-    @Override
-    public void onSurfaceChanged(GL10 gl, int width, int height) {
-        createWorldBoundaries();
-
-        Matrix.setIdentityM(mTransformFromWorld, 0);
-        Matrix.translateM(mTransformFromWorld, 0, -1, -1, 0);
-        Matrix.scaleM(
-                mTransformFromWorld,
-                0,
-                2f / WorldLock.getInstance().sRenderWorldWidth,
-                2f / WorldLock.getInstance().sRenderWorldHeight,
-                1);
+    /**
+     * Whether any non-static body is still moving.
+     * Must be called with the WorldLock held.
+     */
+    public boolean hasAwakeBodies(){
+        for(Body body : bodies) {
+            if (body.getType() != BodyType.staticBody && body.isAwake())
+                return true;
+        }
+        return false;
     }
 
-    public void onDrawFrame(GL10 gl){
-        for(Body body : bodies) {
-            if (body != null) {
+    /**
+     * Copy the position of every textured body for the renderer.
+     * Must be called with the WorldLock held, right after a world step.
+     */
+    public void publishSnapshot(){
+        List<BodySnapshot> published = new ArrayList<>(textureNames.size());
 
-                if(textures.containsKey(body)) {
-                    PolygonShape shape = polygons.get(body);
-
-                    Vector2f poly = MathHelper.getPolygonSize(shape);
-
-                    Vec2 center = body.getWorldCenter();
-                    TextureRenderer.getInstance().drawTexture(
-                            textures.get(body), mTransformFromWorld,
-                            (center.getX()) - poly.x / 2,
-                            (center.getY()) + poly.y / 2,
-                            (center.getX()) + poly.x / 2,
-                            (center.getY()) - poly.y / 2,
-                            PhysicsLoop.getInstance().sScreenWidth,
-                            PhysicsLoop.getInstance().sScreenHeight);
-                }
-            }
+        for(Body body : bodies) {
+            String textureName = textureNames.get(body);
+            if (textureName == null)
+                continue;
+
+            Vector2f poly = polygonSizes.get(body);
+            Vec2 center = body.getWorldCenter();
+            published.add(new BodySnapshot(
+                    textureName, center.getX(), center.getY(), poly.x, poly.y));
         }
+
+        mPublishedBodies = published;
     }
-    @Override
+
+    /**
+     * Textured bodies as of the latest published step. Can be read from any
+     * thread; the list is never changed once published.
+     */
+    public List<BodySnapshot> getPublishedBodies(){
+        return mPublishedBodies;
+    }
+
     public void reset(){
 
         for(Body body : bodies) {
@@ -154,6 +169,11 @@ public class SolidWorld implements DrawableLayer{
         }
 
         bodies.clear();
+        polygons.clear();
+        textureNames.clear();
+        polygonSizes.clear();
+
+        mPublishedBodies = new ArrayList<>();
     }
 
 }
@@ -0,0 +1,58 @@
+package com.google.fpl.liquidfunpaint.physics;
+
+/**
+ * Ranges of quantized particle vertices: positions are stored as normalized
+ * unsigned 16-bit values over [minX, maxX] x [minY, maxY], and velocities as
+ * normalized signed 16-bit values over [-maxSpeed, maxSpeed]. Shaders map
+ * them back to worldspace with the decode factors below.
+ *
+ * Immutable. Snapshots compare ranges by identity, so keep using the same
+ * instance while the ranges do not change.
+ */
+public final class VertexQuantization {
+
+    // Room around the world for particles pushed into or past the walls
+    private static final float WORLD_MARGIN = 0.5f;
+    // Highest speed kept; faster particles are clamped, which is fine for
+    // effects driven by speed
+    private static final float MAX_SPEED = 16f;
+
+    public final float minX;
+    public final float minY;
+    public final float maxX;
+    public final float maxY;
+    public final float maxSpeed;
+
+    public VertexQuantization(float minX, float minY, float maxX, float maxY,
+                              float maxSpeed) {
+        this.minX = minX;
+        this.minY = minY;
+        this.maxX = maxX;
+        this.maxY = maxY;
+        this.maxSpeed = maxSpeed;
+    }
+
+    /**
+     * Ranges for a world spanning [0, worldWidth] x [0, worldHeight].
+     */
+    public static VertexQuantization forWorld(float worldWidth, float worldHeight) {
+        return new VertexQuantization(
+                -WORLD_MARGIN, -WORLD_MARGIN,
+                worldWidth + WORLD_MARGIN, worldHeight + WORLD_MARGIN,
+                MAX_SPEED);
+    }
+
+    /**
+     * Write the position decode factors: x and y scale, then x and y offset.
+     */
+    public void getPositionDecode(float[] decode) {
+        decode[0] = maxX - minX;
+        decode[1] = maxY - minY;
+        decode[2] = minX;
+        decode[3] = minY;
+    }
+
+    public float getVelocityDecode() {
+        return maxSpeed;
+    }
+}
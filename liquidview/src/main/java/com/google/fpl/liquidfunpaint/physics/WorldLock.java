@@ -1,22 +1,34 @@
 package com.google.fpl.liquidfunpaint.physics;
 
+import com.google.fpl.liquidfun.Draw;
 import com.google.fpl.liquidfun.World;
-import com.google.fpl.liquidfunpaint.renderer.DebugRenderer;
+import com.google.fpl.liquidfunpaint.physics.actions.BatchExecutor;
+import com.google.fpl.liquidfunpaint.physics.actions.PhysicsCommand;
+import com.google.fpl.liquidfunpaint.util.MathHelper;
+import com.google.fpl.liquidfunpaint.util.Vector2f;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-import java.util.concurrent.locks.Lock;
 import java.util.concurrent.locks.ReentrantLock;
 
 /**
  * Created on 15-09-20.
+ * One engine instance: a World together with its particle systems and
+ * bodies. Every view creates its own, so several worlds can live side by
+ * side.
  */
 public class WorldLock {
 
-    final private Queue<Runnable> pendingRunnables = new ConcurrentLinkedQueue<>();
+    // Queued commands, run within a time budget as coalesced batches
+    final private CommandScheduler commandScheduler = new CommandScheduler();
+    final private BatchExecutor batchExecutor = new BatchExecutor(this);
 
 
-    private static final float TIME_STEP = 1 / 60f; // 60 fps
+    public static final float TIME_STEP = 1 / 60f; // 60 fps
+    public static final long TIME_STEP_NANOS = (long) (TIME_STEP * 1000000000L);
+
+    // Most steps advanceWorld() will run to catch up with real time. Anything
+    // beyond this is dropped, so a long stall slows the simulation down
+    // instead of freezing the app on a burst of steps.
+    public static final int MAX_STEPS_PER_ADVANCE = 4;
 
     public static final float WORLD_SPAN = 3f;
     public float sPhysicsWorldWidth = WORLD_SPAN;
@@ -25,48 +37,115 @@ public class WorldLock {
     public float sRenderWorldWidth = WORLD_SPAN;
     public float sRenderWorldHeight = WORLD_SPAN;
 
-    // Parameters for world simulation
-    private static final int VELOCITY_ITERATIONS = 6;
-    private static final int POSITION_ITERATIONS = 2;
-    private static final int PARTICLE_ITERATIONS = 5;
+    // Size in pixels of the view this world is shown in
+    private int mScreenWidth = 1;
+    private int mScreenHeight = 1;
+
+    private final ParticleSystems mParticleSystems = new ParticleSystems(this);
+    private final SolidWorld mSolidWorld = new SolidWorld(this);
+
+    // Picks the solver iterations for each step
+    private final IterationGovernor mIterationGovernor = new IterationGovernor();
+
+    // Latest gravity, set without taking the lock
+    private final GravityInput mGravityInput = new GravityInput();
+
+    // Stops stepping while nothing moves
+    private final RestDetector mRestDetector = new RestDetector(this);
 
     private World mWorld = null;
-    private Lock mWorldLock = new ReentrantLock();
+    private final ReentrantLock mWorldLock = new ReentrantLock();
 
-    private static WorldLock sInstance = new WorldLock();
+    // Fixed-timestep accumulator, guarded by mClockLock
+    private final Object mClockLock = new Object();
+    private long mLastAdvanceNanos = -1;
+    private long mAccumulatorNanos = 0;
 
-    public static WorldLock getInstance() {
-        return sInstance;
-    }
+    // Real time at which the latest published step is considered to have
+    // happened. Read by the renderer to compute the interpolation alpha.
+    private volatile long mLastStepNanos = -1;
 
     public World getWorld(){
         return mWorld;
     }
 
+    public ParticleSystems getParticleSystems(){
+        return mParticleSystems;
+    }
+
+    public SolidWorld getSolidWorld(){
+        return mSolidWorld;
+    }
+
+    public IterationGovernor getIterationGovernor(){
+        return mIterationGovernor;
+    }
+
+    public GravityInput getGravityInput(){
+        return mGravityInput;
+    }
+
+    public RestDetector getRestDetector(){
+        return mRestDetector;
+    }
+
+    /**
+     * Wake the world if it is at rest, e.g. because the user touched it.
+     */
+    public void wake(){
+        mRestDetector.wake();
+    }
+
     public void lock(){
         mWorldLock.lock();
     }
 
     public void createWorld(){
         mWorld = new World(0, 0);
+        mGravityInput.apply(mWorld);
     }
 
     public void resetWorld(){
         lock();
 
         try {
+            mSolidWorld.reset();
             deleteWorld();
             createWorld();
 
-            ParticleSystems.getInstance().reset(mWorld);
+            mParticleSystems.reset(mWorld);
+
+            mIterationGovernor.reset();
+            mParticleSystems.setStaticPressureIterations(
+                    mIterationGovernor.getStaticPressureIterations());
+
+            mRestDetector.wake();
 
         } finally {
             unlock();
         }
     }
 
-    public void setDebugDraw(DebugRenderer renderer){
-        mWorld.setDebugDraw(renderer);
+    /**
+     * Delete the world, and give the buffers of its particle systems back to
+     * the DirectBufferPool, once the view showing it is gone. Steps do
+     * nothing afterwards; resetWorld() creates a new world.
+     */
+    public void dispose(){
+        lock();
+
+        try {
+            commandScheduler.clear();
+            mSolidWorld.reset();
+            mParticleSystems.release();
+            deleteWorld();
+        } finally {
+            unlock();
+        }
+    }
+
+    public void setDebugDraw(Draw debugDraw){
+        mWorld.setDebugDraw(debugDraw);
     }
 
     private void deleteWorld() {
@@ -83,7 +162,9 @@ public class WorldLock {
         }
     }
 
-    public void setWorldDimensions(float width, float height){
+    public void setWorldDimensions(int width, int height){
+        mScreenWidth = width;
+        mScreenHeight = height;
 
         if(height < width) { //landscape
             sRenderWorldHeight = WORLD_SPAN;
@@ -96,51 +177,224 @@ public class WorldLock {
         sPhysicsWorldWidth = sRenderWorldWidth;
         sPhysicsWorldHeight = sRenderWorldHeight;
 
+        mParticleSystems.updateVertexQuantization();
+
     }
 
+    public int getScreenWidth(){
+        return mScreenWidth;
+    }
+
+    public int getScreenHeight(){
+        return mScreenHeight;
+    }
+
+    /**
+     * Convert vertices in view pixels into world coordinates.
+     */
+    public Vector2f[] normalizeVertices(Vector2f[] screenVertices){
+        return MathHelper.normalizeVertices(screenVertices, mScreenWidth, mScreenHeight,
+                sRenderWorldWidth, sRenderWorldHeight);
+    }
+
+    /**
+     * Runs queued commands within their time budget, advances the world by
+     * one step and publishes the resulting particle and body snapshots for
+     * the renderer.
+     */
     public void stepWorld(){
         lock();
 
-        runPendingRunnables();
-
         try {
+            // Disposed, e.g. while a worker was waiting for the lock
+            if (mWorld == null)
+                return;
+
+            mGravityInput.applyTo(mWorld);
+
+            runPendingRunnables();
+
+            mParticleSystems.prepareSnapshots();
+
+            long stepStart = System.nanoTime();
             mWorld.step(
-                    TIME_STEP, VELOCITY_ITERATIONS,
-                    POSITION_ITERATIONS, PARTICLE_ITERATIONS);
+                    TIME_STEP,
+                    mIterationGovernor.getVelocityIterations(),
+                    mIterationGovernor.getPositionIterations(),
+                    mIterationGovernor.getParticleIterations());
+
+            if (mIterationGovernor.onStep(mWorld, System.nanoTime() - stepStart)) {
+                mParticleSystems.setStaticPressureIterations(
+                        mIterationGovernor.getStaticPressureIterations());
+            }
+
+            mParticleSystems.publishSnapshots();
+            mSolidWorld.publishSnapshot();
+
+            mRestDetector.onStep(commandScheduler.getQueueDepth() > 0);
         } finally {
             unlock();
         }
     }
 
+    /**
+     * Advances the world by as many fixed steps as real time requires since
+     * the last call, at most MAX_STEPS_PER_ADVANCE. May run no step at all
+     * when called faster than the step rate, or while the world is at rest.
+     * @return the number of steps taken
+     */
+    public int advanceWorld(){
+        try {
+            return advanceClock();
+        } finally {
+            dispatchRestChanges();
+        }
+    }
+
+    private int advanceClock(){
+        synchronized (mClockLock) {
+            if (mRestDetector.isAtRest()) {
+                // Nothing moves; start afresh once woken up
+                mLastAdvanceNanos = -1;
+                mAccumulatorNanos = 0;
+                return 0;
+            }
+
+            long now = System.nanoTime();
+
+            if (mLastAdvanceNanos < 0) {
+                // First advance after a (re)start: step once right away
+                mAccumulatorNanos = TIME_STEP_NANOS;
+            } else {
+                mAccumulatorNanos += now - mLastAdvanceNanos;
+            }
+            mLastAdvanceNanos = now;
+
+            // The steps of one advance share the command budget
+            int steps = 0;
+            commandScheduler.beginFrame();
+            try {
+                while (mAccumulatorNanos >= TIME_STEP_NANOS &&
+                        steps < MAX_STEPS_PER_ADVANCE) {
+                    stepWorld();
+                    mAccumulatorNanos -= TIME_STEP_NANOS;
+                    ++steps;
+                }
+            } finally {
+                commandScheduler.endFrame();
+            }
+
+            // Drop whatever we could not catch up on
+            if (mAccumulatorNanos >= TIME_STEP_NANOS) {
+                mAccumulatorNanos %= TIME_STEP_NANOS;
+            }
+
+            mLastStepNanos = now - mAccumulatorNanos;
+            return steps;
+        }
+    }
+
+    /**
+     * Forget the time elapsed so far, so that resuming a paused simulation
+     * does not try to catch up on the pause.
+     */
+    public void resetClock(){
+        synchronized (mClockLock) {
+            mLastAdvanceNanos = -1;
+            mAccumulatorNanos = 0;
+        }
+    }
+
+    /**
+     * Time left until advanceWorld() has a step to run, in nanoseconds.
+     */
+    public long getNanosUntilNextStep(){
+        long lastStep = mLastStepNanos;
+        if (lastStep < 0) {
+            return 0;
+        }
+        return Math.max(0, TIME_STEP_NANOS - (System.nanoTime() - lastStep));
+    }
+
+    /**
+     * How far real time is between the last two published steps and the
+     * next one, in [0, 1]. The renderer blends previous and current particle
+     * positions by this amount.
+     */
+    public float getInterpolationAlpha(){
+        long lastStep = mLastStepNanos;
+        if (lastStep < 0) {
+            return 1f;
+        }
+        float alpha = (float) (System.nanoTime() - lastStep) / TIME_STEP_NANOS;
+        return Math.min(1f, Math.max(0f, alpha));
+    }
+
     public void unlock() {
         mWorldLock.unlock();
+        dispatchRestChanges();
     }
 
-    public void setGravity(float gravityX, float gravityY){
-
-       lock();
-        try {
-            mWorld.setGravity(
-                    gravityX,
-                    gravityY);
+    /**
+     * Tell rest listeners about a change once this thread holds neither the
+     * WorldLock nor the clock. Listeners may block on locks held by a thread
+     * that is waiting for the WorldLock, e.g. the view's while it draws.
+     */
+    void dispatchRestChanges() {
+        if (!mWorldLock.isHeldByCurrentThread() && !Thread.holdsLock(mClockLock))
+            mRestDetector.dispatchChanges();
+    }
 
-        } finally {
-            unlock();
+    /**
+     * Set gravity, e.g. from the accelerometer. Doesn't take the lock; the
+     * value goes through the GravityInput filter and is applied at the start
+     * of the next step.
+     */
+    public void setGravity(float gravityX, float gravityY){
+        if (mGravityInput.set(gravityX, gravityY)) {
+            mRestDetector.onGravityChanged(
+                    mGravityInput.getGravityX(),
+                    mGravityInput.getGravityY());
         }
     }
 
 
-    public void addPhysicsCommand(Runnable runnable){
-        pendingRunnables.add(runnable);
+    /**
+     * Queue a scripted command, e.g. one that builds a scene.
+     */
+    public void addPhysicsCommand(PhysicsCommand command){
+        commandScheduler.add(command, false);
+        mRestDetector.wake();
+    }
+
+    /**
+     * Queue a command that comes straight from user input. These run before
+     * scripted commands.
+     */
+    public void addUserPhysicsCommand(PhysicsCommand command){
+        commandScheduler.add(command, true);
+        mRestDetector.wake();
     }
 
     public void clearPhysicsCommands(){
-        pendingRunnables.clear();
+        commandScheduler.clear();
+    }
+
+    public CommandScheduler getCommandScheduler(){
+        return commandScheduler;
     }
 
+    /**
+     * Run as many queued commands as fit in the scheduler's time budget.
+     * The rest are carried over to the next step.
+     */
     public void runPendingRunnables(){
-        while (!pendingRunnables.isEmpty()) {
-            pendingRunnables.poll().run();
+        lock();
+
+        try {
+            commandScheduler.runPending(batchExecutor);
+        } finally {
+            unlock();
         }
     }
 
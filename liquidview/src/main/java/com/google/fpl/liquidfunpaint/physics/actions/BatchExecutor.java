@@ -0,0 +1,139 @@
+package com.google.fpl.liquidfunpaint.physics.actions;
+
+import com.google.fpl.liquidfunpaint.LiquidPaint;
+import com.google.fpl.liquidfunpaint.physics.DrawableParticleSystem;
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
+import com.google.fpl.liquidfunpaint.util.Vector2f;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Runs queued physics commands in order, coalescing runs of particle commands
+ * into as few native calls as possible:
+ * - Consecutive ParticleGroup fills into the same particle system with
+ *   compatible paints become one particle group, created in one call.
+ * - Consecutive ParticleErasers on the same particle system are erased in
+ *   one call.
+ * - A ParticleEraser immediately followed by a fill of the same shape is
+ *   dropped, since the fill destroys the particles in its shape anyway.
+ * Any other command ends the current batch and runs on its own.
+ *
+ * Must be used with the WorldLock it runs commands on held.
+ */
+public class BatchExecutor {
+
+    private final WorldLock mWorldLock;
+
+    // The batch being built; mBatchPaint is null for an erase batch
+    private String mBatchKey = null;
+    private LiquidPaint mBatchPaint = null;
+    private final List<Vector2f[]> mBatchShapes = new ArrayList<>();
+
+    public BatchExecutor(WorldLock worldLock) {
+        mWorldLock = worldLock;
+    }
+
+    public void execute(List<PhysicsCommand> commands) {
+        int count = commands.size();
+
+        try {
+            for (int i = 0; i < count; i++) {
+                PhysicsCommand command = commands.get(i);
+
+                if (command instanceof ParticleEraser) {
+                    ParticleEraser eraser = (ParticleEraser) command;
+                    PhysicsCommand next = i + 1 < count ? commands.get(i + 1) : null;
+
+                    if (!isErasedByFill(eraser, next))
+                        addErase(eraser);
+
+                } else if (command instanceof ParticleGroup) {
+                    addFill((ParticleGroup) command);
+
+                } else {
+                    flush();
+                    command.run(mWorldLock);
+                }
+            }
+
+            flush();
+        } finally {
+            // Don't carry a half-built batch over if a command threw
+            resetBatch();
+        }
+    }
+
+    private void addErase(ParticleEraser eraser) {
+        String key = eraser.getParticleSystemKey();
+
+        if (mBatchShapes.isEmpty() || mBatchPaint != null || !key.equals(mBatchKey)) {
+            flush();
+            mBatchKey = key;
+        }
+        mBatchShapes.add(eraser.getNormalizedVertices(mWorldLock));
+    }
+
+    private void addFill(ParticleGroup fill) {
+        String key = fill.getParticleSystemKey();
+        LiquidPaint paint = fill.getPaint();
+
+        if (mBatchShapes.isEmpty() || !key.equals(mBatchKey) ||
+                !paint.canShareGroupWith(mBatchPaint)) {
+            flush();
+
+            if (!paint.canShareGroups()) {
+                // Rigid or solid paint, which has to stay its own group
+                fill.run(mWorldLock);
+                return;
+            }
+            mBatchKey = key;
+            mBatchPaint = paint;
+        }
+        mBatchShapes.add(fill.getNormalizedVertices(mWorldLock));
+    }
+
+    private void flush() {
+        if (mBatchShapes.isEmpty())
+            return;
+
+        if (mBatchPaint == null)
+            mWorldLock.getParticleSystems().eraseParticles(mBatchShapes, mBatchKey);
+        else
+            mWorldLock.getParticleSystems().fillShapes(mBatchShapes, mBatchPaint, mBatchKey);
+
+        resetBatch();
+    }
+
+    private void resetBatch() {
+        mBatchShapes.clear();
+        mBatchKey = null;
+        mBatchPaint = null;
+    }
+
+    private static boolean isErasedByFill(ParticleEraser eraser, PhysicsCommand next) {
+        if (!(next instanceof ParticleGroup))
+            return false;
+
+        // Fills the particle system skips erase nothing
+        ParticleGroup fill = (ParticleGroup) next;
+        if (!DrawableParticleSystem.isValidFillShape(fill.getVertices()))
+            return false;
+
+        return eraser.getParticleSystemKey().equals(fill.getParticleSystemKey()) &&
+                sameVertices(eraser.getVertices(), fill.getVertices());
+    }
+
+    private static boolean sameVertices(Vector2f[] a, Vector2f[] b) {
+        if (a == b)
+            return true;
+        if (a == null || b == null || a.length != b.length)
+            return false;
+
+        for (int i = 0; i < a.length; i++) {
+            if (a[i].x != b[i].x || a[i].y != b[i].y)
+                return false;
+        }
+        return true;
+    }
+}
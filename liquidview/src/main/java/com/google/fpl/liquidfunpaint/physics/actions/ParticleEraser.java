@@ -1,8 +1,7 @@
 package com.google.fpl.liquidfunpaint.physics.actions;
 
 import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
-import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
-import com.google.fpl.liquidfunpaint.util.MathHelper;
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 /**
@@ -23,8 +22,19 @@ public class ParticleEraser implements PhysicsCommand {
     }
 
     @Override
-    public void run() {
-        Vector2f[] normalized = MathHelper.normalizeVertices(mVertices, PhysicsLoop.getInstance().sScreenWidth, PhysicsLoop.getInstance().sScreenHeight);
-        ParticleSystems.getInstance().eraseParticles(normalized, mGroup);
+    public void run(WorldLock worldLock) {
+        worldLock.getParticleSystems().eraseParticles(getNormalizedVertices(worldLock), mGroup);
+    }
+
+    public Vector2f[] getVertices() {
+        return mVertices;
+    }
+
+    public Vector2f[] getNormalizedVertices(WorldLock worldLock) {
+        return worldLock.normalizeVertices(mVertices);
+    }
+
+    public String getParticleSystemKey() {
+        return mGroup;
     }
 }
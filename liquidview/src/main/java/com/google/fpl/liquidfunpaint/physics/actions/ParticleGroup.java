@@ -2,8 +2,7 @@ package com.google.fpl.liquidfunpaint.physics.actions;
 
 import com.google.fpl.liquidfunpaint.LiquidPaint;
 import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
-import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
-import com.google.fpl.liquidfunpaint.util.MathHelper;
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 /**
@@ -36,8 +35,23 @@ public class ParticleGroup implements PhysicsCommand {
     }
 
     @Override
-    public void run() {
-        Vector2f[] normalized = MathHelper.normalizeVertices(mVertices, PhysicsLoop.getInstance().sScreenWidth, PhysicsLoop.getInstance().sScreenHeight);
-        ParticleSystems.getInstance().fillShape(normalized, mPaint, mGroup);
+    public void run(WorldLock worldLock) {
+        worldLock.getParticleSystems().fillShape(getNormalizedVertices(worldLock), mPaint, mGroup);
+    }
+
+    public Vector2f[] getVertices() {
+        return mVertices;
+    }
+
+    public Vector2f[] getNormalizedVertices(WorldLock worldLock) {
+        return worldLock.normalizeVertices(mVertices);
+    }
+
+    public LiquidPaint getPaint() {
+        return mPaint;
+    }
+
+    public String getParticleSystemKey() {
+        return mGroup;
     }
 }
@@ -1,7 +1,12 @@
 package com.google.fpl.liquidfunpaint.physics.actions;
 
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
+
 /**
  * Created on 15-09-26.
+ * A change to a world, queued on its WorldLock and run on the stepping
+ * thread with the lock held.
  */
-public interface PhysicsCommand extends Runnable {
+public interface PhysicsCommand {
+    void run(WorldLock worldLock);
 }
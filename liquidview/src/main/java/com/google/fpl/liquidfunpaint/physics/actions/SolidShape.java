@@ -1,11 +1,7 @@
 package com.google.fpl.liquidfunpaint.physics.actions;
 
-import android.text.TextUtils;
-
 import com.google.fpl.liquidfun.BodyType;
-import com.google.fpl.liquidfunpaint.physics.SolidWorld;
-import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
-import com.google.fpl.liquidfunpaint.util.MathHelper;
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 /**
@@ -24,15 +20,15 @@ public class SolidShape implements PhysicsCommand {
     public SolidShape(Vector2f[] vertices, String textureName){
         mVertices = vertices;
 
-        if(TextUtils.isEmpty(textureName))
+        if(textureName == null || textureName.isEmpty())
             mTextureName = "textures/smiley.png";
         else
             mTextureName = textureName;
     }
 
     @Override
-    public void run() {
-        Vector2f[] normalized = MathHelper.normalizeVertices(mVertices, PhysicsLoop.getInstance().sScreenWidth, PhysicsLoop.getInstance().sScreenHeight);
-        SolidWorld.getInstance().createSolidObject(normalized, BodyType.dynamicBody, mTextureName);
+    public void run(WorldLock worldLock) {
+        Vector2f[] normalized = worldLock.normalizeVertices(mVertices);
+        worldLock.getSolidWorld().createSolidObject(normalized, BodyType.dynamicBody, mTextureName);
     }
 }
@@ -16,6 +16,7 @@
  */
 package com.google.fpl.liquidfunpaint.renderer;
 
+import com.google.fpl.liquidfunpaint.shader.GlState;
 import com.google.fpl.liquidfunpaint.shader.Material;
 import com.google.fpl.liquidfunpaint.shader.ShaderProgram;
 import com.google.fpl.liquidfunpaint.shader.Texture;
@@ -23,110 +24,250 @@ import com.google.fpl.liquidfunpaint.util.RenderHelper;
 
 import android.opengl.GLES20;
 
+import java.util.ArrayList;
+import java.util.List;
+
 /**
  * BlurRenderer.
  * This is the blur renderer. It takes an input texture, and uses a blur
- * shader to blur it into an output RenderSurface.
- * Blur shader is hard-coded to use gaussian blur, with a sigma or 2.3 and a
- * kernel size of 5.
+ * shader to blur it into an output RenderSurface of the same size.
+ *
+ * The kernel is either a separable gaussian blur, with a sigma of 2.3 and a
+ * kernel size of 5, through a surface of half the size; or a dual filter
+ * pyramid, which downsamples through a number of levels, each half the size
+ * of the one before, and upsamples back. More levels blur wider and
+ * smoother; every level costs two passes over a quarter of the pixels of
+ * the level above, so the cost stays within 4/3 of the first level.
+ *
+ * Surfaces of the levels are kept between draws, and shared by every output
+ * of the same size.
  */
 public class BlurRenderer {
     private static final String TAG = "BlurRenderer";
     private static final String BLUR_TEXTURE_NAME = "uBlurTexture";
-    // Small intermediate framebuffer since we do want the image to lose a bit
-    // of detail and this allows the fragment shader computation to go way
-    // faster.
-    private static final int FB_SIZE = 128;
 
-    private RenderSurface mBlurSurface;
+    public enum Kernel {
+        /**
+         * Separable 5-tap gaussian through a single level. The default.
+         */
+        GAUSSIAN,
+        /**
+         * Dual filter downsample and upsample through setLevels() levels.
+         */
+        DUAL_FILTER
+    }
+
+    public static final int MAX_LEVELS = 5;
+
+    // Spread of the dual filter samples, in half texels of the texture read
+    private static final float DUAL_FILTER_OFFSET = 1.0f;
 
-    private Material mXBlurMaterial;
-    private Material mYBlurMaterial;
+    private volatile Kernel mKernel = Kernel.GAUSSIAN;
+    private volatile int mLevels = 1;
+
+    // Small intermediate framebuffers since we do want the image to lose a
+    // bit of detail and this allows the fragment shader computation to go
+    // way faster. The first is half the size of the output, and every other
+    // one half the size of the one before.
+    private final List<RenderSurface> mLevelSurfaces = new ArrayList<>();
+    // Output size the level surfaces are for
+    private int mLevelsWidth = 0;
+    private int mLevelsHeight = 0;
+
+    /**
+     * A blur shader, with the handles every pass sets looked up once.
+     */
+    private static class BlurPass {
+        final Material mMaterial;
+        final Material.AttributeInfo mPosition;
+        final Material.AttributeInfo mTexCoord;
+        final Material.UniformInfo mBlurTexture;
+
+        BlurPass(String vsName, String psName) {
+            mMaterial = new Material(new ShaderProgram(vsName, psName));
+            mPosition = mMaterial.addAttribute(
+                    "aPosition", 3, Material.AttrComponentType.FLOAT, 4, false,
+                    RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
+            mTexCoord = mMaterial.addAttribute(
+                    "aTexCoord", 2, Material.AttrComponentType.FLOAT, 4, false,
+                    RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
+            mBlurTexture = mMaterial.getUniform(BLUR_TEXTURE_NAME);
+        }
+    }
+
+    private final BlurPass mXBlurPass;
+    private final BlurPass mYBlurPass;
+    private final BlurPass mDownPass;
+    private final BlurPass mUpPass;
+    private final Material.UniformInfo mXBlurBufferSize;
+    private final Material.UniformInfo mYBlurBufferSize;
+    private final Material.UniformInfo mDownHalfTexel;
+    private final Material.UniformInfo mDownOffset;
+    private final Material.UniformInfo mUpHalfTexel;
+    private final Material.UniformInfo mUpOffset;
 
     public BlurRenderer() {
-        mXBlurMaterial = new Material(
-                new ShaderProgram("x_blur.glslv", "blur.glslf"));
-        mYBlurMaterial = new Material(
-                new ShaderProgram("y_blur.glslv", "blur.glslf"));
-
-        mXBlurMaterial.addAttribute(
-                "aPosition", 3, Material.AttrComponentType.FLOAT, 4, false,
-                RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
-        mXBlurMaterial.addAttribute(
-                "aTexCoord", 2, Material.AttrComponentType.FLOAT, 4, false,
-                RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
-        mYBlurMaterial.addAttribute(
-                "aPosition", 3, Material.AttrComponentType.FLOAT, 4, false,
-                RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
-        mYBlurMaterial.addAttribute(
-                "aTexCoord", 2, Material.AttrComponentType.FLOAT, 4, false,
-                RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
-
-        mBlurSurface = new RenderSurface(FB_SIZE, FB_SIZE);
+        mXBlurPass = new BlurPass("x_blur.glslv", "blur.glslf");
+        mYBlurPass = new BlurPass("y_blur.glslv", "blur.glslf");
+        mDownPass = new BlurPass("dual_down.glslv", "dual_down.glslf");
+        mUpPass = new BlurPass("dual_up.glslv", "dual_up.glslf");
+
+        mXBlurBufferSize = mXBlurPass.mMaterial.getUniform("uBlurBufferSize");
+        mYBlurBufferSize = mYBlurPass.mMaterial.getUniform("uBlurBufferSize");
+        mDownHalfTexel = mDownPass.mMaterial.getUniform("uHalfTexel");
+        mDownOffset = mDownPass.mMaterial.getUniform("uOffset");
+        mUpHalfTexel = mUpPass.mMaterial.getUniform("uHalfTexel");
+        mUpOffset = mUpPass.mMaterial.getUniform("uOffset");
+    }
+
+    public void setKernel(Kernel kernel) {
+        mKernel = kernel;
+    }
+
+    public Kernel getKernel() {
+        return mKernel;
+    }
+
+    /**
+     * Number of levels of the DUAL_FILTER pyramid, from 1 to MAX_LEVELS.
+     */
+    public void setLevels(int levels) {
+        if (levels < 1 || levels > MAX_LEVELS) {
+            throw new IllegalArgumentException("Invalid blur levels " + levels);
+        }
+        mLevels = levels;
+    }
+
+    public int getLevels() {
+        return mLevels;
     }
 
     /**
      * Draw function for the geometry that this class owns.
      */
     public void draw(Texture inputTexture, RenderSurface outputSurface) {
-        // X-blur: Blur into a temporary surface
-        mBlurSurface.beginRender(0);
-        mXBlurMaterial.beginRender();
+        Kernel kernel = mKernel;
+        int levels = kernel == Kernel.DUAL_FILTER ? mLevels : 1;
+        updateLevelSurfaces(outputSurface, levels);
 
-        RenderHelper.SCREEN_QUAD_VERTEX_BUFFER.rewind();
+        if (kernel == Kernel.DUAL_FILTER) {
+            drawDualFilter(inputTexture, outputSurface, levels);
+        } else {
+            drawGaussian(inputTexture, outputSurface);
+        }
+    }
 
-        // Set attribute arrays
-        mXBlurMaterial.setVertexAttributeBuffer(
-                "aPosition", RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 0);
-        mXBlurMaterial.setVertexAttributeBuffer(
-                "aTexCoord", RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 3);
+    private void drawGaussian(Texture inputTexture, RenderSurface outputSurface) {
+        RenderSurface blurSurface = mLevelSurfaces.get(0);
 
-        // Set the input texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(
-                GLES20.GL_TEXTURE_2D, inputTexture.getTextureId());
+        // X-blur: Blur into a temporary surface
+        beginPass(mXBlurPass, inputTexture, blurSurface);
+        GLES20.glUniform1f(
+                mXBlurBufferSize.getLocation(), 1.0f / blurSurface.getWidth());
+        endPass(mXBlurPass, blurSurface);
 
-        // Set the correct uniforms
-        GLES20.glUniform1i(
-                mXBlurMaterial.getUniformLocation(BLUR_TEXTURE_NAME), 0);
+        // Y-blur: blur into spcified output surface
+        beginPass(mYBlurPass, blurSurface.getTexture(), outputSurface);
         GLES20.glUniform1f(
-                mXBlurMaterial.getUniformLocation("uBlurBufferSize"),
-                1.0f / FB_SIZE);
+                mYBlurBufferSize.getLocation(), 1.0f / blurSurface.getHeight());
+        endPass(mYBlurPass, outputSurface);
+    }
 
-        GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 4);
+    private void drawDualFilter(Texture inputTexture, RenderSurface outputSurface,
+                                int levels) {
+        // Down the pyramid, starting from the input
+        Texture source = inputTexture;
+        RenderSurface sourceSurface = outputSurface;
+        for (int level = 0; level < levels; level++) {
+            RenderSurface target = mLevelSurfaces.get(level);
+            drawDualFilterPass(mDownPass, mDownHalfTexel, mDownOffset, source, sourceSurface, target);
+            source = target.getTexture();
+            sourceSurface = target;
+        }
 
-        mXBlurMaterial.endRender();
-        mBlurSurface.endRender();
+        // And back up, ending in the output
+        for (int level = levels - 2; level >= -1; level--) {
+            RenderSurface target = level >= 0 ? mLevelSurfaces.get(level) : outputSurface;
+            drawDualFilterPass(mUpPass, mUpHalfTexel, mUpOffset, source, sourceSurface, target);
+            source = target.getTexture();
+            sourceSurface = target;
+        }
+    }
 
-        // Issue a flush call to make sure previous frame buffer commands are
-        // sent asap, as we are using it in the next render call.
-        GLES20.glFlush();
+    /**
+     * @param sourceSurface Surface of the size of the texture read
+     */
+    private static void drawDualFilterPass(BlurPass pass,
+                                           Material.UniformInfo halfTexel,
+                                           Material.UniformInfo offset,
+                                           Texture source,
+                                           RenderSurface sourceSurface,
+                                           RenderSurface target) {
+        beginPass(pass, source, target);
+        GLES20.glUniform2f(
+                halfTexel.getLocation(),
+                0.5f / sourceSurface.getWidth(), 0.5f / sourceSurface.getHeight());
+        GLES20.glUniform1f(offset.getLocation(), DUAL_FILTER_OFFSET);
+        endPass(pass, target);
+    }
 
-        // Y-blur: blur into spcified output surface
-        outputSurface.beginRender(0);
-        mYBlurMaterial.beginRender();
+    /**
+     * Start a full screen pass reading a texture into a surface. Set the
+     * uniforms of the pass before endPass().
+     */
+    private static void beginPass(BlurPass pass, Texture source, RenderSurface target) {
+        target.beginRender(0);
+        pass.mMaterial.beginRender();
+
+        RenderHelper.SCREEN_QUAD_VERTEX_BUFFER.rewind();
 
         // Set attribute arrays
-        mYBlurMaterial.setVertexAttributeBuffer(
-                "aPosition", RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 0);
-        mYBlurMaterial.setVertexAttributeBuffer(
-                "aTexCoord", RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 3);
-
-        // Set texture
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(
-                GLES20.GL_TEXTURE_2D, mBlurSurface.getTexture().getTextureId());
-
-        // Set the correct uniform
-        GLES20.glUniform1i(
-                mYBlurMaterial.getUniformLocation(BLUR_TEXTURE_NAME), 0);
-        GLES20.glUniform1f(
-                mYBlurMaterial.getUniformLocation("uBlurBufferSize"),
-                1.0f / FB_SIZE);
+        pass.mMaterial.setVertexAttributeBuffer(
+                pass.mPosition, RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 0);
+        pass.mMaterial.setVertexAttributeBuffer(
+                pass.mTexCoord, RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 3);
 
+        // Set the input texture
+        GlState.get().bindTexture(0, source.getTextureId());
+        GLES20.glUniform1i(pass.mBlurTexture.getLocation(), 0);
+    }
+
+    /**
+     * Draw the pass. No flush is needed before the next pass reads the
+     * target: GL orders rendering to a texture before sampling from it.
+     */
+    private static void endPass(BlurPass pass, RenderSurface target) {
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 4);
 
-        mYBlurMaterial.endRender();
-        outputSurface.endRender();
+        pass.mMaterial.endRender();
+        target.endRender();
+    }
+
+    /**
+     * Have exactly the level surfaces needed for an output, keeping those
+     * that already fit.
+     */
+    private void updateLevelSurfaces(RenderSurface outputSurface, int levels) {
+        if (outputSurface.getWidth() != mLevelsWidth ||
+                outputSurface.getHeight() != mLevelsHeight) {
+            deleteLevelSurfaces(0);
+            mLevelsWidth = outputSurface.getWidth();
+            mLevelsHeight = outputSurface.getHeight();
+        }
+
+        deleteLevelSurfaces(levels);
+        for (int level = mLevelSurfaces.size(); level < levels; level++) {
+            mLevelSurfaces.add(new RenderSurface(
+                    Math.max(1, mLevelsWidth >> (level + 1)),
+                    Math.max(1, mLevelsHeight >> (level + 1))));
+        }
+    }
+
+    /**
+     * Delete the level surfaces from the given level on.
+     */
+    private void deleteLevelSurfaces(int fromLevel) {
+        while (mLevelSurfaces.size() > fromLevel)
+            mLevelSurfaces.remove(mLevelSurfaces.size() - 1).delete();
     }
-}
\ No newline at end of file
+}
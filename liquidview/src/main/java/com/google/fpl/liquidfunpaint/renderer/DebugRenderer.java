@@ -26,15 +26,17 @@ import com.google.fpl.liquidfun.Transform;
 import com.google.fpl.liquidfun.Vec2;
 import com.google.fpl.liquidfun.World;
 import com.google.fpl.liquidfunpaint.physics.WorldLock;
+import com.google.fpl.liquidfunpaint.shader.GlState;
 import com.google.fpl.liquidfunpaint.shader.Material;
 import com.google.fpl.liquidfunpaint.shader.Material.AttributeInfo;
+import com.google.fpl.liquidfunpaint.shader.Material.UniformInfo;
 import com.google.fpl.liquidfunpaint.shader.ShaderProgram;
 import com.google.fpl.liquidfunpaint.shader.Texture;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
 import com.google.fpl.liquidfunpaint.util.DrawableLayer;
 import com.mycardboarddreams.liquidsurface.R;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
@@ -58,6 +60,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
     private ByteBuffer mPolygonColorBuffer;
     private AttributeInfo mPolygonPositionAttr;
     private AttributeInfo mPolygonColorAttr;
+    private UniformInfo mPolygonTransformUniform;
 
     private ShaderProgram mCircleShader;
     private Material mCircleMaterial;
@@ -67,6 +70,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
     private AttributeInfo mCirclePositionAttr;
     private AttributeInfo mCircleColorAttr;
     private AttributeInfo mCirclePointSizeAttr;
+    private UniformInfo mCircleTransformUniform;
 
     private ShaderProgram mLineShader;
     private Material mLineMaterial;
@@ -74,29 +78,33 @@ public class DebugRenderer extends Draw implements DrawableLayer {
     private ByteBuffer mLineColorBuffer;
     private AttributeInfo mLinePositionAttr;
     private AttributeInfo mLineColorAttr;
+    private UniformInfo mLineTransformUniform;
+
+    private final PhysicsLoop mPhysicsLoop;
+    private final WorldLock mWorldLock;
 
     private Context mContext;
 
+    public DebugRenderer(PhysicsLoop physicsLoop) {
+        mPhysicsLoop = physicsLoop;
+        mWorldLock = physicsLoop.getWorldLock();
+    }
+
     @Override
     public void init(Context context) {
         mContext = context.getApplicationContext();
 
-        mPolygonPositionBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
-        mPolygonColorBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+
+        mPolygonPositionBuffer = pool.acquire(DEBUG_CAPACITY);
+        mPolygonColorBuffer = pool.acquire(DEBUG_CAPACITY);
 
-        mCirclePositionBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
-        mCircleColorBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
-        mCirclePointSizeBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
+        mCirclePositionBuffer = pool.acquire(DEBUG_CAPACITY);
+        mCircleColorBuffer = pool.acquire(DEBUG_CAPACITY);
+        mCirclePointSizeBuffer = pool.acquire(DEBUG_CAPACITY);
 
-        mLinePositionBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
-        mLineColorBuffer = ByteBuffer.allocateDirect(DEBUG_CAPACITY)
-                .order(ByteOrder.nativeOrder());
+        mLinePositionBuffer = pool.acquire(DEBUG_CAPACITY);
+        mLineColorBuffer = pool.acquire(DEBUG_CAPACITY);
 
         setFlags(Draw.SHAPE_BIT | Draw.PARTICLE_BIT);
     }
@@ -163,8 +171,8 @@ public class DebugRenderer extends Draw implements DrawableLayer {
         addColorToBuffer(mCircleColorBuffer, color);
 
         float pointSize =
-                Math.max(1.0f, PhysicsLoop.getInstance().sScreenWidth *
-                        (2.0f * radius / WorldLock.getInstance().sRenderWorldWidth));
+                Math.max(1.0f, mPhysicsLoop.sScreenWidth *
+                        (2.0f * radius / mWorldLock.sRenderWorldWidth));
         mCirclePointSizeBuffer.putFloat(pointSize);
     }
 
@@ -194,8 +202,8 @@ public class DebugRenderer extends Draw implements DrawableLayer {
         mCircleColorBuffer.put(colors);
 
         float pointSize =
-                Math.max(1.0f, PhysicsLoop.getInstance().sScreenWidth *
-                        (2.0f * radius / WorldLock.getInstance().sRenderWorldWidth));
+                Math.max(1.0f, mPhysicsLoop.sScreenWidth *
+                        (2.0f * radius / mWorldLock.sRenderWorldWidth));
         for (int i = 0; i < count; ++i) {
             mCirclePointSizeBuffer.putFloat(pointSize);
         }
@@ -245,13 +253,11 @@ public class DebugRenderer extends Draw implements DrawableLayer {
         reset();
 
         // This captures everything we need to draw into buffers
-        WorldLock.getInstance().getWorld().drawDebugData();
+        mWorldLock.getWorld().drawDebugData();
 
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLES20.glViewport(
-                0, 0,
-                PhysicsLoop.getInstance().sScreenWidth,
-                PhysicsLoop.getInstance().sScreenHeight);
+        RenderSurface.bindScreen(
+                mPhysicsLoop.sScreenWidth,
+                mPhysicsLoop.sScreenHeight);
         drawPolygons(mTransformFromWorld);
         drawCircles(mTransformFromWorld);
         drawSegments(mTransformFromWorld);
@@ -270,7 +276,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
 
         // Set uniforms
         GLES20.glUniformMatrix4fv(
-                mPolygonMaterial.getUniformLocation("uTransform"),
+                mPolygonTransformUniform.getLocation(),
                 1,
                 false,
                 transformFromWorld,
@@ -284,8 +290,9 @@ public class DebugRenderer extends Draw implements DrawableLayer {
     private void drawCircles(float[] transformFromWorld) {
         mCircleMaterial.beginRender();
 
-        GLES20.glEnable(GLES20.GL_BLEND);
-        GLES20.glBlendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
+        GlState state = GlState.get();
+        state.setBlend(true);
+        state.blendFunc(GLES20.GL_SRC_ALPHA, GLES20.GL_ONE_MINUS_SRC_ALPHA);
 
         int numElements = mCirclePointSizeBuffer.position() / 4;
 
@@ -298,7 +305,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
 
         // Set uniforms
         GLES20.glUniformMatrix4fv(
-                mCircleMaterial.getUniformLocation("uTransform"),
+                mCircleTransformUniform.getLocation(),
                 1, false, transformFromWorld, 0);
 
         GLES20.glDrawArrays(GLES20.GL_POINTS, 0, numElements);
@@ -318,7 +325,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
 
         // Set uniforms
         GLES20.glUniformMatrix4fv(
-                mLineMaterial.getUniformLocation("uTransform"),
+                mLineTransformUniform.getLocation(),
                 1, false, transformFromWorld, 0);
 
         GLES20.glDrawArrays(GLES20.GL_LINES, 0, numElements);
@@ -333,8 +340,8 @@ public class DebugRenderer extends Draw implements DrawableLayer {
           Matrix.scaleM(
                   mTransformFromWorld,
                   0,
-                  2f / WorldLock.getInstance().sRenderWorldWidth,
-                  2f / WorldLock.getInstance().sRenderWorldHeight,
+                  2f / mWorldLock.sRenderWorldWidth,
+                  2f / mWorldLock.sRenderWorldHeight,
                   1);
     }
 
@@ -350,6 +357,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
         mPolygonColorAttr = mPolygonMaterial.addAttribute(
                 "aColor", 4, Material.AttrComponentType.UNSIGNED_BYTE,
                 1, true, 0);
+        mPolygonTransformUniform = mPolygonMaterial.getUniform("uTransform");
 
         mPolygonMaterial.setBlendFunc(
                 Material.BlendFactor.SRC_ALPHA,
@@ -370,6 +378,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
         mCirclePointSizeAttr = mCircleMaterial.addAttribute(
                 "aPointSize", 1, Material.AttrComponentType.FLOAT,
                 4, false, 0);
+        mCircleTransformUniform = mCircleMaterial.getUniform("uTransform");
 
         mCircleMaterial.setBlendFunc(
                 Material.BlendFactor.SRC_ALPHA,
@@ -386,6 +395,7 @@ public class DebugRenderer extends Draw implements DrawableLayer {
         mLineColorAttr = mLineMaterial.addAttribute(
                 "aColor", 4, Material.AttrComponentType.UNSIGNED_BYTE,
                 1, true, 0);
+        mLineTransformUniform = mLineMaterial.getUniform("uTransform");
 
         mLineMaterial.setBlendFunc(
                 Material.BlendFactor.SRC_ALPHA,
@@ -18,8 +18,14 @@
 package com.google.fpl.liquidfunpaint.renderer;
 
 import com.google.fpl.liquidfunpaint.physics.DrawableParticleSystem;
+import com.google.fpl.liquidfunpaint.physics.ParticleSnapshot;
 import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
+import com.google.fpl.liquidfunpaint.physics.ParticleVertexLayout;
+import com.google.fpl.liquidfunpaint.physics.VertexQuantization;
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
 import com.google.fpl.liquidfunpaint.shader.Material;
+import com.google.fpl.liquidfunpaint.shader.Material.AttributeInfo;
+import com.google.fpl.liquidfunpaint.shader.Material.UniformInfo;
 import com.google.fpl.liquidfunpaint.shader.ParticleMaterial;
 import com.google.fpl.liquidfunpaint.shader.WaterParticleMaterial;
 import com.google.fpl.liquidfunpaint.util.DrawableLayer;
@@ -33,6 +39,12 @@ import android.util.Log;
 
 import org.json.*;
 
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -42,29 +54,96 @@ import javax.microedition.khronos.opengles.GL10;
  * 1) Draws particles to a texture
  * 2) Blurs it out
  * 3) Applies threshold.
+ * Particle systems either each go through these steps in turn, or all
+ * together, see setSharedPasses().
  * This only executes on the GLSurfaceView thread.
  */
 public class ParticleRenderer implements DrawableLayer {
     private static final String TAG = "PtlRenderer";
     public static final String JSON_FILE = "materials/particlerenderer.json";
 
-    // Framebuffer for the particles to render on.
+    // Framebuffer for the particles to render on; with dynamic resolution,
+    // the size it starts from, along the shorter side of the world.
     public static final int FB_SIZE = 256;
 
+    // Particle attributes are interleaved unless read in place, so that
+    // is what the materials are set up for
+    private static final int VERTEX_STRIDE =
+            ParticleVertexLayout.getStride(ParticleVertexLayout.ALL);
+
+    // Shader attribute of every ParticleVertexLayout attribute, indexed by
+    // ParticleVertexLayout.getIndex()
+    private static final String[] ATTRIBUTE_NAMES = {
+            "aPosition", "aVelocity", "aColor", "aWeight"
+    };
+
     private WaterParticleMaterial mWaterParticleMaterial;
+    private AttributeInfo mWaterPositionAttr;
+    private AttributeInfo mWaterPrevPositionAttr;
+    private AttributeInfo mWaterVelocityAttr;
+    private AttributeInfo mWaterColorAttr;
+    private AttributeInfo mWaterWeightAttr;
+    private AttributeInfo mWaterTintAttr;
+    private UniformInfo mWaterTransformUniform;
+    private UniformInfo mWaterInterpolationUniform;
+    private UniformInfo mWaterPositionDecodeUniform;
+    private UniformInfo mWaterVelocityDecodeUniform;
+
     private ParticleMaterial mParticleMaterial;
+    private AttributeInfo mParticlePositionAttr;
+    private AttributeInfo mParticlePrevPositionAttr;
+    private AttributeInfo mParticleColorAttr;
+    private AttributeInfo mParticleTintAttr;
+    private UniformInfo mParticleTransformUniform;
+    private UniformInfo mParticleInterpolationUniform;
+    private UniformInfo mParticlePositionDecodeUniform;
+
     private BlurRenderer mBlurRenderer;
+    // Kept for the blur renderers of later surfaces; see setBlur()
+    private volatile BlurRenderer.Kernel mBlurKernel = BlurRenderer.Kernel.GAUSSIAN;
+    private volatile int mBlurLevels = 1;
     private ScreenRenderer mWaterScreenRenderer;
     private ScreenRenderer mScreenRenderer;
 
+    // Particle vertices, uploaded once per frame for both passes
+    private final ParticleVertexStream mVertexStream = new ParticleVertexStream();
+
+    // Whether all particle systems are drawn through one set of passes;
+    // see setSharedPasses()
+    private volatile boolean mSharedPasses = false;
+    // Vertices of every particle system, when drawn in shared passes
+    private final Map<DrawableParticleSystem, ParticleVertexStream> mSharedVertexStreams =
+            new HashMap<>();
+
+    // Particle systems drawn by the current set of passes, their snapshots
+    // and the streams their vertices were uploaded to
+    private final List<DrawableParticleSystem> mDrawSystems = new ArrayList<>();
+    private final List<ParticleSnapshot> mDrawSnapshots = new ArrayList<>();
+    private final List<ParticleVertexStream> mDrawStreams = new ArrayList<>();
+
     private final RenderSurface[] mRenderSurface = new RenderSurface[2];
+    // Whether the size of mRenderSurface follows the frame time; see
+    // setDynamicResolution()
+    private volatile boolean mDynamicResolution = false;
+    private final ResolutionController mResolutionController =
+            new ResolutionController(FB_SIZE);
     private final float[] mTransformFromTexture = new float[16];
     private final float[] mPerspectiveTransform = new float[16];
+    // Maps snapshot positions to worldspace: x and y scale, x and y offset
+    private final float[] mPositionDecode = new float[4];
+
+    private final PhysicsLoop mPhysicsLoop;
+    private final WorldLock mWorldLock;
 
     private Context mContext;
 
     private String materialFile;
 
+    public ParticleRenderer(PhysicsLoop physicsLoop) {
+        mPhysicsLoop = physicsLoop;
+        mWorldLock = physicsLoop.getWorldLock();
+    }
+
     @Override
     public void init(Context context) {
         mContext = context.getApplicationContext();
@@ -78,44 +157,188 @@ public class ParticleRenderer implements DrawableLayer {
      */
     @Override
     public void onDrawFrame(GL10 gl) {
-        for(DrawableParticleSystem dps : ParticleSystems.getInstance().values())
-            drawParticleSystemToScreen(dps);
+        updateRenderSurfaces();
+
+        ParticleSystems particleSystems = mWorldLock.getParticleSystems();
+        boolean sharedPasses = mSharedPasses;
+        if (sharedPasses) {
+            mDrawSystems.addAll(particleSystems.values());
+            drawParticleSystemsToScreen(true);
+        } else {
+            for (DrawableParticleSystem dps : particleSystems.values()) {
+                mDrawSystems.add(dps);
+                drawParticleSystemsToScreen(false);
+            }
+        }
+
+        deleteUnusedVertexStreams(particleSystems, sharedPasses);
     }
 
-    private void drawParticleSystemToScreen(DrawableParticleSystem dps) {
-        dps.onDrawFrame();
+    /**
+     * Size the render surfaces for this frame: FB_SIZE square, or with
+     * dynamic resolution, the size the controller picks along the shorter
+     * side of the world, in the world's aspect. Particles then cover as many
+     * pixels along either axis.
+     */
+    private void updateRenderSurfaces() {
+        int size = FB_SIZE;
+        int width = FB_SIZE;
+        int height = FB_SIZE;
+        if (mDynamicResolution) {
+            mResolutionController.onFrame(System.nanoTime());
+            size = mResolutionController.getSize();
+            float worldWidth = mWorldLock.sRenderWorldWidth;
+            float worldHeight = mWorldLock.sRenderWorldHeight;
+            float shorterSide = Math.min(worldWidth, worldHeight);
+            width = Math.round(size * worldWidth / shorterSide);
+            height = Math.round(size * worldHeight / shorterSide);
+        }
 
-        // Draw the particles
-        drawParticles(dps);
+        if (width != mRenderSurface[0].getWidth() ||
+                height != mRenderSurface[0].getHeight()) {
+            resizeRenderSurfaces(width, height, size);
+        }
+    }
 
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
-        GLES20.glViewport(
-                0, 0,
-                PhysicsLoop.getInstance().sScreenWidth,
-                PhysicsLoop.getInstance().sScreenHeight);
+    /**
+     * Replace the render surfaces with ones of a new size. Only done before
+     * anything is drawn to them in a frame, so no pass reads a deleted
+     * surface; the copies to screen are pointed at the new ones, and the
+     * blur resizes its own surfaces to match.
+     *
+     * @param size Size of the surfaces along the shorter side of the world,
+     *             which particle sizes are relative to
+     */
+    private void resizeRenderSurfaces(int width, int height, int size) {
+        for (int i = 0; i < mRenderSurface.length; i++) {
+            mRenderSurface[i].delete();
+            mRenderSurface[i] = new RenderSurface(width, height);
+            mRenderSurface[i].setClearColor(Color.argb(0, 255, 255, 255));
+        }
+
+        mWaterParticleMaterial.setSurfaceSize(size);
+        mParticleMaterial.setSurfaceSize(size);
+        mWaterScreenRenderer.setTexture(mRenderSurface[0].getTexture());
+        mScreenRenderer.setTexture(mRenderSurface[1].getTexture());
+    }
+
+    /**
+     * Draw the particle systems in mDrawSystems through one set of passes,
+     * and clear the list. Passes without particles to draw are skipped,
+     * along with their blur and copy to screen, so empty systems cost no
+     * GPU work.
+     */
+    private void drawParticleSystemsToScreen(boolean sharedPasses) {
+        boolean hasWater = false;
+        boolean hasNonWater = false;
+        try {
+            for (int i = 0; i < mDrawSystems.size(); i++) {
+                DrawableParticleSystem dps = mDrawSystems.get(i);
+                ParticleSnapshot snapshot = dps.beginRender();
+                mDrawSnapshots.add(snapshot);
+
+                boolean water = hasDrawRanges(snapshot, true);
+                boolean nonWater = hasDrawRanges(snapshot, false);
+                ParticleVertexStream vertexStream = null;
+                if (water || nonWater) {
+                    vertexStream = getVertexStream(dps, sharedPasses);
+                    vertexStream.upload(snapshot);
+                }
+                mDrawStreams.add(vertexStream);
+                hasWater |= water;
+                hasNonWater |= nonWater;
+            }
+
+            if (!hasWater && !hasNonWater)
+                return;
+
+            GLES20.glClearColor(0, 0, 0, 0);
+
+            // Draw the particles
+            float interpolation = mWorldLock.getInterpolationAlpha();
+            if (hasWater)
+                drawWaterParticles(interpolation);
+            if (hasNonWater)
+                drawNonWaterParticles(interpolation);
+        } finally {
+            for (int i = 0; i < mDrawSnapshots.size(); i++)
+                mDrawSystems.get(i).endRender();
+            mDrawSystems.clear();
+            mDrawSnapshots.clear();
+            mDrawStreams.clear();
+        }
+
+        RenderSurface.bindScreen(
+                mPhysicsLoop.sScreenWidth,
+                mPhysicsLoop.sScreenHeight);
 
         // Copy the water particles to screen
-        mWaterScreenRenderer.draw(mTransformFromTexture);
+        if (hasWater)
+            mWaterScreenRenderer.draw(mTransformFromTexture);
 
         // Copy the other particles to screen
-        mScreenRenderer.draw(mTransformFromTexture);
+        if (hasNonWater)
+            mScreenRenderer.draw(mTransformFromTexture);
     }
 
-    private void drawParticles(DrawableParticleSystem dps) {
-        drawWaterParticles(dps);
-        drawNonWaterParticles(dps);
+    /**
+     * Whether a snapshot has particles to draw in the water pass, or in the
+     * other one.
+     */
+    private static boolean hasDrawRanges(ParticleSnapshot snapshot, boolean water) {
+        for (int i = 0; i < snapshot.getDrawRangeCount(); i++) {
+            if (snapshot.isWaterDrawRange(i) == water)
+                return true;
+        }
+        return false;
+    }
+
+    /**
+     * Stream for the vertices of a particle system. Shared passes draw all
+     * systems after uploading them, so each needs its own; otherwise they
+     * take turns with the one stream.
+     */
+    private ParticleVertexStream getVertexStream(DrawableParticleSystem dps,
+                                                 boolean sharedPasses) {
+        if (!sharedPasses)
+            return mVertexStream;
+
+        ParticleVertexStream vertexStream = mSharedVertexStreams.get(dps);
+        if (vertexStream == null) {
+            vertexStream = new ParticleVertexStream();
+            vertexStream.onSurfaceCreated();
+            mSharedVertexStreams.put(dps, vertexStream);
+        }
+        return vertexStream;
     }
 
     /**
-     * Draw all the water particles, and save all the other particle groups
-     * into a list. We draw these to temp mRenderSurface[0].
-     * @param dps
+     * Free the streams of particle systems deleted since, or all of them
+     * once shared passes are turned off.
      */
-    private void drawWaterParticles(DrawableParticleSystem dps) {
+    private void deleteUnusedVertexStreams(ParticleSystems particleSystems,
+                                           boolean sharedPasses) {
+        Iterator<Map.Entry<DrawableParticleSystem, ParticleVertexStream>> it =
+                mSharedVertexStreams.entrySet().iterator();
+        while (it.hasNext()) {
+            Map.Entry<DrawableParticleSystem, ParticleVertexStream> entry = it.next();
+            if (!sharedPasses || !particleSystems.containsValue(entry.getKey())) {
+                entry.getValue().delete();
+                it.remove();
+            }
+        }
+    }
+
+    /**
+     * Draw the water particles of all systems being drawn to temp
+     * mRenderSurface[0], and blur them.
+     * @param interpolation Blend factor between previous and current step
+     */
+    private void drawWaterParticles(float interpolation) {
         // Draw all water particles to temp render surface 0
         mRenderSurface[0].beginRender(GLES20.GL_COLOR_BUFFER_BIT);
 
-        dps.renderWaterParticles(mWaterParticleMaterial, mPerspectiveTransform);
+        renderWaterParticles(interpolation);
 
         mRenderSurface[0].endRender();
 
@@ -123,28 +346,240 @@ public class ParticleRenderer implements DrawableLayer {
     }
 
     /**
-     * Draw all saved ParticleGroups to temp mRenderSurface[1].
-     * @param dps
+     * Draw all other particles to temp mRenderSurface[1], and blur them.
+     * @param interpolation Blend factor between previous and current step
      */
-    private void drawNonWaterParticles(DrawableParticleSystem dps) {
+    private void drawNonWaterParticles(float interpolation) {
         // Draw all non-water particles to temp render surface 1
         mRenderSurface[1].beginRender(GLES20.GL_COLOR_BUFFER_BIT);
 
-        dps.renderNonWaterParticles(mParticleMaterial, mPerspectiveTransform);
+        renderNonWaterParticles(interpolation);
 
         mRenderSurface[1].endRender();
 
         mBlurRenderer.draw(mRenderSurface[1].getTexture(), mRenderSurface[1]);
     }
 
+    /**
+     * @param interpolation How far to blend from the previous step's particle
+     *                      positions (0) to the latest ones (1).
+     */
+    private void renderWaterParticles(float interpolation) {
+        mWaterParticleMaterial.beginRender();
+
+        // Set uniforms
+        GLES20.glUniformMatrix4fv(
+                mWaterTransformUniform.getLocation(),
+                1, false, mPerspectiveTransform, 0);
+        GLES20.glUniform1f(
+                mWaterInterpolationUniform.getLocation(),
+                interpolation);
+
+        for (int system = 0; system < mDrawSnapshots.size(); system++) {
+            ParticleSnapshot snapshot = mDrawSnapshots.get(system);
+            ParticleVertexStream vertexStream = mDrawStreams.get(system);
+            if (!hasDrawRanges(snapshot, true))
+                continue;
+
+            // Set attribute arrays
+            vertexStream.bind();
+            vertexStream.setAttribute(mWaterParticleMaterial, mWaterPositionAttr,
+                    ParticleVertexLayout.POSITION);
+            vertexStream.setPreviousPositionAttribute(
+                    mWaterParticleMaterial, mWaterPrevPositionAttr);
+            vertexStream.setAttribute(mWaterParticleMaterial, mWaterVelocityAttr,
+                    ParticleVertexLayout.VELOCITY);
+            vertexStream.setAttribute(mWaterParticleMaterial, mWaterColorAttr,
+                    ParticleVertexLayout.COLOR);
+            vertexStream.setAttribute(mWaterParticleMaterial, mWaterWeightAttr,
+                    ParticleVertexLayout.WEIGHT);
+            setTint(mWaterParticleMaterial, mWaterTintAttr, mDrawSystems.get(system));
+
+            // Set uniforms of this snapshot
+            setPositionDecode(mWaterPositionDecodeUniform, snapshot);
+            VertexQuantization quantization = snapshot.getQuantization();
+            GLES20.glUniform1f(
+                    mWaterVelocityDecodeUniform.getLocation(),
+                    quantization != null ? quantization.getVelocityDecode() : 1);
+
+            // Go through each range of particle groups
+            for (int i = 0; i < snapshot.getDrawRangeCount(); i++) {
+                // Only draw water particles in this pass
+                if (snapshot.isWaterDrawRange(i)) {
+                    drawParticleRange(snapshot, i);
+                }
+            }
+        }
+
+        mVertexStream.unbind();
+        mWaterParticleMaterial.endRender();
+    }
+
+    private void renderNonWaterParticles(float interpolation) {
+        mParticleMaterial.beginRender();
+
+        // Set uniforms
+        GLES20.glUniformMatrix4fv(
+                mParticleTransformUniform.getLocation(),
+                1, false, mPerspectiveTransform, 0);
+        GLES20.glUniform1f(
+                mParticleInterpolationUniform.getLocation(),
+                interpolation);
+
+        for (int system = 0; system < mDrawSnapshots.size(); system++) {
+            ParticleSnapshot snapshot = mDrawSnapshots.get(system);
+            ParticleVertexStream vertexStream = mDrawStreams.get(system);
+            if (!hasDrawRanges(snapshot, false))
+                continue;
+
+            // Set attribute arrays
+            vertexStream.bind();
+            vertexStream.setAttribute(mParticleMaterial, mParticlePositionAttr,
+                    ParticleVertexLayout.POSITION);
+            vertexStream.setPreviousPositionAttribute(
+                    mParticleMaterial, mParticlePrevPositionAttr);
+            vertexStream.setAttribute(mParticleMaterial, mParticleColorAttr,
+                    ParticleVertexLayout.COLOR);
+            setTint(mParticleMaterial, mParticleTintAttr, mDrawSystems.get(system));
+
+            setPositionDecode(mParticlePositionDecodeUniform, snapshot);
+
+            // Go through all the other ranges of particle groups
+            for (int i = 0; i < snapshot.getDrawRangeCount(); i++) {
+                if (!snapshot.isWaterDrawRange(i)) {
+                    drawParticleRange(snapshot, i);
+                }
+            }
+        }
+
+        mVertexStream.unbind();
+        mParticleMaterial.endRender();
+    }
+
+    /**
+     * Pass the tint of a particle system to the material's shader, as a
+     * constant vertex attribute.
+     */
+    private static void setTint(Material material, AttributeInfo tintAttr,
+                                DrawableParticleSystem dps) {
+        int tint = dps.getTint();
+        material.setVertexAttributeValue(tintAttr,
+                Color.red(tint) / 255f, Color.green(tint) / 255f,
+                Color.blue(tint) / 255f, Color.alpha(tint) / 255f);
+    }
+
+    /**
+     * Let the material's shader map the snapshot's positions to worldspace,
+     * which they already are in unless quantized.
+     */
+    private void setPositionDecode(UniformInfo positionDecode, ParticleSnapshot snapshot) {
+        VertexQuantization quantization = snapshot.getQuantization();
+        if (quantization != null) {
+            quantization.getPositionDecode(mPositionDecode);
+        } else {
+            mPositionDecode[0] = 1;
+            mPositionDecode[1] = 1;
+            mPositionDecode[2] = 0;
+            mPositionDecode[3] = 0;
+        }
+        GLES20.glUniform4fv(
+                positionDecode.getLocation(), 1, mPositionDecode, 0);
+    }
+
+    /**
+     * Issue the correct draw call for the snapshot draw range that is passed
+     * in.
+     */
+    private static void drawParticleRange(ParticleSnapshot snapshot, int range) {
+        // Get the buffer offsets
+        int particleCount = snapshot.getDrawRangeParticleCount(range);
+        int instanceOffset = snapshot.getDrawRangeStart(range);
+
+        // Draw!
+        GLES20.glDrawArrays(
+                GLES20.GL_POINTS, instanceOffset, particleCount);
+    }
+
+    /**
+     * Draw the particles of all particle systems into the same pair of
+     * surfaces, then blur and copy them to screen once, rather than going
+     * through all passes for every system. The cost of the full-screen
+     * passes then no longer grows with the number of systems, but systems
+     * are composited together rather than on top of each other; use
+     * DrawableParticleSystem.setTint() to set them apart.
+     */
+    public void setSharedPasses(boolean sharedPasses) {
+        mSharedPasses = sharedPasses;
+    }
+
+    public boolean isSharedPasses() {
+        return mSharedPasses;
+    }
+
+    /**
+     * Size the particle surfaces for a target frame rate, rather than
+     * keeping them at FB_SIZE: smaller while frames run late, and larger,
+     * up to the screen's resolution, while they keep up. See
+     * ResolutionController.
+     */
+    public void setDynamicResolution(boolean dynamicResolution, int targetFps) {
+        mResolutionController.setTargetFrameRate(targetFps);
+        mDynamicResolution = dynamicResolution;
+    }
+
+    public boolean isDynamicResolution() {
+        return mDynamicResolution;
+    }
+
+    /**
+     * Size the particles were last drawn at, e.g. for logging.
+     */
+    public int getSurfaceWidth() {
+        return mRenderSurface[0] != null ? mRenderSurface[0].getWidth() : 0;
+    }
+
+    public int getSurfaceHeight() {
+        return mRenderSurface[0] != null ? mRenderSurface[0].getHeight() : 0;
+    }
+
+    /**
+     * Blur the particle surfaces with a kernel, and for DUAL_FILTER through a
+     * number of levels: fewer for low-end devices, more for a smoother edge
+     * on large screens. See BlurRenderer.
+     */
+    public void setBlur(BlurRenderer.Kernel kernel, int levels) {
+        if (levels < 1 || levels > BlurRenderer.MAX_LEVELS) {
+            throw new IllegalArgumentException("Invalid blur levels " + levels);
+        }
+        mBlurKernel = kernel;
+        mBlurLevels = levels;
+
+        BlurRenderer blurRenderer = mBlurRenderer;
+        if (blurRenderer != null) {
+            blurRenderer.setKernel(kernel);
+            blurRenderer.setLevels(levels);
+        }
+    }
+
     @Override
     public void onSurfaceChanged(GL10 gl, int width, int height) {
-        RenderHelper.createTransformMatrix(mPerspectiveTransform, mTransformFromTexture, height, width);
+        RenderHelper.createTransformMatrix(mPerspectiveTransform, mTransformFromTexture, height, width,
+                mWorldLock.sRenderWorldWidth, mWorldLock.sRenderWorldHeight);
+
+        // No sharper than the screen can show
+        mResolutionController.setMaxSize(Math.min(width, height));
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
-        // Create the render surfaces
+        mVertexStream.onSurfaceCreated();
+        // Their buffers went with the old context
+        mSharedVertexStreams.clear();
+
+        // Create the render surfaces. The old ones went with the old
+        // context; they are created at FB_SIZE, which the materials start
+        // from, and resized on the first frame if need be.
+        mResolutionController.restart();
         for (int i = 0; i < mRenderSurface.length; i++) {
             mRenderSurface[i] = new RenderSurface(FB_SIZE, FB_SIZE);
             mRenderSurface[i].setClearColor(Color.argb(0, 255, 255, 255));
@@ -152,6 +587,8 @@ public class ParticleRenderer implements DrawableLayer {
 
         // Create the blur renderer
         mBlurRenderer = new BlurRenderer();
+        mBlurRenderer.setKernel(mBlurKernel);
+        mBlurRenderer.setLevels(mBlurLevels);
 
         try {
             JSONObject json = new JSONObject(materialFile);
@@ -160,6 +597,11 @@ public class ParticleRenderer implements DrawableLayer {
 
             initializeNonWaterParticleMaterial(json);
 
+            // Only have the attributes the shaders read captured
+            mWorldLock.getParticleSystems().setVertexLayout(
+                    getVertexLayout(mWaterParticleMaterial) |
+                    getVertexLayout(mParticleMaterial));
+
             // Scrolling texture when we copy water particles from FBO to screen
             mWaterScreenRenderer = new ScreenRenderer(
                     json.getJSONObject("waterParticleToScreen"),
@@ -175,51 +617,81 @@ public class ParticleRenderer implements DrawableLayer {
         }
     }
 
+    /**
+     * The ParticleVertexLayout attributes a material's shader reads.
+     */
+    private static int getVertexLayout(Material material) {
+        int layout = 0;
+        for (int attribute = ParticleVertexLayout.POSITION;
+             attribute <= ParticleVertexLayout.WEIGHT; attribute <<= 1) {
+            if (material.hasAttribute(ATTRIBUTE_NAMES[ParticleVertexLayout.getIndex(attribute)]))
+                layout |= attribute;
+        }
+        return layout;
+    }
+
     private void initializeWaterParticleMaterial(JSONObject json) throws JSONException {
         // Water particle material. We are utilizing the position and color
         // buffers returned from LiquidFun directly.
         mWaterParticleMaterial = new WaterParticleMaterial(
-                mContext, json.getJSONObject("waterParticlePointSprite"));
+                mContext, json.getJSONObject("waterParticlePointSprite"), mWorldLock);
 
         // Initialize attributes specific to this material
-        mWaterParticleMaterial.addAttribute(
+        mWaterPositionAttr = mWaterParticleMaterial.addAttribute(
                 "aPosition", 2, Material.AttrComponentType.FLOAT,
-                4, false, 0);
-        mWaterParticleMaterial.addAttribute(
+                4, false, VERTEX_STRIDE);
+        mWaterPrevPositionAttr = mWaterParticleMaterial.addAttribute(
+                "aPrevPosition", 2, Material.AttrComponentType.FLOAT,
+                4, false, VERTEX_STRIDE);
+        mWaterVelocityAttr = mWaterParticleMaterial.addAttribute(
                 "aVelocity", 2, Material.AttrComponentType.FLOAT,
-                4, false, 0);
-        mWaterParticleMaterial.addAttribute(
+                4, false, VERTEX_STRIDE);
+        mWaterColorAttr = mWaterParticleMaterial.addAttribute(
                 "aColor", 4, Material.AttrComponentType.UNSIGNED_BYTE,
-                1, true, 0);
-        mWaterParticleMaterial.addAttribute(
+                1, true, VERTEX_STRIDE);
+        mWaterWeightAttr = mWaterParticleMaterial.addAttribute(
                 "aWeight", 1, Material.AttrComponentType.FLOAT,
-                1, false, 0);
+                1, false, VERTEX_STRIDE);
+        mWaterTintAttr = mWaterParticleMaterial.addConstantAttribute("aTint", 4);
         mWaterParticleMaterial.setBlendFunc(
                 Material.BlendFactor.ONE,
                 Material.BlendFactor.ONE_MINUS_SRC_ALPHA);
+
+        mWaterTransformUniform = mWaterParticleMaterial.getUniform("uTransform");
+        mWaterInterpolationUniform = mWaterParticleMaterial.getUniform("uInterpolation");
+        mWaterPositionDecodeUniform = mWaterParticleMaterial.getUniform("uPositionDecode");
+        mWaterVelocityDecodeUniform = mWaterParticleMaterial.getUniform("uVelocityDecode");
     }
 
     private void initializeNonWaterParticleMaterial(JSONObject json) throws JSONException {
         // Non-water particle material. We are utilizing the position and
         // color buffers returned from LiquidFun directly.
         mParticleMaterial = new ParticleMaterial(
-                mContext, json.getJSONObject("otherParticlePointSprite"));
+                mContext, json.getJSONObject("otherParticlePointSprite"), mWorldLock);
 
         // Initialize attributes specific to this material
-        mParticleMaterial.addAttribute(
+        mParticlePositionAttr = mParticleMaterial.addAttribute(
                 "aPosition", 2, Material.AttrComponentType.FLOAT,
-                4, false, 0);
-        mParticleMaterial.addAttribute(
+                4, false, VERTEX_STRIDE);
+        mParticlePrevPositionAttr = mParticleMaterial.addAttribute(
+                "aPrevPosition", 2, Material.AttrComponentType.FLOAT,
+                4, false, VERTEX_STRIDE);
+        mParticleColorAttr = mParticleMaterial.addAttribute(
                 "aColor", 4, Material.AttrComponentType.UNSIGNED_BYTE,
-                1, true, 0);
+                1, true, VERTEX_STRIDE);
+        mParticleTintAttr = mParticleMaterial.addConstantAttribute("aTint", 4);
         mParticleMaterial.setBlendFunc(
                 Material.BlendFactor.ONE,
                 Material.BlendFactor.ONE_MINUS_SRC_ALPHA);
+
+        mParticleTransformUniform = mParticleMaterial.getUniform("uTransform");
+        mParticleInterpolationUniform = mParticleMaterial.getUniform("uInterpolation");
+        mParticlePositionDecodeUniform = mParticleMaterial.getUniform("uPositionDecode");
     }
 
     @Override
     public void reset() {
-        for(DrawableParticleSystem dps : ParticleSystems.getInstance().values())
+        for(DrawableParticleSystem dps : mWorldLock.getParticleSystems().values())
             dps.reset();
     }
 
@@ -0,0 +1,204 @@
+package com.google.fpl.liquidfunpaint.renderer;
+
+import android.opengl.GLES20;
+
+import com.google.fpl.liquidfunpaint.physics.ParticleSnapshot;
+import com.google.fpl.liquidfunpaint.physics.ParticleVertexLayout;
+import com.google.fpl.liquidfunpaint.shader.GlState;
+import com.google.fpl.liquidfunpaint.shader.Material;
+import com.google.fpl.liquidfunpaint.shader.Material.AttributeInfo;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Streams the particle vertices of a snapshot to GL vertex buffer objects.
+ * Every frame uploads them once, and all passes and group draws then read
+ * the same buffer, where client-side arrays would be copied by the driver
+ * on each draw call.
+ *
+ * Uploads cycle through a small ring of buffers, and orphan the storage of
+ * the one they reuse, so they never wait for draws still reading it.
+ * Positions and velocities of QUANTIZED snapshots are uploaded as they are,
+ * and shaders decode them; see VertexQuantization.
+ * This only executes on the GL thread.
+ */
+public class ParticleVertexStream {
+
+    private static final int RING_SIZE = 3;
+
+    private final int[] mBufferIds = new int[RING_SIZE];
+    private final int[] mBufferSizes = new int[RING_SIZE];
+    private int mCurrent = 0;
+
+    // Where the last upload put every attribute, indexed by
+    // ParticleVertexLayout.getIndex()
+    private final int[] mAttributeOffsets = new int[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private final int[] mAttributeStrides = new int[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private int mPreviousPositionOffset;
+    private int mPreviousPositionStride;
+    private int mLayout;
+
+    // Snapshot buffers uploaded so far this upload, and where they went.
+    // Interleaved attributes share a buffer, which is only uploaded once.
+    private final ByteBuffer[] mUploaded = new ByteBuffer[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private final int[] mUploadedOffsets = new int[ParticleVertexLayout.ATTRIBUTE_COUNT];
+    private int mUploadedCount;
+
+    /**
+     * Create the buffers. Any buffers from before belong to a lost context.
+     */
+    public void onSurfaceCreated() {
+        GLES20.glGenBuffers(RING_SIZE, mBufferIds, 0);
+        for (int i = 0; i < RING_SIZE; i++)
+            mBufferSizes[i] = 0;
+        mCurrent = 0;
+    }
+
+    /**
+     * Free the buffers. The stream is not used afterwards.
+     */
+    public void delete() {
+        GLES20.glDeleteBuffers(RING_SIZE, mBufferIds, 0);
+        for (int bufferId : mBufferIds)
+            GlState.get().onArrayBufferDeleted(bufferId);
+    }
+
+    /**
+     * Upload the vertices of a snapshot to the next buffer of the ring, for
+     * all draws until the next upload. The caller must hold the snapshot.
+     */
+    public void upload(ParticleSnapshot snapshot) {
+        mCurrent = (mCurrent + 1) % RING_SIZE;
+        GlState.get().bindArrayBuffer(mBufferIds[mCurrent]);
+
+        int particleCount = snapshot.getParticleCount();
+
+        // Lay out every distinct source buffer one after the other
+        mLayout = snapshot.getLayout();
+        mUploadedCount = 0;
+        int size = 0;
+        for (int i = 0; i < ParticleVertexLayout.ATTRIBUTE_COUNT; i++) {
+            int attribute = 1 << i;
+            if ((mLayout & attribute) == 0)
+                continue;
+
+            ByteBuffer buffer = snapshot.getAttributeBuffer(attribute);
+            int stride = snapshot.getAttributeStride(attribute);
+
+            int base = findUploaded(buffer);
+            if (base < 0) {
+                base = size;
+                mUploaded[mUploadedCount] = buffer;
+                mUploadedOffsets[mUploadedCount] = base;
+                ++mUploadedCount;
+                size += stride * particleCount;
+            }
+
+            mAttributeOffsets[i] = base + snapshot.getAttributeOffset(attribute);
+            mAttributeStrides[i] = stride;
+        }
+        int previousBase = size;
+        mPreviousPositionOffset = previousBase + snapshot.getPreviousPositionOffset();
+        mPreviousPositionStride = snapshot.getPreviousPositionStride();
+        size += mPreviousPositionStride * particleCount;
+
+        // Orphan the old storage rather than wait for draws still using it
+        mBufferSizes[mCurrent] = Math.max(size, mBufferSizes[mCurrent]);
+        GLES20.glBufferData(GLES20.GL_ARRAY_BUFFER, mBufferSizes[mCurrent], null,
+                GLES20.GL_STREAM_DRAW);
+
+        if (particleCount > 0) {
+            for (int i = 0; i < mUploadedCount; i++) {
+                int attribute = findAttribute(snapshot, mUploaded[i]);
+                uploadRange(mUploaded[i], mUploadedOffsets[i],
+                        snapshot.getAttributeStride(attribute) * particleCount);
+            }
+            uploadRange(snapshot.getPreviousPositionBuffer(), previousBase,
+                    mPreviousPositionStride * particleCount);
+        }
+
+        unbind();
+    }
+
+    private int findUploaded(ByteBuffer buffer) {
+        for (int i = 0; i < mUploadedCount; i++) {
+            if (mUploaded[i] == buffer)
+                return mUploadedOffsets[i];
+        }
+        return -1;
+    }
+
+    private static int findAttribute(ParticleSnapshot snapshot, ByteBuffer buffer) {
+        int attribute = ParticleVertexLayout.POSITION;
+        while ((snapshot.getLayout() & attribute) == 0 ||
+                snapshot.getAttributeBuffer(attribute) != buffer)
+            attribute <<= 1;
+        return attribute;
+    }
+
+    private static void uploadRange(ByteBuffer source, int offset, int size) {
+        source.position(0);
+        GLES20.glBufferSubData(GLES20.GL_ARRAY_BUFFER, offset, size, source);
+    }
+
+    /**
+     * Bind the buffer of the last upload, for setAttribute() and drawing.
+     */
+    public void bind() {
+        GlState.get().bindArrayBuffer(mBufferIds[mCurrent]);
+    }
+
+    /**
+     * Point a material attribute at a ParticleVertexLayout attribute of the
+     * last upload. The buffer must be bound. Attributes the upload or the
+     * shader do not have are left alone.
+     */
+    public void setAttribute(Material material, AttributeInfo attr, int attribute) {
+        if ((mLayout & attribute) == 0 || attr == null || !attr.isActive())
+            return;
+
+        int index = ParticleVertexLayout.getIndex(attribute);
+        if (attribute == ParticleVertexLayout.POSITION ||
+                attribute == ParticleVertexLayout.VELOCITY) {
+            setVectorAttribute(material, attr, attribute,
+                    mAttributeOffsets[index], mAttributeStrides[index]);
+        } else {
+            material.setVertexAttributeOffset(
+                    attr, mAttributeOffsets[index], mAttributeStrides[index]);
+        }
+    }
+
+    public void setPreviousPositionAttribute(Material material, AttributeInfo attr) {
+        if (attr == null || !attr.isActive())
+            return;
+
+        setVectorAttribute(material, attr, ParticleVertexLayout.POSITION,
+                mPreviousPositionOffset, mPreviousPositionStride);
+    }
+
+    /**
+     * Positions and velocities are floats, or normalized 16-bit values when
+     * quantized: unsigned for positions, signed for velocities.
+     */
+    private void setVectorAttribute(Material material, AttributeInfo attr, int attribute,
+                                    int offset, int stride) {
+        if ((mLayout & ParticleVertexLayout.QUANTIZED) == 0) {
+            material.setVertexAttributeOffset(
+                    attr, Material.AttrComponentType.FLOAT, false, offset, stride);
+        } else if (attribute == ParticleVertexLayout.VELOCITY) {
+            material.setVertexAttributeOffset(
+                    attr, Material.AttrComponentType.SHORT, true, offset, stride);
+        } else {
+            material.setVertexAttributeOffset(
+                    attr, Material.AttrComponentType.UNSIGNED_SHORT, true, offset, stride);
+        }
+    }
+
+    /**
+     * Go back to client-side arrays, which the other renderers use.
+     * Must be called before anything else is drawn.
+     */
+    public void unbind() {
+        GlState.get().bindArrayBuffer(0);
+    }
+}
@@ -16,11 +16,12 @@
  */
 package com.google.fpl.liquidfunpaint.renderer;
 
-import com.google.fpl.liquidfunpaint.physics.SolidWorld;
-import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
+import com.google.fpl.liquidfunpaint.physics.PhysicsWorkerPool;
 import com.google.fpl.liquidfunpaint.physics.WorldLock;
+import com.google.fpl.liquidfunpaint.shader.GlState;
 import com.google.fpl.liquidfunpaint.shader.ShaderProgram;
 import com.google.fpl.liquidfunpaint.shader.Texture;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
 import com.google.fpl.liquidfunpaint.util.DrawableLayer;
 import com.google.fpl.liquidfunpaint.util.FileHelper;
 import com.google.fpl.liquidfunpaint.util.Observable;
@@ -34,9 +35,6 @@ import android.util.Log;
 import org.json.JSONException;
 import org.json.JSONObject;
 
-import java.util.Queue;
-import java.util.concurrent.ConcurrentLinkedQueue;
-
 import javax.microedition.khronos.egl.EGLConfig;
 import javax.microedition.khronos.opengles.GL10;
 
@@ -46,10 +44,19 @@ import javax.microedition.khronos.opengles.GL10;
  * This also contains the pointer to the LiquidFun world. The convention for
  * thread-safety is to called acquireWorld to obtain a thread-safe world
  * pointer, and releaseWorld when you are done with the object.
+ *
+ * By default the world is stepped on the GL thread before each frame. With
+ * setThreadedPhysics(true) the PhysicsWorkerPool steps it instead, and the GL
+ * thread only draws the latest published snapshots.
+ *
+ * When stepping on the GL thread, particles are drawn straight from the
+ * particle system's buffers rather than from copies, holding the WorldLock
+ * while they are drawn.
+ *
+ * Every view creates its own PhysicsLoop, which owns a separate world.
  */
 public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
     // Private constants
-    private static final PhysicsLoop _instance = new PhysicsLoop();
     public static final boolean DEBUG_DRAW = false;
 
     private static final String PAPER_MATERIAL_NAME = "paper";
@@ -71,12 +78,21 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
     // PhysicsLoop class owns all Box2D objects, for thread-safety
     // Variables for thread synchronization
     private volatile boolean mSimulation = false;
+    private volatile boolean mThreadedPhysics = false;
+    private boolean mSurfaceReady = false;
+    private boolean mSteppedByPool = false;
+    // Whether dispose() freed the world; see reset()
+    private volatile boolean mDisposed = false;
+    // Whether particles are drawn from the particle buffers in place.
+    // Only used on the GL thread.
+    private boolean mDirectBuffers = false;
 
 
     private ParticleRenderer mParticleRenderer;
-    private SolidWorld mSolidWorld;
+    private SolidWorldRenderer mSolidWorldRenderer;
+    private final TextureRenderer mTextureRenderer = new TextureRenderer();
 
-    WorldLock mWorldLock;
+    final WorldLock mWorldLock = new WorldLock();
 
     private Texture mPaperTexture;
 
@@ -93,25 +109,21 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
         Matrix.setIdentityM(MAT4X4_IDENTITY, 0);
     }
 
-    private PhysicsLoop() {
-        mWorldLock = WorldLock.getInstance();
-    }
-
-    public static PhysicsLoop getInstance() {
-        return _instance;
+    public WorldLock getWorldLock() {
+        return mWorldLock;
     }
 
     @Override
     public void init(Context context) {
         mContext = context;
 
-        mParticleRenderer = new ParticleRenderer();
+        mParticleRenderer = new ParticleRenderer(this);
         mParticleRenderer.init(context);
-        mSolidWorld = SolidWorld.getInstance();
-        mSolidWorld.init(context);
+        mSolidWorldRenderer = new SolidWorldRenderer(mWorldLock, mTextureRenderer);
+        mSolidWorldRenderer.init(context);
 
         if (DEBUG_DRAW) {
-            mDebugRenderer = new DebugRenderer();
+            mDebugRenderer = new DebugRenderer(this);
             mDebugRenderer.init(context);
         }
 
@@ -130,9 +142,10 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
         mWorldLock.lock();
         try {
             mWorldLock.resetWorld();
+            mDisposed = false;
 
             mParticleRenderer.reset();
-            mSolidWorld.reset();
+            mSolidWorldRenderer.reset();
 
             if (DEBUG_DRAW) {
                 mDebugRenderer.reset();
@@ -142,45 +155,112 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
         } finally {
             mWorldLock.unlock();
         }
+
+        // Buffers of the old particle systems are reused by the new ones
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, DirectBufferPool.getInstance().toString());
+        }
+    }
+
+    /**
+     * Free the world and give all buffers back to the DirectBufferPool, once
+     * the view is detached and no longer draws. The world is no longer
+     * stepped, by the GL thread or the worker pool, until reset().
+     */
+    public void dispose() {
+        synchronized (this) {
+            mSurfaceReady = false;
+        }
+        updatePhysicsThread();
+
+        mWorldLock.lock();
+        try {
+            mWorldLock.dispose();
+            mDisposed = true;
+        } finally {
+            mWorldLock.unlock();
+        }
+        mTextureRenderer.release();
+
+        if (BuildConfig.DEBUG) {
+            Log.d(TAG, DirectBufferPool.getInstance().toString());
+        }
+    }
+
+    public boolean isDisposed() {
+        return mDisposed;
     }
 
     @Override
     public void onDrawFrame(GL10 gl) {
-        if (mSimulation) {
+        if (mSimulation && !mDisposed) {
+            GlState.get().beginFrame();
 
             setChanged();
             notifyObservers();
 
+            RenderSurface.bindScreen(sScreenWidth, sScreenHeight);
             GLES20.glClearColor(1, 1, 1, 1);
             GLES20.glClear(GLES20.GL_COLOR_BUFFER_BIT);
 
             // Draw particles
             showFrameRate();
 
-            mWorldLock.lock();
-
-            try {
+            boolean threaded = mThreadedPhysics;
+            updateDirectBuffers(!threaded);
 
-                drawBackgroundTexture();
+            if (!threaded) {
+                mWorldLock.advanceWorld();
+            }
 
-                mWorldLock.stepWorld();
+            // Everything below draws from published snapshots, so the world
+            // lock is not needed, except for particles read in place.
+            drawBackgroundTexture();
 
+            if (mDirectBuffers) {
+                mWorldLock.lock();
+                try {
+                    mParticleRenderer.onDrawFrame(gl);
+                } finally {
+                    mWorldLock.unlock();
+                }
+            } else {
                 mParticleRenderer.onDrawFrame(gl);
+            }
 
-                mSolidWorld.onDrawFrame(gl);
+            mSolidWorldRenderer.onDrawFrame(gl);
 
-                if (DEBUG_DRAW) {
+            if (DEBUG_DRAW) {
+                mWorldLock.lock();
+                try {
                     mDebugRenderer.onDrawFrame(gl);
+                } finally {
+                    mWorldLock.unlock();
                 }
-            } finally {
-                mWorldLock.unlock();
             }
+        }
+    }
 
+    /**
+     * Switch between drawing particles in place and from copies. Only done
+     * here on the GL thread, so a frame never draws from native memory
+     * without the WorldLock.
+     */
+    private void updateDirectBuffers(boolean directBuffers) {
+        if (directBuffers == mDirectBuffers)
+            return;
+
+        mWorldLock.lock();
+        try {
+            mWorldLock.getParticleSystems().setDirectBuffers(directBuffers);
+        } finally {
+            mWorldLock.unlock();
         }
+        mDirectBuffers = directBuffers;
     }
 
     private void drawBackgroundTexture() {
-        TextureRenderer.getInstance().drawTexture(
+        mTextureRenderer.drawTexture(
                 mPaperTexture, PhysicsLoop.MAT4X4_IDENTITY, -1, 1, 1, -1,
                 sScreenWidth,
                 sScreenHeight);
@@ -191,15 +271,17 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
         sScreenWidth = width;
         sScreenHeight = height;
 
-        GLES20.glViewport(0, 0, width, height);
+        GlState.get().viewport(0, 0, width, height);
 
         mWorldLock.lock();
 
         try {
             mWorldLock.setWorldDimensions(width, height);
 
+            mWorldLock.getSolidWorld().createWorldBoundaries();
+
             mParticleRenderer.onSurfaceChanged(gl, width, height);
-            mSolidWorld.onSurfaceChanged(gl, width, height);
+            mSolidWorldRenderer.onSurfaceChanged(gl, width, height);
 
             if (DEBUG_DRAW) {
                 mDebugRenderer.onSurfaceChanged(gl, width, height);
@@ -207,14 +289,21 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
         } finally {
             mWorldLock.unlock();
         }
+
+        synchronized (this) {
+            mSurfaceReady = true;
+        }
+        updatePhysicsThread();
     }
 
     @Override
     public void onSurfaceCreated(GL10 gl, EGLConfig config) {
 
+        // The context is new, and so is its state
+        GlState.get().invalidate();
         ShaderProgram.loadAllShaders(mContext.getAssets());
 
-        TextureRenderer.getInstance().onSurfaceCreated();
+        mTextureRenderer.onSurfaceCreated();
 
         mWorldLock.lock();
 
@@ -222,7 +311,7 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
             createBackground(mContext);
 
             mParticleRenderer.onSurfaceCreated(gl, config);
-            mSolidWorld.onSurfaceCreated(gl, config);
+            mSolidWorldRenderer.onSurfaceCreated(gl, config);
 
             if (DEBUG_DRAW) {
                 mDebugRenderer.onSurfaceCreated(gl, config);
@@ -235,11 +324,82 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
     public void pauseSimulation() {
         Log.d(TAG, "Pausing simulation");
         mSimulation = false;
+        updatePhysicsThread();
     }
 
     public void startSimulation() {
         Log.d(TAG, "Starting simulation");
+        mWorldLock.resetClock();
+        mWorldLock.wake();
         mSimulation = true;
+        updatePhysicsThread();
+    }
+
+    /**
+     * Choose whether the world is stepped by the shared PhysicsWorkerPool
+     * (true) or on the GL thread before each frame (false, the default).
+     */
+    public void setThreadedPhysics(boolean threaded) {
+        mThreadedPhysics = threaded;
+        updatePhysicsThread();
+    }
+
+    public boolean isThreadedPhysics() {
+        return mThreadedPhysics;
+    }
+
+    /**
+     * Upload particle positions and velocities as 16-bit values rather than
+     * floats. Only applies to threaded physics, as the GL thread otherwise
+     * draws straight from the particle buffers.
+     */
+    public void setQuantizedVertices(boolean quantized) {
+        mWorldLock.lock();
+        try {
+            mWorldLock.getParticleSystems().setQuantizedVertices(quantized);
+        } finally {
+            mWorldLock.unlock();
+        }
+    }
+
+    /**
+     * Draw all particle systems through one set of passes; see
+     * ParticleRenderer.setSharedPasses().
+     */
+    public void setSharedParticlePasses(boolean sharedPasses) {
+        mParticleRenderer.setSharedPasses(sharedPasses);
+    }
+
+    /**
+     * Kernel and levels of the particle blur; see ParticleRenderer.setBlur().
+     */
+    public void setParticleBlur(BlurRenderer.Kernel kernel, int levels) {
+        mParticleRenderer.setBlur(kernel, levels);
+    }
+
+    /**
+     * Size the particle surfaces to hold a frame rate; see
+     * ParticleRenderer.setDynamicResolution().
+     */
+    public void setDynamicParticleResolution(boolean dynamicResolution, int targetFps) {
+        mParticleRenderer.setDynamicResolution(dynamicResolution, targetFps);
+    }
+
+    /**
+     * Register with or leave the worker pool to match the current state. The
+     * world is only stepped once the surface is sized, as commands need the
+     * screen size.
+     */
+    private synchronized void updatePhysicsThread() {
+        boolean shouldRun = mThreadedPhysics && mSimulation && mSurfaceReady;
+
+        if (shouldRun && !mSteppedByPool) {
+            PhysicsWorkerPool.getInstance().register(mWorldLock);
+            mSteppedByPool = true;
+        } else if (!shouldRun && mSteppedByPool) {
+            PhysicsWorkerPool.getInstance().unregister(mWorldLock);
+            mSteppedByPool = false;
+        }
     }
 
 
@@ -268,10 +428,15 @@ public class PhysicsLoop extends Observable<Float> implements DrawableLayer {
                 }
                 final float fps = mFrames / ((float) time - mTime) * ONE_SEC;
                 float avefps = totalFrames / ((float) time - mStartTime) * ONE_SEC;
-                final int count = ParticleSystems.getInstance().getParticleCount();
+                final int count = mWorldLock.getParticleSystems().getParticleCount();
                 Log.d(TAG, fps + " fps (Now)");
                 Log.d(TAG, avefps + " fps (Average)");
                 Log.d(TAG, count + " particles");
+                GlState state = GlState.get();
+                Log.d(TAG, state.getIssuedStateChanges() + " GL state changes, " +
+                        state.getElidedStateChanges() + " skipped (Last frame)");
+                Log.d(TAG, mParticleRenderer.getSurfaceWidth() + "x" +
+                        mParticleRenderer.getSurfaceHeight() + " particle surfaces");
                 mTime = time;
                 mFrames = 0;
 
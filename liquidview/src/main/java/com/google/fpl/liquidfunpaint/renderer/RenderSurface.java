@@ -19,6 +19,7 @@ package com.google.fpl.liquidfunpaint.renderer;
 import android.graphics.Color;
 import android.opengl.GLES20;
 
+import com.google.fpl.liquidfunpaint.shader.GlState;
 import com.google.fpl.liquidfunpaint.shader.Texture;
 
 /**
@@ -39,8 +40,10 @@ public class RenderSurface {
         GLES20.glGenFramebuffers(1, mFrameBuffer, 0);
         mTexture = new Texture();
 
+        GlState state = GlState.get();
+
         // Bind the texture object
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTexture.getTextureId());
+        state.bindTexture(mTexture.getTextureId());
 
         // Set default filtering modes
         // We could have them pass in through the parameters in the future.
@@ -66,7 +69,7 @@ public class RenderSurface {
                 GLES20.GL_TEXTURE_2D, 0, GLES20.GL_RGBA, mWidth, mHeight, 0,
                 GLES20.GL_RGBA, GLES20.GL_UNSIGNED_BYTE, null);
 
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
+        state.bindFramebuffer(mFrameBuffer[0]);
         GLES20.glFramebufferTexture2D(
                 GLES20.GL_FRAMEBUFFER, GLES20.GL_COLOR_ATTACHMENT0,
                 GLES20.GL_TEXTURE_2D, mTexture.getTextureId(), 0);
@@ -79,12 +82,13 @@ public class RenderSurface {
         }
 
         // Bind the screen frame buffer
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+        state.bindFramebuffer(0);
     }
 
     public void beginRender(int clearMask) {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, mFrameBuffer[0]);
-        GLES20.glViewport(0, 0, mWidth, mHeight);
+        GlState state = GlState.get();
+        state.bindFramebuffer(mFrameBuffer[0]);
+        state.viewport(0, 0, mWidth, mHeight);
         if (clearMask != 0) {
             GLES20.glClearColor(
                     Color.red(mClearColor), Color.blue(mClearColor),
@@ -93,14 +97,44 @@ public class RenderSurface {
         }
     }
 
+    /**
+     * The frame buffer stays bound until something else is drawn to; whatever
+     * draws to the screen next binds it with bindScreen().
+     */
     public void endRender() {
-        GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, 0);
+    }
+
+    /**
+     * Draw to the screen's frame buffer, over all of it.
+     */
+    public static void bindScreen(int width, int height) {
+        GlState state = GlState.get();
+        state.bindFramebuffer(0);
+        state.viewport(0, 0, width, height);
     }
 
     public Texture getTexture() {
         return mTexture;
     }
 
+    public int getWidth() {
+        return mWidth;
+    }
+
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Free the frame buffer and its texture. The surface is not used
+     * afterwards.
+     */
+    public void delete() {
+        GLES20.glDeleteFramebuffers(1, mFrameBuffer, 0);
+        GlState.get().onFramebufferDeleted(mFrameBuffer[0]);
+        mTexture.delete();
+    }
+
     public void setClearColor(int color) {
         mClearColor = color;
     }
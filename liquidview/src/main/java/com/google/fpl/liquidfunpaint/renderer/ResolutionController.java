@@ -0,0 +1,161 @@
+package com.google.fpl.liquidfunpaint.renderer;
+
+/**
+ * Picks the size of the particle render surfaces from how long frames take,
+ * to hold a target frame rate: smaller surfaces while frames run late, and
+ * larger ones while they keep up.
+ *
+ * GLES 2.0 has no GPU timer queries, so frames are timed from one to the
+ * next; when the GPU is the bottleneck, buffer swaps wait for it, which
+ * shows in that time. Frames are capped at the display rate, so being on
+ * time does not tell how much headroom is left: after a while on time the
+ * controller probes one size up, and if that size runs late, it steps back
+ * and waits twice as long before probing again.
+ *
+ * Only used on the GL thread, except for setTargetFrameRate().
+ */
+public class ResolutionController {
+    private static final long ONE_SEC = 1000000000L;
+
+    // Sizes of the shorter side of the surfaces, smallest first
+    private static final int[] SIZES = {128, 192, 256, 384, 512};
+
+    // Average frame times this far over the frame budget lower the size;
+    // those within ON_TIME_RATIO of it count as on time
+    private static final float LATE_RATIO = 1.2f;
+    private static final float ON_TIME_RATIO = 1.05f;
+    // Weight of the latest frame in the average frame time
+    private static final float SMOOTHING = 0.1f;
+    // Frames not counted after a size change or a pause, while the GPU
+    // settles into the new workload
+    private static final int SETTLE_FRAMES = 30;
+    // Frames on time before probing a larger size, at first and at most
+    private static final int PROBE_FRAMES = 120;
+    private static final int MAX_PROBE_FRAMES = PROBE_FRAMES * 16;
+    // Longer gaps between frames are pauses, not slow frames
+    private static final long MAX_FRAME_NANOS = ONE_SEC / 4;
+
+    private volatile int mTargetFrameRate = 60;
+
+    private int mLevel;
+    private int mMaxLevel = SIZES.length - 1;
+
+    private long mLastFrameTime = 0;
+    // Average frame time in nanoseconds, 0 until the first frame counted
+    private float mAverageFrameNanos = 0;
+    private int mSettleFrames = SETTLE_FRAMES;
+    private int mOnTimeFrames = 0;
+    private int mProbeFrames = PROBE_FRAMES;
+    // Whether the current size is being probed, and has not kept up yet
+    private boolean mProbing = false;
+
+    /**
+     * @param size Size to start from; the closest one not larger is used.
+     */
+    public ResolutionController(int size) {
+        mLevel = getLevel(size);
+    }
+
+    private static int getLevel(int size) {
+        int level = 0;
+        while (level + 1 < SIZES.length && SIZES[level + 1] <= size)
+            ++level;
+        return level;
+    }
+
+    public void setTargetFrameRate(int fps) {
+        if (fps <= 0) {
+            throw new IllegalArgumentException("Invalid target frame rate " + fps);
+        }
+        mTargetFrameRate = fps;
+    }
+
+    public int getTargetFrameRate() {
+        return mTargetFrameRate;
+    }
+
+    /**
+     * Largest size worth picking, e.g. the shorter side of the screen.
+     */
+    public void setMaxSize(int maxSize) {
+        mMaxLevel = getLevel(maxSize);
+        if (mLevel > mMaxLevel) {
+            mLevel = mMaxLevel;
+            restart();
+        }
+    }
+
+    /**
+     * Size of the shorter side of the surfaces, for the frame last counted.
+     */
+    public int getSize() {
+        return SIZES[mLevel];
+    }
+
+    /**
+     * Count a frame, beginning at the given System.nanoTime(), and change
+     * the size if needed.
+     */
+    public void onFrame(long time) {
+        long frameNanos = time - mLastFrameTime;
+        boolean paused = mLastFrameTime == 0 || frameNanos > MAX_FRAME_NANOS;
+        mLastFrameTime = time;
+        if (paused) {
+            restart();
+            return;
+        }
+        if (mSettleFrames > 0) {
+            --mSettleFrames;
+            return;
+        }
+
+        if (mAverageFrameNanos == 0) {
+            mAverageFrameNanos = frameNanos;
+        } else {
+            mAverageFrameNanos += SMOOTHING * (frameNanos - mAverageFrameNanos);
+        }
+
+        float budget = ONE_SEC / (float) mTargetFrameRate;
+        if (mAverageFrameNanos > budget * LATE_RATIO) {
+            if (mProbing) {
+                // The probed size did not keep up; wait longer next time
+                mProbeFrames = Math.min(mProbeFrames * 2, MAX_PROBE_FRAMES);
+                mProbing = false;
+            }
+            setLevel(mLevel - 1);
+        } else if (mAverageFrameNanos <= budget * ON_TIME_RATIO) {
+            if (++mOnTimeFrames >= mProbeFrames) {
+                if (mProbing) {
+                    // The probed size kept up
+                    mProbeFrames = PROBE_FRAMES;
+                }
+                mProbing = setLevel(mLevel + 1);
+            }
+        } else {
+            mOnTimeFrames = 0;
+        }
+    }
+
+    /**
+     * @return Whether the level changed; it stays within the sizes allowed.
+     */
+    private boolean setLevel(int level) {
+        mOnTimeFrames = 0;
+        if (level < 0 || level > mMaxLevel)
+            return false;
+
+        mLevel = level;
+        restart();
+        return true;
+    }
+
+    /**
+     * Start measuring over, e.g. after the surfaces changed or were created
+     * again. The size is kept.
+     */
+    public void restart() {
+        mAverageFrameNanos = 0;
+        mSettleFrames = SETTLE_FRAMES;
+        mOnTimeFrames = 0;
+    }
+}
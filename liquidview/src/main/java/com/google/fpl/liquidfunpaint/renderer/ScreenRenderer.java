@@ -33,22 +33,29 @@ import org.json.JSONObject;
 public class ScreenRenderer {
     private static final String TAG = "ScreenRenderer";
     private Material mMaterial;
+    private Material.AttributeInfo mPositionAttr;
+    private Material.AttributeInfo mTexCoordAttr;
+    private Material.UniformInfo mMvpTransformUniform;
+    private Material.UniformInfo mAlphaThresholdUniform;
     private float mAlphaThreshold;
 
     public ScreenRenderer(JSONObject json, Texture fboTexture) {
         mMaterial = new Material(
                 new ShaderProgram("texture.glslv", "screen.glslf"));
 
-        mMaterial.addAttribute(
+        mPositionAttr = mMaterial.addAttribute(
                 "aPosition", 3, Material.AttrComponentType.FLOAT, 4, false,
                 RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
-        mMaterial.addAttribute(
+        mTexCoordAttr = mMaterial.addAttribute(
                 "aTexCoord", 2, Material.AttrComponentType.FLOAT, 4, false,
                 RenderHelper.SCREEN_QUAD_VERTEX_STRIDE);
 
         // Add the diffuse texture: particle FBO
         mMaterial.addTexture("uDiffuseTexture", fboTexture);
 
+        mMvpTransformUniform = mMaterial.getUniform("uMvpTransform");
+        mAlphaThresholdUniform = mMaterial.getUniform("uAlphaThreshold");
+
         mMaterial.setBlendFunc(
                 Material.BlendFactor.SRC_ALPHA,
                 Material.BlendFactor.ONE_MINUS_SRC_ALPHA);
@@ -59,6 +66,13 @@ public class ScreenRenderer {
         mAlphaThreshold = (float) (json.optDouble("alphaThreshold", 0.0));
     }
 
+    /**
+     * Blend a different frame buffer, e.g. one of another size.
+     */
+    public void setTexture(Texture fboTexture) {
+        mMaterial.setTexture("uDiffuseTexture", fboTexture);
+    }
+
     /**
      * Draw function for the geometry that this class owns.
      */
@@ -69,16 +83,16 @@ public class ScreenRenderer {
 
         // Set attribute arrays
         mMaterial.setVertexAttributeBuffer(
-                "aPosition", RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 0);
+                mPositionAttr, RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 0);
         mMaterial.setVertexAttributeBuffer(
-                "aTexCoord", RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 3);
+                mTexCoordAttr, RenderHelper.SCREEN_QUAD_VERTEX_BUFFER, 3);
 
         // Set per draw uniforms
         GLES20.glUniformMatrix4fv(
-                mMaterial.getUniformLocation("uMvpTransform"), 1, false,
+                mMvpTransformUniform.getLocation(), 1, false,
                 transformFromTexture, 0);
         GLES20.glUniform1f(
-                mMaterial.getUniformLocation("uAlphaThreshold"),
+                mAlphaThresholdUniform.getLocation(),
                 mAlphaThreshold);
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_FAN, 0, 4);
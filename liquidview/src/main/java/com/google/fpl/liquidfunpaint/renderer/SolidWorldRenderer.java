@@ -0,0 +1,86 @@
+package com.google.fpl.liquidfunpaint.renderer;
+
+import android.content.Context;
+import android.opengl.Matrix;
+
+import com.google.fpl.liquidfunpaint.physics.SolidWorld;
+import com.google.fpl.liquidfunpaint.physics.WorldLock;
+import com.google.fpl.liquidfunpaint.shader.Texture;
+import com.google.fpl.liquidfunpaint.util.DrawableLayer;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.microedition.khronos.egl.EGLConfig;
+import javax.microedition.khronos.opengles.GL10;
+
+/**
+ * Draws the textured bodies of a SolidWorld from its published snapshot.
+ * This only executes on the GL thread.
+ */
+public class SolidWorldRenderer implements DrawableLayer {
+
+    // Textures can only be created on the GL thread, so they are loaded
+    // lazily the first time a body is drawn.
+    private final Map<String, Texture> textures = new HashMap<>();
+
+    private final float[] mTransformFromWorld = new float[16];
+
+    private final WorldLock mWorldLock;
+    private final TextureRenderer mTextureRenderer;
+    private Context mContext;
+
+    public SolidWorldRenderer(WorldLock worldLock, TextureRenderer textureRenderer){
+        mWorldLock = worldLock;
+        mTextureRenderer = textureRenderer;
+    }
+
+    @Override
+    public void init(Context context){
+        mContext = context.getApplicationContext();
+    }
+
+    @Override
+    public void onSurfaceCreated(GL10 gl, EGLConfig config) {
+        // Any textures we had belong to the old GL context
+        textures.clear();
+    }
+
+    @Override
+    public void onSurfaceChanged(GL10 gl, int width, int height) {
+        Matrix.setIdentityM(mTransformFromWorld, 0);
+        Matrix.translateM(mTransformFromWorld, 0, -1, -1, 0);
+        Matrix.scaleM(
+                mTransformFromWorld,
+                0,
+                2f / mWorldLock.sRenderWorldWidth,
+                2f / mWorldLock.sRenderWorldHeight,
+                1);
+    }
+
+    @Override
+    public void onDrawFrame(GL10 gl){
+        SolidWorld solidWorld = mWorldLock.getSolidWorld();
+
+        for(SolidWorld.BodySnapshot body : solidWorld.getPublishedBodies()) {
+            Texture texture = textures.get(body.textureName);
+            if(texture == null) {
+                texture = new Texture(mContext, body.textureName);
+                textures.put(body.textureName, texture);
+            }
+
+            mTextureRenderer.drawTexture(
+                    texture, mTransformFromWorld,
+                    body.centerX - body.width / 2,
+                    body.centerY + body.height / 2,
+                    body.centerX + body.width / 2,
+                    body.centerY - body.height / 2,
+                    mWorldLock.getScreenWidth(),
+                    mWorldLock.getScreenHeight());
+        }
+    }
+
+    @Override
+    public void reset(){
+    }
+}
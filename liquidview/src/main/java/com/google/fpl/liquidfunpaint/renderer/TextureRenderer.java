@@ -20,47 +20,69 @@ package com.google.fpl.liquidfunpaint.renderer;
 import android.opengl.GLES20;
 import android.opengl.Matrix;
 
+import com.google.fpl.liquidfunpaint.shader.GlState;
 import com.google.fpl.liquidfunpaint.shader.Material;
 import com.google.fpl.liquidfunpaint.shader.ShaderProgram;
 import com.google.fpl.liquidfunpaint.shader.Texture;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 import java.util.Arrays;
 
 /**
- * Renderer to draw textures.
+ * Renderer to draw textures. GL resources belong to one context, so every
+ * PhysicsLoop creates its own.
  */
 public class TextureRenderer {
     private ShaderProgram mTextureShader;
     private Material mTextureMaterial;
+    private Material.AttributeInfo mPositionAttr;
+    private Material.AttributeInfo mTexCoordAttr;
+    private Material.UniformInfo mDiffuseTextureUniform;
+    private Material.UniformInfo mMvpTransformUniform;
+    private Material.UniformInfo mUvTransformUniform;
+    private Material.UniformInfo mAlphaScaleUniform;
 
     // Temporary variables for drawing purposes
     private float[] uvTransform = new float[16];
 
-    private final FloatBuffer mPositionBuffer;
-    private final FloatBuffer mTexCoordBuffer;
+    // Pooled buffers, and float views of them for drawing. Acquired again
+    // after release().
+    private ByteBuffer mPositionBytes;
+    private ByteBuffer mTexCoordBytes;
+    private FloatBuffer mPositionBuffer;
+    private FloatBuffer mTexCoordBuffer;
 
-    private static final TextureRenderer INSTANCE = new TextureRenderer();
+    public TextureRenderer() {
+        acquireBuffers();
+    }
 
-    private TextureRenderer() {
-        mPositionBuffer = ByteBuffer.allocateDirect(8 * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+    private void acquireBuffers() {
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        mPositionBytes = pool.acquire(8 * 4);
+        mPositionBuffer = mPositionBytes.asFloatBuffer();
 
         float data[] = new float[] {
                 0, 0, 1, 0, 0, 1, 1, 1
         };
-        mTexCoordBuffer = ByteBuffer.allocateDirect(8 * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+        mTexCoordBytes = pool.acquire(8 * 4);
+        mTexCoordBuffer = mTexCoordBytes.asFloatBuffer();
         mTexCoordBuffer.put(data);
     }
 
     /**
-     * @return The singleton.
+     * Give the buffers back to the DirectBufferPool, once the view is gone.
+     * Drawing again acquires new ones.
      */
-    public static TextureRenderer getInstance() {
-        return INSTANCE;
+    public void release() {
+        DirectBufferPool pool = DirectBufferPool.getInstance();
+        pool.release(mPositionBytes);
+        pool.release(mTexCoordBytes);
+        mPositionBytes = null;
+        mTexCoordBytes = null;
+        mPositionBuffer = null;
+        mTexCoordBuffer = null;
     }
 
     /**
@@ -70,13 +92,18 @@ public class TextureRenderer {
         mTextureShader = new ShaderProgram("texture.glslv", "texture.glslf");
 
         mTextureMaterial = new Material(mTextureShader);
-        mTextureMaterial.addAttribute(
+        mPositionAttr = mTextureMaterial.addAttribute(
                 "aPosition", 2, Material.AttrComponentType.FLOAT, 4, false, 0);
-        mTextureMaterial.addAttribute(
+        mTexCoordAttr = mTextureMaterial.addAttribute(
                 "aTexCoord", 2, Material.AttrComponentType.FLOAT, 4, false, 0);
         mTextureMaterial.setBlendFunc(
                 Material.BlendFactor.ONE,
                 Material.BlendFactor.ONE_MINUS_SRC_ALPHA);
+
+        mDiffuseTextureUniform = mTextureMaterial.getUniform("uDiffuseTexture");
+        mMvpTransformUniform = mTextureMaterial.getUniform("uMvpTransform");
+        mUvTransformUniform = mTextureMaterial.getUniform("uUvTransform");
+        mAlphaScaleUniform = mTextureMaterial.getUniform("uAlphaScale");
     }
 
     /**
@@ -142,27 +169,26 @@ public class TextureRenderer {
         mTextureMaterial.beginRender();
 
         // We set our own texture here to be bound
-        GLES20.glActiveTexture(GLES20.GL_TEXTURE0);
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, texture.getTextureId());
+        GlState.get().bindTexture(0, texture.getTextureId());
 
         // Set attribute arrays
         mTextureMaterial.setVertexAttributeBuffer(
-                "aPosition", mPositionBuffer, 0);
+                mPositionAttr, mPositionBuffer, 0);
         mTextureMaterial.setVertexAttributeBuffer(
-                "aTexCoord", mTexCoordBuffer, 0);
+                mTexCoordAttr, mTexCoordBuffer, 0);
 
         // Set uniforms
         // Set texture uniform explicitly here because it is passed in
         GLES20.glUniform1i(
-                mTextureMaterial.getUniformLocation("uDiffuseTexture"), 0);
+                mDiffuseTextureUniform.getLocation(), 0);
         GLES20.glUniformMatrix4fv(
-                mTextureMaterial.getUniformLocation("uMvpTransform"),
+                mMvpTransformUniform.getLocation(),
                 1, false, inTransform, 0);
         GLES20.glUniformMatrix4fv(
-                mTextureMaterial.getUniformLocation("uUvTransform"),
+                mUvTransformUniform.getLocation(),
                 1, false, uvTransform, 0);
         GLES20.glUniform1f(
-                mTextureMaterial.getUniformLocation("uAlphaScale"), alphaScale);
+                mAlphaScaleUniform.getLocation(), alphaScale);
 
         GLES20.glDrawArrays(GLES20.GL_TRIANGLE_STRIP, 0, 4);
 
@@ -170,6 +196,9 @@ public class TextureRenderer {
     }
 
     private void setRect(float left, float bottom, float right, float top) {
+        if (mPositionBuffer == null)
+            acquireBuffers();
+
         float[] data = new float[] {
                 left, bottom, right, bottom, left, top, right, top
         };
@@ -0,0 +1,238 @@
+package com.google.fpl.liquidfunpaint.shader;
+
+import android.opengl.GLES20;
+
+/**
+ * Shadow copy of the GL state the renderers change: program, blending,
+ * enabled vertex attribute arrays, texture bindings, framebuffer, array
+ * buffer and viewport. All changes to these go through here, so changes to
+ * a value already set are skipped rather than sent to the driver, and the
+ * state never has to be read back with glGet.
+ *
+ * State is set lazily: materials and surfaces set what they need when they
+ * begin, and leave it as is when they end.
+ *
+ * Every view has its own GL context, current on its own GL thread, so each
+ * thread has its own state; see get().
+ */
+public class GlState {
+
+    // Texture units tracked; GLES 2.0 has at least this many
+    private static final int MAX_TEXTURE_UNITS = 8;
+
+    private static final ThreadLocal<GlState> STATE = new ThreadLocal<GlState>() {
+        @Override
+        protected GlState initialValue() {
+            return new GlState();
+        }
+    };
+
+    /**
+     * State of the GL context current on this thread.
+     */
+    public static GlState get() {
+        return STATE.get();
+    }
+
+    private int mProgram;
+    private boolean mBlend;
+    private int mBlendSFactor;
+    private int mBlendDFactor;
+    // Bit i is set if vertex attribute array i is enabled
+    private int mVertexAttribArrays;
+    private int mActiveTexture;
+    private final int[] mTextures = new int[MAX_TEXTURE_UNITS];
+    private int mFramebuffer;
+    private int mArrayBuffer;
+    private int mViewportX;
+    private int mViewportY;
+    private int mViewportWidth;
+    private int mViewportHeight;
+
+    // State changes sent and skipped so far this frame, and in the last one
+    private int mIssued = 0;
+    private int mElided = 0;
+    private int mLastFrameIssued = 0;
+    private int mLastFrameElided = 0;
+
+    private GlState() {
+        invalidate();
+    }
+
+    /**
+     * Start over from the state of a new context. Must be called whenever
+     * the context is created.
+     */
+    public void invalidate() {
+        mProgram = 0;
+        mBlend = false;
+        mBlendSFactor = GLES20.GL_ONE;
+        mBlendDFactor = GLES20.GL_ZERO;
+        mVertexAttribArrays = 0;
+        mActiveTexture = 0;
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++)
+            mTextures[i] = 0;
+        mFramebuffer = 0;
+        mArrayBuffer = 0;
+        // The viewport starts out at the size of the surface, which we don't
+        // know here
+        mViewportWidth = -1;
+        mViewportHeight = -1;
+    }
+
+    /**
+     * Start counting the state changes of a new frame.
+     */
+    public void beginFrame() {
+        mLastFrameIssued = mIssued;
+        mLastFrameElided = mElided;
+        mIssued = 0;
+        mElided = 0;
+    }
+
+    /**
+     * State changes sent to the driver in the last frame.
+     */
+    public int getIssuedStateChanges() {
+        return mLastFrameIssued;
+    }
+
+    /**
+     * State changes skipped in the last frame, as they were already set.
+     */
+    public int getElidedStateChanges() {
+        return mLastFrameElided;
+    }
+
+    private boolean change(boolean changed) {
+        if (changed) {
+            ++mIssued;
+        } else {
+            ++mElided;
+        }
+        return changed;
+    }
+
+    public void useProgram(int program) {
+        if (change(program != mProgram)) {
+            GLES20.glUseProgram(program);
+            mProgram = program;
+        }
+    }
+
+    public void setBlend(boolean enabled) {
+        if (change(enabled != mBlend)) {
+            if (enabled) {
+                GLES20.glEnable(GLES20.GL_BLEND);
+            } else {
+                GLES20.glDisable(GLES20.GL_BLEND);
+            }
+            mBlend = enabled;
+        }
+    }
+
+    public void blendFunc(int sFactor, int dFactor) {
+        if (change(sFactor != mBlendSFactor || dFactor != mBlendDFactor)) {
+            GLES20.glBlendFunc(sFactor, dFactor);
+            mBlendSFactor = sFactor;
+            mBlendDFactor = dFactor;
+        }
+    }
+
+    /**
+     * Enable exactly the vertex attribute arrays of a mask, bit i standing
+     * for location i, and disable all others.
+     */
+    public void setVertexAttribArrays(int mask) {
+        int changed = mask ^ mVertexAttribArrays;
+        int unchanged = Integer.bitCount(mask & mVertexAttribArrays);
+        mElided += unchanged;
+        while (changed != 0) {
+            int location = Integer.numberOfTrailingZeros(changed);
+            if ((mask & (1 << location)) != 0) {
+                GLES20.glEnableVertexAttribArray(location);
+            } else {
+                GLES20.glDisableVertexAttribArray(location);
+            }
+            ++mIssued;
+            changed &= changed - 1;
+        }
+        mVertexAttribArrays = mask;
+    }
+
+    /**
+     * Bind a texture to a texture unit, counted from 0, which is left
+     * active.
+     */
+    public void bindTexture(int unit, int textureId) {
+        if (change(unit != mActiveTexture)) {
+            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + unit);
+            mActiveTexture = unit;
+        }
+        bindTexture(textureId);
+    }
+
+    /**
+     * Bind a texture to the active texture unit, e.g. to load it.
+     */
+    public void bindTexture(int textureId) {
+        if (mActiveTexture >= MAX_TEXTURE_UNITS) {
+            ++mIssued;
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+        } else if (change(textureId != mTextures[mActiveTexture])) {
+            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, textureId);
+            mTextures[mActiveTexture] = textureId;
+        }
+    }
+
+    /**
+     * Deleting a texture unbinds it from every unit.
+     */
+    public void onTextureDeleted(int textureId) {
+        for (int i = 0; i < MAX_TEXTURE_UNITS; i++) {
+            if (mTextures[i] == textureId)
+                mTextures[i] = 0;
+        }
+    }
+
+    public void bindFramebuffer(int framebuffer) {
+        if (change(framebuffer != mFramebuffer)) {
+            GLES20.glBindFramebuffer(GLES20.GL_FRAMEBUFFER, framebuffer);
+            mFramebuffer = framebuffer;
+        }
+    }
+
+    /**
+     * Deleting the bound framebuffer binds the screen's.
+     */
+    public void onFramebufferDeleted(int framebuffer) {
+        if (mFramebuffer == framebuffer)
+            mFramebuffer = 0;
+    }
+
+    public void bindArrayBuffer(int buffer) {
+        if (change(buffer != mArrayBuffer)) {
+            GLES20.glBindBuffer(GLES20.GL_ARRAY_BUFFER, buffer);
+            mArrayBuffer = buffer;
+        }
+    }
+
+    /**
+     * Deleting the bound array buffer binds none.
+     */
+    public void onArrayBufferDeleted(int buffer) {
+        if (mArrayBuffer == buffer)
+            mArrayBuffer = 0;
+    }
+
+    public void viewport(int x, int y, int width, int height) {
+        if (change(x != mViewportX || y != mViewportY ||
+                width != mViewportWidth || height != mViewportHeight)) {
+            GLES20.glViewport(x, y, width, height);
+            mViewportX = x;
+            mViewportY = y;
+            mViewportWidth = width;
+            mViewportHeight = height;
+        }
+    }
+}
@@ -21,9 +21,10 @@ import android.opengl.GLES20;
 import android.util.Log;
 
 import java.nio.Buffer;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
-import java.util.Map.Entry;
 
 /**
  * A layer on top of ShaderProgram to store specific parameters to be reused.
@@ -117,6 +118,37 @@ public class Material {
                         "! Is the name spelled correctly?");
             }
         }
+
+        /**
+         * Whether the shader reads the attribute. Attributes the compiler
+         * optimized away count as not read.
+         */
+        public boolean isActive() {
+            return mLocation >= 0;
+        }
+    }
+
+    /**
+     * A uniform, with its location looked up once when the material is built
+     * rather than by name every frame.
+     */
+    public class UniformInfo {
+        String mName;
+        int mLocation;
+
+        public UniformInfo(String name, int location) {
+            mName = name;
+            mLocation = location;
+
+            if (location < 0) {
+                Log.e(TAG, "Invalid uniform location for " + name +
+                        " Is the name spelled correctly?");
+            }
+        }
+
+        public int getLocation() {
+            return mLocation;
+        }
     }
 
     /**
@@ -133,7 +165,11 @@ public class Material {
     protected ShaderProgram mShader = null;
     private Map<String, AttributeInfo> mVertexAttributes =
         new HashMap<String, AttributeInfo>();
-    private Map<String, Texture> mTextures = new HashMap<String, Texture>(1);
+    private List<Texture> mTextures = new ArrayList<Texture>(1);
+    // Sampler uniforms of mTextures, in the same order
+    private List<UniformInfo> mTextureUniforms = new ArrayList<UniformInfo>(1);
+    // Locations of the vertex attributes we have info on, bit i for location i
+    private int mVertexAttribArrays = 0;
     private RenderState mRenderState = new RenderState();
 
     /// Member methods
@@ -157,11 +193,32 @@ public class Material {
                 name, numComponents, componentType,
                 componentSize, normalized, stride, location);
         mVertexAttributes.put(name, attr);
+        if (location >= 0)
+            mVertexAttribArrays |= 1 << location;
         return attr;
     }
 
+    /**
+     * Whether the shader reads an attribute. Attributes the compiler
+     * optimized away count as not read.
+     */
+    public boolean hasAttribute(String name) {
+        return mShader.getAttributeLocation(name) >= 0;
+    }
+
+    /**
+     * An attribute given the same value for every vertex, rather than read
+     * from an array; see setVertexAttributeValue().
+     */
+    public AttributeInfo addConstantAttribute(String name, int numComponents) {
+        return new AttributeInfo(
+                name, numComponents, AttrComponentType.FLOAT, 4, false, 0,
+                mShader.getAttributeLocation(name));
+    }
+
     public void addTexture(String textureUniformName, Texture texture) {
-        mTextures.put(textureUniformName, texture);
+        mTextures.add(texture);
+        mTextureUniforms.add(getUniform(textureUniformName));
 
         if (GLES20.GL_TEXTURE0 + mTextures.size() >
                 GLES20.GL_MAX_COMBINED_TEXTURE_IMAGE_UNITS) {
@@ -170,55 +227,52 @@ public class Material {
         }
     }
 
+    /**
+     * Replace the texture of a sampler added with addTexture(), e.g. when
+     * the surface it was rendered to is reallocated.
+     */
+    public void setTexture(String textureUniformName, Texture texture) {
+        for (int i = 0; i < mTextureUniforms.size(); i++) {
+            if (mTextureUniforms.get(i).mName.equals(textureUniformName)) {
+                mTextures.set(i, texture);
+                return;
+            }
+        }
+        addTexture(textureUniformName, texture);
+    }
+
+    /**
+     * Set all the state the material draws with. State is left as is by
+     * endRender(), and only changed where the next material differs; see
+     * GlState.
+     */
     public void beginRender() {
+        GlState state = GlState.get();
         mShader.beginRender();
 
         // Set render states
+        state.setBlend(mRenderState.mEnableBlend);
         if (mRenderState.mEnableBlend) {
-            GLES20.glEnable(GLES20.GL_BLEND);
-            GLES20.glBlendFunc(
+            state.blendFunc(
                     mRenderState.mBlendColorSFactor.getGlType(),
                     mRenderState.mBlendColorDFactor.getGlType());
         }
 
-        // enable all vertex attributes we have info on
-        for (AttributeInfo attr : mVertexAttributes.values()) {
-            GLES20.glEnableVertexAttribArray(attr.mLocation);
-        }
+        // enable all vertex attributes we have info on, and no others
+        state.setVertexAttribArrays(mVertexAttribArrays);
 
         // enable all textures
-        int textureIdx = 0;
-        for (Entry<String, Texture> texture : mTextures.entrySet()) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + textureIdx);
-            GLES20.glBindTexture(
-                    GLES20.GL_TEXTURE_2D, texture.getValue().getTextureId());
+        for (int textureIdx = 0; textureIdx < mTextures.size(); ++textureIdx) {
+            state.bindTexture(
+                    textureIdx, mTextures.get(textureIdx).getTextureId());
 
             // Set the correct uniform
             GLES20.glUniform1i(
-                    getUniformLocation(texture.getKey()), textureIdx);
-
-            // Get next texture index
-            ++textureIdx;
+                    mTextureUniforms.get(textureIdx).mLocation, textureIdx);
         }
     }
 
     public void endRender() {
-        // disable all textures
-        for (int i = 0; i < mTextures.size(); ++i) {
-            GLES20.glActiveTexture(GLES20.GL_TEXTURE0 + i);
-            GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, 0);
-        }
-
-        // enable all vertex attributes
-        for (AttributeInfo attr : mVertexAttributes.values()) {
-            GLES20.glDisableVertexAttribArray(attr.mLocation);
-        }
-
-        // Reset render states
-        if (mRenderState.mEnableBlend) {
-            GLES20.glDisable(GLES20.GL_BLEND);
-        }
-
         mShader.endRender();
     }
 
@@ -233,16 +287,93 @@ public class Material {
 
     public void setVertexAttributeBuffer(
             String name, Buffer buffer, int offset) {
-        AttributeInfo attr = mVertexAttributes.get(name);
-        buffer.position(offset);
+        setVertexAttributeBuffer(mVertexAttributes.get(name), buffer, offset);
+    }
+
+    /**
+     * Point an attribute at an offset into the bound GL_ARRAY_BUFFER.
+     * The stride given is kept for later calls.
+     */
+    public void setVertexAttributeOffset(
+            AttributeInfo attr, int offset, int stride) {
+        attr.mStride = stride;
         GLES20.glVertexAttribPointer(
                 attr.mLocation, attr.mNumComponents,
                 attr.mComponentType.getGlType(), attr.mNormalized,
-                attr.mStride, buffer);
+                attr.mStride, offset);
+    }
+
+    public void setVertexAttributeOffset(String name, int offset, int stride) {
+        setVertexAttributeOffset(mVertexAttributes.get(name), offset, stride);
+    }
+
+    /**
+     * Point an attribute at an offset into the bound GL_ARRAY_BUFFER, in a
+     * component type other than the one it was added with, e.g. quantized.
+     * The type and stride given are kept for later calls.
+     */
+    public void setVertexAttributeOffset(
+            AttributeInfo attr, AttrComponentType componentType,
+            boolean normalized, int offset, int stride) {
+        attr.mComponentType = componentType;
+        attr.mNormalized = normalized;
+        setVertexAttributeOffset(attr, offset, stride);
+    }
+
+    public void setVertexAttributeOffset(
+            String name, AttrComponentType componentType, boolean normalized,
+            int offset, int stride) {
+        setVertexAttributeOffset(
+                mVertexAttributes.get(name), componentType, normalized,
+                offset, stride);
+    }
+
+    /**
+     * Point an attribute at a buffer laid out differently from what it was
+     * added with, e.g. tightly packed instead of interleaved. The stride
+     * given is kept for later calls.
+     */
+    public void setVertexAttributeBuffer(
+            AttributeInfo attr, Buffer buffer, int offset, int stride) {
+        attr.mStride = stride;
+        setVertexAttributeBuffer(attr, buffer, offset);
+    }
+
+    public void setVertexAttributeBuffer(
+            String name, Buffer buffer, int offset, int stride) {
+        setVertexAttributeBuffer(
+                mVertexAttributes.get(name), buffer, offset, stride);
+    }
+
+    /**
+     * Give an attribute the same value for every vertex, rather than reading
+     * it from an array. Only for attributes not added with addAttribute(),
+     * as their arrays are enabled. Does nothing if the shader does not read
+     * the attribute.
+     */
+    public void setVertexAttributeValue(
+            AttributeInfo attr, float x, float y, float z, float w) {
+        if (attr.mLocation >= 0)
+            GLES20.glVertexAttrib4f(attr.mLocation, x, y, z, w);
+    }
+
+    public void setVertexAttributeValue(String name, float x, float y, float z, float w) {
+        int location = mShader.getAttributeLocation(name);
+        if (location >= 0)
+            GLES20.glVertexAttrib4f(location, x, y, z, w);
+    }
+
+    /**
+     * Look up a uniform once, to set it every frame without looking it up
+     * by name.
+     */
+    public UniformInfo getUniform(String name) {
+        return new UniformInfo(name, mShader.getUniformLocation(name));
     }
 
     /**
-     * Provide access to the ShaderProgram function
+     * Provide access to the ShaderProgram function. Looks the uniform up by
+     * name on every call; prefer getUniform() for uniforms set per frame.
      */
     public int getUniformLocation(String name) {
         int location = mShader.getUniformLocation(name);
@@ -35,10 +35,18 @@ public class ParticleMaterial extends Material {
     private static final String TAG = "ParticleMaterial";
     private static final String DIFFUSE_TEXTURE_NAME = "uDiffuseTexture";
 
+    private final WorldLock mWorldLock;
+
     private float mParticleSizeScale;
+    // Size of the render surface along the shorter side of the world
+    private int mSurfaceSize = ParticleRenderer.FB_SIZE;
+    private final UniformInfo mPointSizeUniform;
 
-    public ParticleMaterial(Context context, JSONObject json) {
+    public ParticleMaterial(Context context, JSONObject json, WorldLock worldLock) {
         super(new ShaderProgram("particle.glslv", "particle.glslf"));
+        mWorldLock = worldLock;
+        mPointSizeUniform = getUniform("uPointSize");
+
 
         // Read in values from the JSON file
         mParticleSizeScale =
@@ -53,17 +61,25 @@ public class ParticleMaterial extends Material {
         }
     }
 
+    /**
+     * Size of the surface drawn to along the shorter side of the world,
+     * which the point size is relative to.
+     */
+    public void setSurfaceSize(int surfaceSize) {
+        mSurfaceSize = surfaceSize;
+    }
+
     @Override
     public void beginRender() {
         super.beginRender();
 
-        float pSize =  mParticleSizeScale * ParticleRenderer.FB_SIZE *
+        float pSize =  mParticleSizeScale * mSurfaceSize *
                 (ParticleSystems.PARTICLE_RADIUS /
-                        Math.min(WorldLock.getInstance().sRenderWorldWidth, WorldLock.getInstance().sRenderWorldHeight));
+                        Math.min(mWorldLock.sRenderWorldWidth, mWorldLock.sRenderWorldHeight));
 
         // Specific uniforms to this material
         GLES20.glUniform1f(
-                getUniformLocation("uPointSize"),
+                mPointSizeUniform.getLocation(),
                 Math.max(1.0f, pSize));
     }
 }
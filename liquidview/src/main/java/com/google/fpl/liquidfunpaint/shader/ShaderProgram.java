@@ -42,8 +42,16 @@ public class ShaderProgram {
     private static final String SHADER_DIRECTORY = "shaders";
     private static final String VERTEX_SHADER_EXTENSION = "glslv";
     private static final String FRAGMENT_SHADER_EXTENSION = "glslf";
-    private static final Map<String, Integer> COMPILED_SHADERS =
-            new HashMap<String, Integer>();
+    // Shaders belong to the GL context they were compiled in. Every view has
+    // its own context, current on its own GL thread, so each thread keeps its
+    // own set.
+    private static final ThreadLocal<Map<String, Integer>> COMPILED_SHADERS =
+            new ThreadLocal<Map<String, Integer>>() {
+                @Override
+                protected Map<String, Integer> initialValue() {
+                    return new HashMap<String, Integer>();
+                }
+            };
 
     private class ParamInfo {
         String mName;
@@ -71,7 +79,12 @@ public class ShaderProgram {
     /// Temp variables for getting OpenGL params
     /// We have this because we might query params during runtime and we can
     /// reuse this object for all such calls.
-    private static int[] sGlParams = new int[MAX_NUM_PARAMS];
+    private static final ThreadLocal<int[]> GL_PARAMS = new ThreadLocal<int[]>() {
+        @Override
+        protected int[] initialValue() {
+            return new int[MAX_NUM_PARAMS];
+        }
+    };
 
     /// Static helper methods
 
@@ -118,7 +131,7 @@ public class ShaderProgram {
     public static void loadAllShaders(AssetManager assetMgr) {
         // Clear the map; OpenGLES context could be destroyed while app is in
         // background. We have to reload all the shaders.
-        COMPILED_SHADERS.clear();
+        COMPILED_SHADERS.get().clear();
 
         try {
             String[] shaderFiles = assetMgr.list(SHADER_DIRECTORY);
@@ -136,7 +149,7 @@ public class ShaderProgram {
                 }
 
                 if (shaderProg != 0) {
-                    COMPILED_SHADERS.put(shaderFile, shaderProg);
+                    COMPILED_SHADERS.get().put(shaderFile, shaderProg);
                 }
             }
         } catch (IOException ex) {
@@ -148,16 +161,9 @@ public class ShaderProgram {
      * Wrapper for GLES20.glGetProgramiv with a better return interface.
      */
     private static int getProgramiv(int program, int pname) {
-        GLES20.glGetProgramiv(program, pname, sGlParams, 0);
-        return sGlParams[0];
-    }
-
-    /**
-     * Wrapper for GLES20.glGetIntegerv with a better return interface.
-     */
-    private static int getIntegerv(int pname) {
-        GLES20.glGetIntegerv(pname, sGlParams, 0);
-        return sGlParams[0];
+        int[] glParams = GL_PARAMS.get();
+        GLES20.glGetProgramiv(program, pname, glParams, 0);
+        return glParams[0];
     }
 
     /// Member methods
@@ -180,10 +186,10 @@ public class ShaderProgram {
         // Technically, we could cache the compiled shader,
         // since a lot of shaders might share the same VS or FS. Unless the
         // number of reused shaders get large, there's not much of a gain.
-        int vertexShaderProg = COMPILED_SHADERS.get(vsName);
+        int vertexShaderProg = COMPILED_SHADERS.get().get(vsName);
         GLES20.glAttachShader(program, vertexShaderProg);
 
-        int fragmentShaderProg = COMPILED_SHADERS.get(psName);
+        int fragmentShaderProg = COMPILED_SHADERS.get().get(psName);
         GLES20.glAttachShader(program, fragmentShaderProg);
 
         // Check for errors
@@ -210,6 +216,7 @@ public class ShaderProgram {
      * Load the attributes from the compiled shader.
      */
     private void initAttributes() {
+        int[] glParams = GL_PARAMS.get();
         int numAttributes = getProgramiv(mProgram, GLES20.GL_ACTIVE_ATTRIBUTES);
         int maxNameSize =
                 getProgramiv(mProgram, GLES20.GL_ACTIVE_ATTRIBUTE_MAX_LENGTH);
@@ -217,12 +224,12 @@ public class ShaderProgram {
         byte[] nameBuffer = new byte[maxNameSize];
         for (int i = 0; i < numAttributes; ++i) {
             GLES20.glGetActiveAttrib(
-                    mProgram, i, maxNameSize, sGlParams, 0, sGlParams, 1,
-                    sGlParams, 2, nameBuffer, 0);
-            String name = new String(nameBuffer, 0, sGlParams[0]);
+                    mProgram, i, maxNameSize, glParams, 0, glParams, 1,
+                    glParams, 2, nameBuffer, 0);
+            String name = new String(nameBuffer, 0, glParams[0]);
             int location = GLES20.glGetAttribLocation(mProgram, name);
             mVertexAttributes.put(name, new ParamInfo(
-                    name, sGlParams[1], sGlParams[2], location));
+                    name, glParams[1], glParams[2], location));
         }
     }
 
@@ -238,6 +245,7 @@ public class ShaderProgram {
      * Load uniform info from compiled shader.
      */
     private void initUniforms() {
+        int[] glParams = GL_PARAMS.get();
         int numUniforms = getProgramiv(mProgram, GLES20.GL_ACTIVE_UNIFORMS);
         int maxNameSize =
                 getProgramiv(mProgram, GLES20.GL_ACTIVE_UNIFORM_MAX_LENGTH);
@@ -245,12 +253,12 @@ public class ShaderProgram {
         byte[] nameBuffer = new byte[maxNameSize];
         for (int i = 0; i < numUniforms; ++i) {
             GLES20.glGetActiveUniform(
-                    mProgram, i, maxNameSize, sGlParams, 0, sGlParams, 1,
-                    sGlParams, 2, nameBuffer, 0);
-            String name = new String(nameBuffer, 0, sGlParams[0]);
+                    mProgram, i, maxNameSize, glParams, 0, glParams, 1,
+                    glParams, 2, nameBuffer, 0);
+            String name = new String(nameBuffer, 0, glParams[0]);
             int location = GLES20.glGetUniformLocation(mProgram, name);
             mUniforms.put(name, new ParamInfo(
-                    name, sGlParams[1], sGlParams[2], location));
+                    name, glParams[1], glParams[2], location));
         }
     }
 
@@ -264,9 +272,7 @@ public class ShaderProgram {
 
     protected void beginRender() {
         // Only reset the program and bindings if it's not the same one.
-        if (getIntegerv(GLES20.GL_CURRENT_PROGRAM) != mProgram) {
-            GLES20.glUseProgram(mProgram);
-        }
+        GlState.get().useProgram(mProgram);
     }
 
     protected void endRender() {
@@ -163,7 +163,7 @@ public class Texture {
         mWidth = bitmap.getWidth();
         mHeight = bitmap.getHeight();
 
-        GLES20.glBindTexture(GLES20.GL_TEXTURE_2D, mTextureId[0]);
+        GlState.get().bindTexture(mTextureId[0]);
 
         GLES20.glTexParameteri(
                 GLES20.GL_TEXTURE_2D,
@@ -185,6 +185,14 @@ public class Texture {
         GLUtils.texImage2D(GLES20.GL_TEXTURE_2D, 0, bitmap, 0);
     }
 
+    /**
+     * Free the GL texture. The texture is not used afterwards.
+     */
+    public void delete() {
+        GLES20.glDeleteTextures(1, mTextureId, 0);
+        GlState.get().onTextureDeleted(mTextureId[0]);
+    }
+
     /**
      * @return the texture ID.
      */
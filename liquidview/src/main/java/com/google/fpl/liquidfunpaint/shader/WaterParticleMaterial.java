@@ -35,7 +35,13 @@ public class WaterParticleMaterial extends Material {
     private static final String TAG = "WaterParticleMaterial";
     private static final String DIFFUSE_TEXTURE_NAME = "uDiffuseTexture";
 
+    private final WorldLock mWorldLock;
+
     private float mParticleSizeScale;
+    // Size of the render surface along the shorter side of the world
+    private int mSurfaceSize = ParticleRenderer.FB_SIZE;
+    private final UniformInfo mPointSizeUniform;
+    private final UniformInfo mWeightParamsUniform;
     // Parameters for adding in particle weight.
     // 0: Scale - decreases the range of values
     // 1: Range shift - shift the range from [0.0, inf) to [value, inf) so we
@@ -43,8 +49,12 @@ public class WaterParticleMaterial extends Material {
     // 2: Cutoff - values above this will affect color
     private final float[] mWeightParams = new float[3];
 
-    public WaterParticleMaterial(Context context, JSONObject json) {
+    public WaterParticleMaterial(Context context, JSONObject json, WorldLock worldLock) {
         super(new ShaderProgram("water_particle.glslv", "particle.glslf"));
+        mWorldLock = worldLock;
+        mPointSizeUniform = getUniform("uPointSize");
+        mWeightParamsUniform = getUniform("uWeightParams");
+
 
         // Read in values from the JSON file
         mParticleSizeScale =
@@ -72,19 +82,27 @@ public class WaterParticleMaterial extends Material {
         }
     }
 
+    /**
+     * Size of the surface drawn to along the shorter side of the world,
+     * which the point size is relative to.
+     */
+    public void setSurfaceSize(int surfaceSize) {
+        mSurfaceSize = surfaceSize;
+    }
+
     @Override
     public void beginRender() {
         super.beginRender();
 
-        float pSize =  mParticleSizeScale * ParticleRenderer.FB_SIZE *
+        float pSize =  mParticleSizeScale * mSurfaceSize *
                 (ParticleSystems.PARTICLE_RADIUS /
-                        Math.min(WorldLock.getInstance().sRenderWorldWidth, WorldLock.getInstance().sRenderWorldHeight));
+                        Math.min(mWorldLock.sRenderWorldWidth, mWorldLock.sRenderWorldHeight));
 
         // Specific uniforms to this material
         GLES20.glUniform1f(
-                getUniformLocation("uPointSize"),
+                mPointSizeUniform.getLocation(),
                 Math.max(1.0f, pSize));
         GLES20.glUniform3fv(
-                getUniformLocation("uWeightParams"), 1, mWeightParams, 0);
+                mWeightParamsUniform.getLocation(), 1, mWeightParams, 0);
     }
 }
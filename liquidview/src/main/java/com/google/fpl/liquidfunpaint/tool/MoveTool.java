@@ -23,9 +23,8 @@ import android.view.View;
 import com.google.fpl.liquidfun.Fixture;
 import com.google.fpl.liquidfun.ParticleSystem;
 import com.google.fpl.liquidfun.QueryCallback;
-import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
-import com.google.fpl.liquidfunpaint.physics.WorldLock;
-import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
+import com.google.fpl.liquidfunpaint.physics.ParticleState;
+import com.google.fpl.liquidfunpaint.physics.ParticleStateReader;
 import com.google.fpl.liquidfunpaint.util.Observable;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
@@ -38,6 +37,8 @@ import java.util.Vector;
  */
 public class MoveTool extends Tool implements Observable.Observer<Float> {
     private MoveQueryCallback mCb = new MoveQueryCallback();
+    // Particle positions published after every step, while active
+    private ParticleStateReader mStateReader = null;
     private SparseArray<Vector<ParticleQueryResult>> mPointerResultList =
             new SparseArray<Vector<ParticleQueryResult>>();
 
@@ -60,6 +61,10 @@ public class MoveTool extends Tool implements Observable.Observer<Float> {
          * location.
          */
         Vector2f mDelta;
+        /**
+         * Velocity to set this frame, or null if the particle is gone.
+         */
+        Vector2f mVelocity;
 
         private ParticleQueryResult(
                 int index, PointerInfo pInfo, Vector2f delta) {
@@ -138,15 +143,15 @@ public class MoveTool extends Tool implements Observable.Observer<Float> {
     @Override
     protected void updatePointerInfo(PointerInfo pInfo, Vector2f worldPoint) {
         if (pInfo.isNewPointer()) {
-            WorldLock.getInstance().lock();
-            ParticleSystem ps = ParticleSystems.getInstance().get().particleSystem;
+            getWorldLock().lock();
+            ParticleSystem ps = getWorldLock().getParticleSystems().get().particleSystem;
             try {
                 mCb.set(this, pInfo);
                 mShape.setPosition(worldPoint.x, worldPoint.y);
                 mShape.setRadius(mBrushSize / 2);
                 ps.queryShapeAABB(mCb, mShape, MAT_IDENTITY);
             } finally {
-                WorldLock.getInstance().unlock();
+                getWorldLock().unlock();
             }
         }
     }
@@ -175,14 +180,25 @@ public class MoveTool extends Tool implements Observable.Observer<Float> {
         }
     }
 
+    @Override
+    protected void reset() {
+        super.reset();
+        mPointerResultList.clear();
+    }
+
     @Override
     public void deactivate() {
-        PhysicsLoop.getInstance().deleteObserver(this);
+        getPhysicsLoop().deleteObserver(this);
+        if (mStateReader != null) {
+            mStateReader.close();
+            mStateReader = null;
+        }
     }
 
     @Override
     public void activate() {
-        PhysicsLoop.getInstance().addObserver(this);
+        mStateReader = getWorldLock().getParticleSystems().openStateReader();
+        getPhysicsLoop().addObserver(this);
     }
 
     /**
@@ -199,48 +215,64 @@ public class MoveTool extends Tool implements Observable.Observer<Float> {
     }
 
     // This is called from the Update thread. We only update particle velocity
-    // once per frame.
+    // once per frame. Positions are read from the published particle state,
+    // so the WorldLock is only held to set the velocities.
     @Override
     public void update(Observable obj, Float arg) {
         // Scale the velocity by the framerate. However the max is still
         // limited by LiquidFun so the particles won't snap to finger.
         float velocityScale = 1 / arg;
 
-        WorldLock.getInstance().lock();
-        ParticleSystem ps = ParticleSystems.getInstance().get().particleSystem;
+        ParticleState state = mStateReader.acquire();
+        for (int i = 0; i < mPointerResultList.size(); ++i) {
+            Vector<ParticleQueryResult> particleList =
+                    mPointerResultList.valueAt(i);
+            for (ParticleQueryResult particle : particleList) {
+                if (particle.mIndex >= state.getParticleCount()) {
+                    particle.mVelocity = null;
+                    continue;
+                }
+
+                Vector2f p = new Vector2f(
+                        state.getPositionX(particle.mIndex),
+                        state.getPositionY(particle.mIndex));
+
+                // We don't want all our particles to move to the same
+                // point as it will cause instability.
+                // Account for the delta that we stored earlier.
+                Vector2f projectedP =
+                        particle.mPInfo.getWorldPoint().sub(particle.mDelta);
+
+                // The net velocity is:
+                // [(Particle's new location relative to current pointer loc)
+                // - (particle's old location)]
+                // The reason for not using the velocity vector [(current
+                // pointer location) - (previous pointer location)] is
+                // because we are adding impulses to the particles directly,
+                // and they might not have arrived at the previous pointer
+                // location due to velocity limits and other calculations in
+                // LiquidFun.
+                Vector2f velocity = projectedP.sub(p);
+                particle.mVelocity = velocity.mul(velocityScale);
+            }
+        }
+
+        getWorldLock().lock();
+        ParticleSystem ps = getWorldLock().getParticleSystems().get().particleSystem;
         try {
             for (int i = 0; i < mPointerResultList.size(); ++i) {
                 Vector<ParticleQueryResult> particleList =
                         mPointerResultList.valueAt(i);
                 for (ParticleQueryResult particle : particleList) {
-                    Vector2f p = new Vector2f(
-                            ps.getParticlePositionX(particle.mIndex),
-                            ps.getParticlePositionY(particle.mIndex));
-
-                    // We don't want all our particles to move to the same
-                    // point as it will cause instability.
-                    // Account for the delta that we stored earlier.
-                    Vector2f projectedP =
-                            particle.mPInfo.getWorldPoint().sub(particle.mDelta);
-
-                    // The net velocity is:
-                    // [(Particle's new location relative to current pointer loc)
-                    // - (particle's old location)]
-                    // The reason for not using the velocity vector [(current
-                    // pointer location) - (previous pointer location)] is
-                    // because we are adding impulses to the particles directly,
-                    // and they might not have arrived at the previous pointer
-                    // location due to velocity limits and other calculations in
-                    // LiquidFun.
-                    Vector2f velocity = projectedP.sub(p);
-                    velocity = velocity.mul(velocityScale);
-
-                    ps.setParticleVelocity(
-                            particle.mIndex, velocity.x, velocity.y);
+                    Vector2f velocity = particle.mVelocity;
+                    if (velocity != null) {
+                        ps.setParticleVelocity(
+                                particle.mIndex, velocity.x, velocity.y);
+                    }
                 }
             }
         } finally {
-            WorldLock.getInstance().unlock();
+            getWorldLock().unlock();
         }
     }
 }
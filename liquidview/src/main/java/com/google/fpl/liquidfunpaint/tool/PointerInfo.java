@@ -19,10 +19,10 @@ package com.google.fpl.liquidfunpaint.tool;
 import android.util.Log;
 
 import com.google.fpl.liquidfun.ParticleGroup;
+import com.google.fpl.liquidfunpaint.util.DirectBufferPool;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 
 /**
  * Maps each pointer ID to the particle group and the coordinate
@@ -50,25 +50,21 @@ public class PointerInfo {
     private int mNumPoints = 0;
 
     /**
-     * This is a static buffer for storing generated points per pointer.
-     * We allow PointerInfo to use this buffer in blocks.
+     * This is a buffer for storing generated points per pointer, one for
+     * each ToolSet. We allow PointerInfo to use this buffer in blocks.
      * Could be implemented as a ring buffer but currently we are going to throw
      * errors on memory overflow.
      */
-    private static class PointerInputBuffer {
+    static class PointerInputBuffer {
         private static final int FLUSH_LIMIT = 120;
         // 2 times flush limit for enough padding
         private static final int BLOCK_SIZE = FLUSH_LIMIT * 2;
         // Assume maximum of 40 unique pointers on a screen
         private static final int TOTAL_BUFFER_SIZE = BLOCK_SIZE * 40;
-        private ByteBuffer mByteBuffer;
+        private ByteBuffer mByteBuffer = null;
         private int mBufferEnd = 0;
 
-        private PointerInputBuffer() {
-            mByteBuffer = ByteBuffer
-                    .allocateDirect(TOTAL_BUFFER_SIZE)
-                    .order(ByteOrder.nativeOrder());
-        }
+        PointerInputBuffer() {}
 
         private int getNewBlock() {
             int newBlock = mBufferEnd;
@@ -82,35 +78,42 @@ public class PointerInfo {
 
         private int putPoint(int index, Vector2f point) {
             int currIndex = index;
-            mByteBuffer.putFloat(currIndex, point.x);
+            getRawBuffer().putFloat(currIndex, point.x);
             currIndex += 4;
-            mByteBuffer.putFloat(currIndex, point.y);
+            getRawBuffer().putFloat(currIndex, point.y);
             currIndex += 4;
             return currIndex;
         }
 
-        private void reset() {
-            mByteBuffer.clear();
+        void reset() {
+            if (mByteBuffer != null) {
+                mByteBuffer.clear();
+            }
+            mBufferEnd = 0;
+        }
+
+        /** Give the buffer back to the pool; it is acquired again on use */
+        void release() {
+            DirectBufferPool.getInstance().release(mByteBuffer);
+            mByteBuffer = null;
             mBufferEnd = 0;
         }
 
         private ByteBuffer getRawBuffer() {
+            if (mByteBuffer == null) {
+                mByteBuffer = DirectBufferPool.getInstance().acquire(TOTAL_BUFFER_SIZE);
+            }
             return mByteBuffer;
         }
     }
 
-    // The actual buffer for storing pointer inputs
-    private static PointerInputBuffer sPointerInputBuffer =
-            new PointerInputBuffer();
-
-    // Static methods
-    protected static void resetGlobalBuffer() {
-        sPointerInputBuffer.reset();
-    }
+    // The buffer of the tool set for storing pointer inputs
+    private final PointerInputBuffer mPointerInputBuffer;
 
     // Member methods
-    protected PointerInfo(int pointerId) {
+    protected PointerInfo(int pointerId, PointerInputBuffer inputBuffer) {
         mPointerId = pointerId;
+        mPointerInputBuffer = inputBuffer;
     }
 
     protected boolean isNewPointer() {
@@ -138,7 +141,7 @@ public class PointerInfo {
     }
 
     protected ByteBuffer getRawPointsBuffer() {
-        return sPointerInputBuffer.getRawBuffer();
+        return mPointerInputBuffer.getRawBuffer();
     }
 
     protected Vector2f getWorldPoint() {
@@ -154,7 +157,7 @@ public class PointerInfo {
         if (isNewPointer()) {
             mWorldPoint = new Vector2f(worldPoint);
             if (storeInput) {
-                mBufferBlockStart = sPointerInputBuffer.getNewBlock();
+                mBufferBlockStart = mPointerInputBuffer.getNewBlock();
                 mBufferBlockCurrent = mBufferBlockStart;
             }
         }
@@ -179,7 +182,7 @@ public class PointerInfo {
                         "Increase block size or decrease flush limit.");
             } else {
                 mBufferBlockCurrent =
-                    sPointerInputBuffer.putPoint(mBufferBlockCurrent, point);
+                    mPointerInputBuffer.putPoint(mBufferBlockCurrent, point);
                 ++mNumPoints;
             }
         }
@@ -24,15 +24,14 @@ import com.google.fpl.liquidfun.CircleShape;
 import com.google.fpl.liquidfun.ParticleColor;
 import com.google.fpl.liquidfun.ParticleGroup;
 import com.google.fpl.liquidfun.ParticleGroupDef;
-import com.google.fpl.liquidfun.ParticleSystem;
 import com.google.fpl.liquidfun.Transform;
 import com.google.fpl.liquidfun.Vec2;
-import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
+import com.google.fpl.liquidfunpaint.physics.DrawableParticleSystem;
 import com.google.fpl.liquidfunpaint.physics.WorldLock;
+import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 import java.nio.ByteBuffer;
-import java.util.EnumMap;
 import java.util.EnumSet;
 
 /**
@@ -41,8 +40,6 @@ import java.util.EnumSet;
 public abstract class Tool {
     private static final String TAG = "Tool";
     // static members of the class
-    private static final EnumMap<ToolType, Tool> TOOL_MAP =
-            new EnumMap<ToolType, Tool>(constructToolMap());
     protected static final Transform MAT_IDENTITY;
     // The size of the circle shape we use to create ParticleGroups with.
     // Independent from the particle radius, but should not be smaller than it.
@@ -62,13 +59,11 @@ public abstract class Tool {
         ADD_PARTICLES, REMOVE_PARTICLES,
     }
 
-    // Static variables
-    // Only one tool is active at a time, and all PointerInfos should be global
-    private static SparseArray<PointerInfo> mGroupMap =
-            new SparseArray<PointerInfo>();
-
     // Member variables of the class
     private ToolType mType;
+    // Set of the view this tool is used in, with the pointers it tracks
+    private ToolSet mToolSet = null;
+    private SparseArray<PointerInfo> mGroupMap = null;
     protected int mParticleFlags = 0;
     protected int mParticleGroupFlags = 0;
     protected float mBrushSize = MINIMUM_BRUSHSIZE;
@@ -87,41 +82,6 @@ public abstract class Tool {
         MAT_IDENTITY.setIdentity();
     }
 
-    /** Initializes all the different tools */
-    private static EnumMap<ToolType, Tool> constructToolMap() {
-        EnumMap<ToolType, Tool> toolMap =
-                new EnumMap<ToolType, Tool>(ToolType.class);
-
-        Tool moveTool = new MoveTool();
-        toolMap.put(ToolType.MOVE, moveTool);
-
-        Tool eraserTool = new EraserTool();
-        toolMap.put(ToolType.ERASER, eraserTool);
-
-        Tool waterTool = new WaterTool();
-        toolMap.put(ToolType.WATER, waterTool);
-
-        Tool pencilTool = new PencilTool();
-        toolMap.put(ToolType.PENCIL, pencilTool);
-
-        Tool rigidTool = new RigidTool();
-        toolMap.put(ToolType.RIGID, rigidTool);
-
-        return toolMap;
-    }
-
-    /** Returns the tool based on the type */
-    public static Tool getTool(ToolType type) {
-        return TOOL_MAP.get(type);
-    }
-
-    /** Goes through all tools and call reset() */
-    public static void resetAllTools() {
-        for (Tool tool : TOOL_MAP.values()) {
-            tool.reset();
-        }
-    }
-
     public Tool(ToolType type) {
         mType = type;
     }
@@ -149,18 +109,36 @@ public abstract class Tool {
         mColor.set(r, g, b, a);
     }
 
+    /** Called once by the ToolSet that owns this tool */
+    void setToolSet(ToolSet toolSet) {
+        mToolSet = toolSet;
+        mGroupMap = toolSet.getGroupMap();
+    }
+
+    protected PhysicsLoop getPhysicsLoop() {
+        return mToolSet.getPhysicsLoop();
+    }
+
+    protected WorldLock getWorldLock() {
+        return getPhysicsLoop().getWorldLock();
+    }
+
     public int getParticleGroupFlags() {
         return mParticleGroupFlags;
     }
 
     public void onTouch(View v, MotionEvent e) {
+        // The tool is about to change the world, so it can't stay at rest
+        getWorldLock().wake();
+
         switch (e.getActionMasked()) {
           case MotionEvent.ACTION_DOWN:
           case MotionEvent.ACTION_POINTER_DOWN: {
               int pointerIndex = e.getActionIndex();
               int pID = e.getPointerId(pointerIndex);
               // Create new PointerInfo as this is a new pointer
-              PointerInfo pInfo = new PointerInfo(pID);
+              PointerInfo pInfo =
+                      new PointerInfo(pID, mToolSet.getInputBuffer());
               assert (mGroupMap.get(pID) == null);
               processTouchInput(v, e, pInfo, pointerIndex, true, true);
               // Put updated PointerInfo back in map
@@ -172,9 +150,11 @@ public abstract class Tool {
                       pointerIndex < e.getPointerCount();
                       ++pointerIndex) {
                   int pID = e.getPointerId(pointerIndex);
-                  // Get cached PointerInfo
+                  // Get cached PointerInfo; none if dropped on release
                   PointerInfo pInfo = mGroupMap.get(pID);
-                  assert (pInfo != null);
+                  if (pInfo == null) {
+                      continue;
+                  }
                   processTouchInput(v, e, pInfo, pointerIndex, true, true);
                   // Put updated PointerInfo back in map
                   mGroupMap.put(pID, pInfo);
@@ -185,10 +165,11 @@ public abstract class Tool {
           case MotionEvent.ACTION_POINTER_UP:{
               int pointerIndex = e.getActionIndex();
               int pID = e.getPointerId(pointerIndex);
-              // Get cached PointerInfo
+              // Get cached PointerInfo; none if dropped on release
               PointerInfo pInfo = mGroupMap.get(pID);
-              assert (pInfo != null);
-              processTouchInput(v, e, pInfo, pointerIndex, true, true);
+              if (pInfo != null) {
+                  processTouchInput(v, e, pInfo, pointerIndex, true, true);
+              }
               // Pointer is up -- end the action.
               endAction(pID);
               break;
@@ -211,11 +192,11 @@ public abstract class Tool {
         worldPoint.x = Math.max(border,
                 Math.min(
                         worldPoint.x,
-                        WorldLock.getInstance().sRenderWorldWidth - border));
+                        getWorldLock().sRenderWorldWidth - border));
         worldPoint.y = Math.max(border,
                 Math.min(
                         worldPoint.y,
-                        WorldLock.getInstance().sRenderWorldHeight - border));
+                        getWorldLock().sRenderWorldHeight - border));
     }
 
     /**
@@ -257,9 +238,9 @@ public abstract class Tool {
         float radius = mBrushSize / 2;
 
         Vector2f worldPoint = new Vector2f(
-                WorldLock.getInstance().sRenderWorldWidth
+                getWorldLock().sRenderWorldWidth
                     * screenX / v.getWidth(),
-                WorldLock.getInstance().sRenderWorldHeight *
+                getWorldLock().sRenderWorldHeight *
                     (v.getHeight() - screenY)
                 / v.getHeight());
         clampToWorld(worldPoint, radius);
@@ -328,13 +309,13 @@ public abstract class Tool {
     protected void endAction(int pointerId) {
         mGroupMap.remove(pointerId);
         if (mGroupMap.size() == 0) {
-            PointerInfo.resetGlobalBuffer();
+            mToolSet.getInputBuffer().reset();
         }
     }
 
     /** Reset the tool */
     protected void reset() {
-        PointerInfo.resetGlobalBuffer();
+        mToolSet.getInputBuffer().reset();
     }
 
     /**
@@ -359,8 +340,8 @@ public abstract class Tool {
                     radius);
         }
 
-        WorldLock.getInstance().lock();
-        ParticleSystem ps = ParticleSystems.getInstance().get().particleSystem;
+        getWorldLock().lock();
+        DrawableParticleSystem dps = getWorldLock().getParticleSystems().get();
         try {
             if (mOperations.contains(ToolOperation.REMOVE_PARTICLES)) {
                 buffer.position(pInfo.getBufferStart());
@@ -370,27 +351,25 @@ public abstract class Tool {
                 for (int i = 0; i < pInfo.getNumPoints(); ++i) {
                     mShape.setPosition(
                             buffer.getFloat(), buffer.getFloat());
-                    ps.destroyParticlesInShape(mShape, MAT_IDENTITY);
+                    dps.destroyParticlesInShape(mShape, MAT_IDENTITY);
                 }
             }
 
             // Create ParticleGroup
             if (pgd != null) {
                 // Join to existing group if the group has the same flags
-                ParticleGroup pGroup = ps.createParticleGroup(pgd);
                 ParticleGroup existingGroup = pInfo.getParticleGroup();
-                if ((existingGroup == null) ||
+                if ((existingGroup != null) &&
                     (existingGroup.getGroupFlags() != pgd.getGroupFlags())) {
-                    pInfo.setParticleGroup(pGroup);
-                } else {
-                    ps.joinParticleGroups(existingGroup, pGroup);
+                    existingGroup = null;
                 }
+                pInfo.setParticleGroup(dps.createParticleGroup(pgd, existingGroup));
 
                 // Clean up native objects
                 pgd.delete();
             }
         } finally {
-            WorldLock.getInstance().unlock();
+            getWorldLock().unlock();
         }
     }
 
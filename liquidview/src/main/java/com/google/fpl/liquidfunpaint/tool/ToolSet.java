@@ -0,0 +1,89 @@
+package com.google.fpl.liquidfunpaint.tool;
+
+import android.util.SparseArray;
+
+import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
+import com.google.fpl.liquidfunpaint.tool.Tool.ToolType;
+
+import java.util.EnumMap;
+
+/**
+ * The tools of one view. Each view has its own world, so it gets its own
+ * tools, along with the pointers they are tracking and the buffer of points
+ * generated for them.
+ */
+public class ToolSet {
+    private final PhysicsLoop mPhysicsLoop;
+    private final EnumMap<ToolType, Tool> mToolMap;
+    // Only one tool is active at a time, so all its tools share the pointers
+    private final SparseArray<PointerInfo> mGroupMap =
+            new SparseArray<PointerInfo>();
+    private final PointerInfo.PointerInputBuffer mInputBuffer =
+            new PointerInfo.PointerInputBuffer();
+
+    public ToolSet(PhysicsLoop physicsLoop) {
+        mPhysicsLoop = physicsLoop;
+        mToolMap = constructToolMap();
+        for (Tool tool : mToolMap.values()) {
+            tool.setToolSet(this);
+        }
+    }
+
+    /** Initializes all the different tools */
+    private static EnumMap<ToolType, Tool> constructToolMap() {
+        EnumMap<ToolType, Tool> toolMap =
+                new EnumMap<ToolType, Tool>(ToolType.class);
+
+        Tool moveTool = new MoveTool();
+        toolMap.put(ToolType.MOVE, moveTool);
+
+        Tool eraserTool = new EraserTool();
+        toolMap.put(ToolType.ERASER, eraserTool);
+
+        Tool waterTool = new WaterTool();
+        toolMap.put(ToolType.WATER, waterTool);
+
+        Tool pencilTool = new PencilTool();
+        toolMap.put(ToolType.PENCIL, pencilTool);
+
+        Tool rigidTool = new RigidTool();
+        toolMap.put(ToolType.RIGID, rigidTool);
+
+        return toolMap;
+    }
+
+    /** Returns the tool based on the type */
+    public Tool getTool(ToolType type) {
+        return mToolMap.get(type);
+    }
+
+    /** Goes through all tools and call reset() */
+    public void resetAllTools() {
+        for (Tool tool : mToolMap.values()) {
+            tool.reset();
+        }
+    }
+
+    /**
+     * Drop all pointers and particle groups, which belong to a world that is
+     * going away, and free the buffer of generated points. The set can still
+     * be used afterwards.
+     */
+    public void release() {
+        mGroupMap.clear();
+        resetAllTools();
+        mInputBuffer.release();
+    }
+
+    PhysicsLoop getPhysicsLoop() {
+        return mPhysicsLoop;
+    }
+
+    SparseArray<PointerInfo> getGroupMap() {
+        return mGroupMap;
+    }
+
+    PointerInfo.PointerInputBuffer getInputBuffer() {
+        return mInputBuffer;
+    }
+}
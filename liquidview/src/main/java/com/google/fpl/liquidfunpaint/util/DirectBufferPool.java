@@ -0,0 +1,228 @@
+package com.google.fpl.liquidfunpaint.util;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.ArrayDeque;
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+/**
+ * Hands out the direct ByteBuffers of the engine, so its direct memory is
+ * bounded, reused and accounted for in one place, rather than spread over
+ * separate native allocations the GC only reclaims late.
+ *
+ * Buffers come in power-of-two size classes. Small ones are carved out of
+ * shared slabs; larger ones are allocated on their own. Released buffers go
+ * back to the free list of their class and are handed out again, e.g. to the
+ * particle systems created by the next world reset. Slabs are kept for good;
+ * free large buffers beyond setMaxRetainedBytes() are left to the GC.
+ * Requests larger than the largest class are not pooled.
+ *
+ * Thread safe.
+ */
+public class DirectBufferPool {
+
+    private static final int MIN_CLASS_SHIFT = 6;
+    // Classes up to this one are carved out of slabs
+    private static final int MAX_SLAB_CLASS_SHIFT = 16;
+    private static final int MAX_CLASS_SHIFT = 24;
+    private static final int SLAB_SIZE = 256 * 1024;
+
+    public static final int DEFAULT_MAX_RETAINED_BYTES = 4 * 1024 * 1024;
+
+    // Backs every empty buffer
+    private static final ByteBuffer EMPTY = allocate(0);
+
+    private static DirectBufferPool sInstance = new DirectBufferPool();
+
+    public static DirectBufferPool getInstance() {
+        return sInstance;
+    }
+
+    // Free buffers of every class, indexed by shift - MIN_CLASS_SHIFT
+    @SuppressWarnings("unchecked")
+    private final ArrayDeque<ByteBuffer>[] mFreeLists =
+            new ArrayDeque[MAX_CLASS_SHIFT - MIN_CLASS_SHIFT + 1];
+    // Buffers handed out, and their size in bytes
+    private final Map<ByteBuffer, Integer> mInUse = new IdentityHashMap<>();
+
+    // Slab being carved, and the first byte not carved yet
+    private ByteBuffer mSlab = null;
+    private int mSlabEnd = SLAB_SIZE;
+
+    private long mSlabBytes = 0;
+    private long mLargeBytes = 0;
+    private long mInUseBytes = 0;
+    private long mFreeLargeBytes = 0;
+    private long mMaxRetainedBytes = DEFAULT_MAX_RETAINED_BYTES;
+
+    private DirectBufferPool() {
+        for (int i = 0; i < mFreeLists.length; i++)
+            mFreeLists[i] = new ArrayDeque<>();
+    }
+
+    /**
+     * A direct buffer in native order, with at least size bytes of capacity
+     * and its limit at size. Its contents are undefined. Hand it back with
+     * release() once it is no longer used. Empty buffers take no memory.
+     */
+    public synchronized ByteBuffer acquire(int size) {
+        if (size < 0)
+            throw new IllegalArgumentException("Invalid size " + size);
+        if (size == 0)
+            return EMPTY.duplicate().order(ByteOrder.nativeOrder());
+
+        int shift = getClassShift(size);
+        ByteBuffer buffer;
+        if (shift > MAX_CLASS_SHIFT) {
+            buffer = allocate(size);
+            mLargeBytes += size;
+        } else {
+            buffer = mFreeLists[shift - MIN_CLASS_SHIFT].poll();
+            if (buffer == null) {
+                buffer = shift <= MAX_SLAB_CLASS_SHIFT ? carve(shift) : allocateLarge(shift);
+            } else if (shift > MAX_SLAB_CLASS_SHIFT) {
+                mFreeLargeBytes -= buffer.capacity();
+            }
+        }
+
+        buffer.clear();
+        buffer.limit(size);
+        mInUse.put(buffer, buffer.capacity());
+        mInUseBytes += buffer.capacity();
+        return buffer;
+    }
+
+    /**
+     * Give back a buffer from acquire(). It must not be used afterwards,
+     * including through views of it. Passing null does nothing.
+     */
+    public synchronized void release(ByteBuffer buffer) {
+        if (buffer == null || buffer.capacity() == 0)
+            return;
+
+        Integer capacity = mInUse.remove(buffer);
+        if (capacity == null)
+            throw new IllegalArgumentException("Buffer not acquired from this pool");
+        mInUseBytes -= capacity;
+
+        int shift = getClassShift(capacity);
+        if (shift > MAX_CLASS_SHIFT) {
+            mLargeBytes -= capacity;
+        } else if (shift <= MAX_SLAB_CLASS_SHIFT) {
+            mFreeLists[shift - MIN_CLASS_SHIFT].push(buffer);
+        } else if (mFreeLargeBytes + capacity <= mMaxRetainedBytes) {
+            mFreeLists[shift - MIN_CLASS_SHIFT].push(buffer);
+            mFreeLargeBytes += capacity;
+        } else {
+            mLargeBytes -= capacity;
+        }
+    }
+
+    /**
+     * Most bytes of free large buffers kept for reuse.
+     */
+    public synchronized void setMaxRetainedBytes(long maxRetainedBytes) {
+        mMaxRetainedBytes = maxRetainedBytes;
+        dropFreeLargeBuffers(maxRetainedBytes);
+    }
+
+    /**
+     * Leave all free large buffers to the GC, e.g. when the app is trimming
+     * its memory.
+     */
+    public synchronized void trim() {
+        dropFreeLargeBuffers(0);
+    }
+
+    /**
+     * Direct memory held by the pool, in bytes: slabs, and large buffers in
+     * use or free.
+     */
+    public synchronized long getFootprint() {
+        return mSlabBytes + mLargeBytes;
+    }
+
+    /**
+     * Bytes of the buffers currently handed out, rounded up to their class.
+     */
+    public synchronized long getInUseBytes() {
+        return mInUseBytes;
+    }
+
+    public synchronized int getInUseCount() {
+        return mInUse.size();
+    }
+
+    @Override
+    public synchronized String toString() {
+        return "DirectBufferPool: " + getFootprint() / 1024 + " KB held, " +
+                mInUseBytes / 1024 + " KB in " + mInUse.size() + " buffers in use, " +
+                mSlabBytes / 1024 + " KB in slabs";
+    }
+
+    private void dropFreeLargeBuffers(long maxRetainedBytes) {
+        for (int shift = MAX_CLASS_SHIFT;
+             shift > MAX_SLAB_CLASS_SHIFT && mFreeLargeBytes > maxRetainedBytes; shift--) {
+            ArrayDeque<ByteBuffer> freeList = mFreeLists[shift - MIN_CLASS_SHIFT];
+            while (!freeList.isEmpty() && mFreeLargeBytes > maxRetainedBytes) {
+                int capacity = freeList.pop().capacity();
+                mFreeLargeBytes -= capacity;
+                mLargeBytes -= capacity;
+            }
+        }
+    }
+
+    private static int getClassShift(int size) {
+        if (size <= 1 << MIN_CLASS_SHIFT)
+            return MIN_CLASS_SHIFT;
+        return 32 - Integer.numberOfLeadingZeros(size - 1);
+    }
+
+    private static ByteBuffer allocate(int size) {
+        return ByteBuffer.allocateDirect(size).order(ByteOrder.nativeOrder());
+    }
+
+    private ByteBuffer allocateLarge(int shift) {
+        mLargeBytes += 1 << shift;
+        return allocate(1 << shift);
+    }
+
+    /**
+     * Cut a buffer of a slab class out of the current slab, starting a new
+     * slab if it is full.
+     */
+    private ByteBuffer carve(int shift) {
+        int size = 1 << shift;
+        if (mSlabEnd + size > SLAB_SIZE) {
+            freeSlabRemainder();
+            mSlab = allocate(SLAB_SIZE);
+            mSlabEnd = 0;
+            mSlabBytes += SLAB_SIZE;
+        }
+
+        ByteBuffer buffer = slice(mSlabEnd, size);
+        mSlabEnd += size;
+        return buffer;
+    }
+
+    /**
+     * Put what is left of the current slab on the free lists. Every class is
+     * a multiple of the smallest one, so the remainder splits up exactly.
+     */
+    private void freeSlabRemainder() {
+        for (int shift = MAX_SLAB_CLASS_SHIFT; shift >= MIN_CLASS_SHIFT; shift--) {
+            int size = 1 << shift;
+            while (mSlabEnd + size <= SLAB_SIZE) {
+                mFreeLists[shift - MIN_CLASS_SHIFT].push(slice(mSlabEnd, size));
+                mSlabEnd += size;
+            }
+        }
+    }
+
+    private ByteBuffer slice(int offset, int size) {
+        ByteBuffer slab = mSlab.duplicate();
+        slab.position(offset).limit(offset + size);
+        return slab.slice().order(ByteOrder.nativeOrder());
+    }
+}
@@ -18,17 +18,16 @@ package com.google.fpl.liquidfunpaint.util;
 
 import com.google.fpl.liquidfun.PolygonShape;
 import com.google.fpl.liquidfun.Vec2;
-import com.google.fpl.liquidfunpaint.physics.WorldLock;
 
 public final class MathHelper {
     public static float clamp(float value, float min, float max) {
         return Math.max(min, Math.min(max, value));
     }
 
-    public static Vec2 normalizePosition(Vec2 pos){
+    public static Vec2 normalizePosition(Vec2 pos, float worldWidth, float worldHeight){
         Vec2 normal = new Vec2();
-        normal.setX(2*(pos.getX() - WorldLock.getInstance().sRenderWorldWidth/2)/WorldLock.getInstance().sRenderWorldWidth);
-        normal.setY(2*(pos.getY() - WorldLock.getInstance().sRenderWorldHeight/2)/WorldLock.getInstance().sRenderWorldHeight);
+        normal.setX(2*(pos.getX() - worldWidth/2)/worldWidth);
+        normal.setY(2*(pos.getY() - worldHeight/2)/worldHeight);
         return normal;
     }
 
@@ -42,9 +41,10 @@ public final class MathHelper {
         return points;
     }
 
-    public static Vector2f[] normalizeVertices(Vector2f[] originalVertices, float viewWidth, float viewHeight){
-        float widthRatio = WorldLock.getInstance().sRenderWorldWidth / viewWidth;
-        float heightRatio = WorldLock.getInstance().sRenderWorldHeight / viewHeight;
+    public static Vector2f[] normalizeVertices(Vector2f[] originalVertices, float viewWidth, float viewHeight,
+                                              float worldWidth, float worldHeight){
+        float widthRatio = worldWidth / viewWidth;
+        float heightRatio = worldHeight / viewHeight;
 
         Vector2f[] normalizedVerts = new Vector2f[originalVertices.length];
 
@@ -18,10 +18,6 @@ package com.google.fpl.liquidfunpaint.util;
 
 import android.opengl.Matrix;
 
-import com.google.fpl.liquidfunpaint.physics.WorldLock;
-
-import java.nio.ByteBuffer;
-import java.nio.ByteOrder;
 import java.nio.FloatBuffer;
 
 /**
@@ -49,12 +45,13 @@ public class RenderHelper {
 
     static {
         SCREEN_QUAD_VERTEX_BUFFER =
-                ByteBuffer.allocateDirect(SCREEN_QUAD_VERTEX_DATA.length * 4)
-                .order(ByteOrder.nativeOrder()).asFloatBuffer();
+                DirectBufferPool.getInstance().acquire(SCREEN_QUAD_VERTEX_DATA.length * 4)
+                .asFloatBuffer();
         SCREEN_QUAD_VERTEX_BUFFER.put(SCREEN_QUAD_VERTEX_DATA).position(0);
     }
 
-    public static void createTransformMatrix(float[] mPerspectiveTransform, float[] mTransformFromTexture, float height, float width){
+    public static void createTransformMatrix(float[] mPerspectiveTransform, float[] mTransformFromTexture, float height, float width,
+                                             float worldWidth, float worldHeight){
 
         // Set up the transform
         float ratio = (float) height / width;
@@ -95,8 +92,8 @@ public class RenderHelper {
         Matrix.scaleM(
                 mTransformFromWorld,
                 0,
-                1 / WorldLock.getInstance().sRenderWorldWidth,
-                1 / WorldLock.getInstance().sRenderWorldHeight,
+                1 / worldWidth,
+                1 / worldHeight,
                 1);
 
         Matrix.multiplyMM(mPerspectiveTransform, 0, mTempMatrix, 0, mTransformFromWorld, 0);
@@ -45,8 +45,17 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
     private boolean paused = true;
     private boolean rendererChanged = false;
 
+    // Same modes as GLSurfaceView
+    private int renderMode = GLSurfaceView.RENDERMODE_CONTINUOUSLY;
+    private boolean renderRequested = false;
+
     private RenderThread thread;
 
+    // Wakes the render thread from waitForWake(), like GLSurfaceView does,
+    // rather than interrupting it wherever it is
+    private final Object mWakeLock = new Object();
+    private boolean mWakeRequested = false;
+
     private int targetFps;
 
     public GLTextureView(Context context) {
@@ -108,6 +117,51 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
         return paused;
     }
 
+    /**
+     * Either GLSurfaceView.RENDERMODE_CONTINUOUSLY, or
+     * GLSurfaceView.RENDERMODE_WHEN_DIRTY to only draw on requestRender().
+     */
+    public synchronized void setRenderMode(int mode){
+        renderMode = mode;
+        wakeThread();
+    }
+
+    public synchronized int getRenderMode(){
+        return renderMode;
+    }
+
+    public synchronized void requestRender(){
+        renderRequested = true;
+        wakeThread();
+    }
+
+    private void wakeThread(){
+        synchronized (mWakeLock) {
+            mWakeRequested = true;
+            mWakeLock.notifyAll();
+        }
+    }
+
+    /**
+     * Wait on the render thread until woken up, or for at most millis.
+     */
+    private void waitForWake(long millis){
+        synchronized (mWakeLock) {
+            if (!mWakeRequested) {
+                try {
+                    mWakeLock.wait(millis);
+                } catch (InterruptedException e) {
+                    // Ignore; stopThread() wakes the thread instead
+                }
+            }
+            mWakeRequested = false;
+        }
+    }
+
+    private synchronized boolean isWaitingForRequest(){
+        return renderMode == GLSurfaceView.RENDERMODE_WHEN_DIRTY && !renderRequested;
+    }
+
     @Override
     public boolean onSurfaceTextureDestroyed(SurfaceTexture surface) {
         stopThread();
@@ -118,6 +172,7 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
         if(thread != null){
             Log.d(TAG, "Stopping and joining GLTextureView");
             isRunning = false;
+            wakeThread();
             try {
                 thread.join();
             } catch (InterruptedException e) {
@@ -130,7 +185,7 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
     }
 
     private boolean shouldSleep(){
-        return isPaused() || mRenderer == null;
+        return isPaused() || mRenderer == null || isWaitingForRequest();
     }
 
     private class RenderThread extends Thread {
@@ -145,12 +200,7 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
 
             while (isRunning) {
                 while (mRenderer == null){
-                    try {
-                        Thread.sleep(100);
-                    } catch (InterruptedException e){
-                        // Ignore
-                    }
-
+                    waitForWake(100);
                 }
 
                 if(rendererChanged){
@@ -165,17 +215,13 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
                     drawSingleFrame();
                 }
 
-                try {
-                    if (shouldSleep())
-                        Thread.sleep(100);
-                    else {
-                        long thisFrameTime = System.currentTimeMillis();
-                        long timDiff = thisFrameTime - lastFrameTime;
-                        lastFrameTime = thisFrameTime;
-                        Thread.sleep(Math.max(10l, targetFrameDurationMillis - timDiff));
-                    }
-                } catch (InterruptedException e) {
-// Ignore
+                if (shouldSleep())
+                    waitForWake(100);
+                else {
+                    long thisFrameTime = System.currentTimeMillis();
+                    long timDiff = thisFrameTime - lastFrameTime;
+                    lastFrameTime = thisFrameTime;
+                    waitForWake(Math.max(10l, targetFrameDurationMillis - timDiff));
                 }
             }
         }
@@ -190,6 +236,7 @@ public class GLTextureView extends TextureView implements TextureView.SurfaceTex
     }
 
     private synchronized void drawSingleFrame() {
+        renderRequested = false;
         checkCurrent();
 
         if(mRenderer != null)
@@ -7,6 +7,7 @@ import com.google.fpl.liquidfunpaint.physics.actions.ParticleEraser;
 import com.google.fpl.liquidfunpaint.physics.actions.ParticleGroup;
 import com.google.fpl.liquidfunpaint.physics.actions.PhysicsCommand;
 import com.google.fpl.liquidfunpaint.physics.actions.SolidShape;
+import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
 import com.google.fpl.liquidfunpaint.util.Vector2f;
 
 /**
@@ -23,5 +24,10 @@ public interface ILiquidWorld {
 
     void clearAll();
 
+    /**
+     * The engine owned by this view, with its own world.
+     */
+    PhysicsLoop getPhysicsLoop();
+
     void setOnTouchListener(View.OnTouchListener listener);
 }
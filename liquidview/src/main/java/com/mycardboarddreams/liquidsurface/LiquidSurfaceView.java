@@ -6,6 +6,7 @@ import android.graphics.PixelFormat;
 import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 
+import com.google.fpl.liquidfunpaint.physics.RestDetector;
 import com.google.fpl.liquidfunpaint.physics.WorldLock;
 import com.google.fpl.liquidfunpaint.physics.actions.ParticleGroup;
 import com.google.fpl.liquidfunpaint.physics.actions.SolidShape;
@@ -53,9 +54,9 @@ public class LiquidSurfaceView extends GLSurfaceView implements ILiquidWorld {
         if(isInEditMode())
             return;
         
-        mPhysicsLoop = PhysicsLoop.getInstance();
+        mPhysicsLoop = new PhysicsLoop();
         mPhysicsLoop.init(context);
-        mWorldLock = WorldLock.getInstance();
+        mWorldLock = mPhysicsLoop.getWorldLock();
 
         setEGLContextClientVersion(2);
         setEGLConfigChooser(8, 8, 8, 8, 16, 0);
@@ -68,7 +69,43 @@ public class LiquidSurfaceView extends GLSurfaceView implements ILiquidWorld {
 
         setRenderer(mPhysicsLoop);
 
-        mController = new RotatableController((Activity)context);
+        mController = new RotatableController((Activity)context, mPhysicsLoop);
+
+        // Keep the last frame on screen while the world is at rest
+        mWorldLock.getRestDetector().addRestListener(new RestDetector.RestListener() {
+            @Override
+            public void onRest() {
+                setRenderMode(RENDERMODE_WHEN_DIRTY);
+            }
+
+            @Override
+            public void onWake() {
+                setRenderMode(RENDERMODE_CONTINUOUSLY);
+            }
+        });
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        // Attached again after onDetachedFromWindow() freed the world
+        if (mPhysicsLoop != null && mPhysicsLoop.isDisposed())
+            mPhysicsLoop.reset();
+        super.onAttachedToWindow();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // Stops the GL thread first
+        super.onDetachedFromWindow();
+        if (mPhysicsLoop != null) {
+            mController.release();
+            mPhysicsLoop.dispose();
+        }
+    }
+
+    @Override
+    public PhysicsLoop getPhysicsLoop() {
+        return mPhysicsLoop;
     }
 
     @Override
@@ -2,11 +2,13 @@ package com.mycardboarddreams.liquidsurface;
 
 import android.app.Activity;
 import android.content.Context;
+import android.opengl.GLSurfaceView;
 import android.util.AttributeSet;
 import android.view.TextureView;
 
 import com.google.fpl.liquidfunpaint.LiquidPaint;
 import com.google.fpl.liquidfunpaint.physics.ParticleSystems;
+import com.google.fpl.liquidfunpaint.physics.RestDetector;
 import com.google.fpl.liquidfunpaint.physics.WorldLock;
 import com.google.fpl.liquidfunpaint.physics.actions.ParticleEraser;
 import com.google.fpl.liquidfunpaint.physics.actions.ParticleGroup;
@@ -62,13 +64,50 @@ public class LiquidTextureView extends GLTextureView implements ILiquidWorld {
 
         Activity activity = (Activity)context;
 
-        mPhysicsLoop = PhysicsLoop.getInstance();
+        mPhysicsLoop = new PhysicsLoop();
         mPhysicsLoop.init(activity);
-        mWorldLock = WorldLock.getInstance();
+        mWorldLock = mPhysicsLoop.getWorldLock();
 
         setRenderer(mPhysicsLoop);
 
-        mController = new RotatableController(activity);
+        mController = new RotatableController(activity, mPhysicsLoop);
+
+        // Keep the last frame on screen while the world is at rest
+        mWorldLock.getRestDetector().addRestListener(new RestDetector.RestListener() {
+            @Override
+            public void onRest() {
+                setRenderMode(GLSurfaceView.RENDERMODE_WHEN_DIRTY);
+            }
+
+            @Override
+            public void onWake() {
+                setRenderMode(GLSurfaceView.RENDERMODE_CONTINUOUSLY);
+            }
+        });
+    }
+
+    @Override
+    protected void onAttachedToWindow() {
+        // Attached again after onDetachedFromWindow() freed the world
+        if (mPhysicsLoop != null && mPhysicsLoop.isDisposed())
+            mPhysicsLoop.reset();
+        super.onAttachedToWindow();
+    }
+
+    @Override
+    protected void onDetachedFromWindow() {
+        // The surface, and with it the render thread, only goes after this
+        stopThread();
+        super.onDetachedFromWindow();
+        if (mPhysicsLoop != null) {
+            mController.release();
+            mPhysicsLoop.dispose();
+        }
+    }
+
+    @Override
+    public PhysicsLoop getPhysicsLoop() {
+        return mPhysicsLoop;
     }
 
     @Override
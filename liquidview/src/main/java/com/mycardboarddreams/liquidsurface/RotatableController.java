@@ -9,8 +9,9 @@ import android.view.MotionEvent;
 import android.view.Surface;
 import android.view.View;
 
-import com.google.fpl.liquidfunpaint.physics.WorldLock;
+import com.google.fpl.liquidfunpaint.renderer.PhysicsLoop;
 import com.google.fpl.liquidfunpaint.tool.Tool;
+import com.google.fpl.liquidfunpaint.tool.ToolSet;
 
 /**
  * Created on 5/24/2015.
@@ -20,11 +21,16 @@ public class RotatableController implements View.OnTouchListener, SensorEventLis
     private Sensor mAccelerometer;
     private final float[] mGravityVec = new float[2];
     private Tool mTool = null;
+    private final PhysicsLoop mPhysicsLoop;
+    private final ToolSet mToolSet;
 
     private static final String TAG = "Controller";
     private static final float GRAVITY = 10f;
 
-    public RotatableController(Activity activity) {
+    public RotatableController(Activity activity, PhysicsLoop physicsLoop) {
+        mPhysicsLoop = physicsLoop;
+        mToolSet = new ToolSet(physicsLoop);
+
         // Get rotation and set the vector
         updateDownDirection(activity);
 
@@ -80,7 +86,7 @@ public class RotatableController implements View.OnTouchListener, SensorEventLis
 
             float gravityX = mGravityVec[0] * x - mGravityVec[1] * y;
             float gravityY = mGravityVec[1] * x + mGravityVec[0] * y;
-            WorldLock.getInstance().setGravity(
+            mPhysicsLoop.getWorldLock().setGravity(
                     gravityX,
                     gravityY);
         }
@@ -94,7 +100,7 @@ public class RotatableController implements View.OnTouchListener, SensorEventLis
 
     public void setTool(Tool.ToolType type) {
         Tool oldTool = mTool;
-        mTool = Tool.getTool(type);
+        mTool = mToolSet.getTool(type);
 
         if (oldTool != mTool) {
             if (oldTool != null) {
@@ -107,6 +113,13 @@ public class RotatableController implements View.OnTouchListener, SensorEventLis
     }
 
     public void reset() {
-        Tool.resetAllTools();
+        mToolSet.resetAllTools();
+    }
+
+    /**
+     * Drop the tool state that refers to the world, before it is disposed.
+     */
+    public void release() {
+        mToolSet.release();
     }
 }